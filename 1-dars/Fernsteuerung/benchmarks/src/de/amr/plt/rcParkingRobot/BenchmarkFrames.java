@@ -0,0 +1,78 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import parkingRobot.hsamr0.HmiPLT.Command;
+
+/**
+ * Builds byte streams of HmiPLT frames as sent by the NXT, shared by the benchmarks.
+ * @author PLT
+ *
+ */
+public final class BenchmarkFrames {
+
+	private BenchmarkFrames() {
+	}
+
+	/**
+	 * Creates a stream of frames with the mix of a scouting run: mostly positions, some status and parking slot frames.
+	 * @param frames number of frames
+	 * @param seed seed of the random generator
+	 * @return the encoded frames
+	 */
+	public static byte[] scoutingRun(int frames, long seed) {
+		Random random = new Random(seed);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(frames * 48);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			for (int i = 0; i < frames; i++) {
+				int kind = random.nextInt(20);
+				if (kind == 0) {
+					out.writeInt(Command.OUT_STATUS.ordinal());
+					out.writeInt(random.nextInt(CurrentStatus.values().length));
+				} else if (kind == 1) {
+					out.writeInt(Command.OUT_PARKSLOT.ordinal());
+					out.writeInt(random.nextInt(3));
+					out.writeInt(1 + random.nextInt(100));
+					for (int j = 0; j < 4; j++) {
+						out.writeFloat(random.nextFloat() * 2);
+					}
+				} else {
+					out.writeInt(Command.OUT_POSITION.ordinal());
+					out.writeFloat(random.nextFloat() * 2);
+					out.writeFloat(random.nextFloat() * 2);
+					out.writeFloat((float) (random.nextFloat() * 2 * Math.PI));
+					for (int j = 0; j < 4; j++) {
+						out.writeDouble(random.nextDouble() * 1000);
+					}
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Splits a byte stream into packets of the given size, each preceded by the two byte length header used by
+	 * {@code NXTCommAndroid}.
+	 * @param data payload to split
+	 * @param packetSize payload bytes per packet
+	 * @return the framed packets
+	 */
+	public static byte[] packetize(byte[] data, int packetSize) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 2 * (data.length / packetSize + 1));
+		for (int offset = 0; offset < data.length; offset += packetSize) {
+			int len = Math.min(packetSize, data.length - offset);
+			bytes.write(len & 0xff);
+			bytes.write((len >> 8) & 0xff);
+			bytes.write(data, offset, len);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,117 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import parkingRobot.hsamr0.HmiPLT.Command;
+import de.amr.plt.rcParkingRobot.codec.CodecRegistry;
+import de.amr.plt.rcParkingRobot.codec.EnumCodec;
+import de.amr.plt.rcParkingRobot.codec.MessageHandler;
+import de.amr.plt.rcParkingRobot.codec.ParkingSlotCodec;
+import de.amr.plt.rcParkingRobot.codec.ParkingSlotFrame;
+import de.amr.plt.rcParkingRobot.codec.PositionCodec;
+import de.amr.plt.rcParkingRobot.codec.PositionFrame;
+
+/**
+ * Frame decoding and dispatch as done by {@link BTCommunicationThread#run() BTCommunicationThread.run()}. Android
+ * classes ({@code PointF}, {@code Handler}, {@code Log}) cannot run on a desktop JVM, so the decoded values are handed
+ * to a {@link Blackhole Blackhole} instead of being wrapped and posted; everything else follows the reader loop.
+ * @author PLT
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FrameDecodeBenchmark {
+
+	static final int FRAMES = 1000;
+
+	private byte[] stream;
+	private int[] codes;
+	private ByteArrayInputStream bytes;
+	private DataInputStream in;
+	// registry as set up by the reader, handlers consuming into the current blackhole
+	private final CodecRegistry codecs = new CodecRegistry();
+	private Blackhole sink;
+
+	@Setup(Level.Trial)
+	public void createFrames() throws IOException {
+		stream = BenchmarkFrames.scoutingRun(FRAMES, 42);
+		bytes = new ByteArrayInputStream(stream);
+		in = new DataInputStream(bytes);
+
+		codecs.register(Command.OUT_POSITION.ordinal(), new PositionCodec(), new MessageHandler<PositionFrame>() {
+			public void handle(PositionFrame position) {
+				if (sink != null) {
+					sink.consume(position.getX() + position.getY() + position.getAngle());
+					sink.consume(position.getDistances());
+				}
+			}
+		});
+		codecs.register(Command.OUT_PARKSLOT.ordinal(), new ParkingSlotCodec(), new MessageHandler<ParkingSlotFrame>() {
+			public void handle(ParkingSlotFrame slot) {
+				if (sink != null) {
+					sink.consume(slot);
+				}
+			}
+		});
+		codecs.register(Command.OUT_STATUS.ordinal(), new EnumCodec<CurrentStatus>(CurrentStatus.class),
+				new MessageHandler<CurrentStatus>() {
+			public void handle(CurrentStatus status) {
+				if (sink != null) {
+					sink.consume(status);
+				}
+			}
+		});
+
+		// message codes only, for measuring dispatch on its own
+		codes = new int[FRAMES];
+		for (int i = 0; i < FRAMES; i++) {
+			codes[i] = in.readInt();
+			codecs.dispatch(codes[i], in);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void rewind() {
+		bytes.reset();
+	}
+
+	/**
+	 * Decodes a stream of mixed frames.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void decode(Blackhole bh) throws IOException {
+		sink = bh;
+		for (int i = 0; i < FRAMES; i++) {
+			int code = in.readInt();
+			bh.consume(codecs.dispatch(code, in));
+		}
+	}
+
+	/**
+	 * Looks up the codec of each message code, without reading any payload.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(FRAMES)
+	public void dispatch(Blackhole bh) {
+		for (int i = 0; i < FRAMES; i++) {
+			bh.consume(codecs.getCodec(codes[i]));
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+
+/**
+ * Parking slot lookup by ID in the {@link ParkingSlotTable ParkingSlotTable} behind
+ * {@code AndroidHmiPLT.getParkingSlot(int)}.
+ * @author PLT
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParkingSlotLookupBenchmark {
+
+	@Param({"10", "100", "1000"})
+	int slots;
+
+	private ParkingSlotTable parkingSlots;
+	private int[] ids;
+	private int next;
+
+	@Setup
+	public void createSlots() {
+		parkingSlots = new ParkingSlotTable();
+		for (int id = 1; id <= slots; id++) {
+			parkingSlots.put(new ParkingSlot(id));
+		}
+		Random random = new Random(42);
+		ids = new int[1024];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = 1 + random.nextInt(slots);
+		}
+	}
+
+	@Benchmark
+	public ParkingSlot getParkingSlot() {
+		return parkingSlots.get(ids[next++ & (ids.length - 1)]);
+	}
+}
@@ -0,0 +1,52 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The default distance filter chain of {@code AndroidHmiPLT} applied to noisy samples of the four distance sensors.
+ * {@code gc.alloc.rate.norm} is expected to stay at zero.
+ * @author PLT
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilterChainBenchmark {
+
+	private FilterChain chain;
+	private double[][] samples;
+	private final double[] values = new double[4];
+	private int next;
+
+	@Setup
+	public void createChain() {
+		chain = new FilterChain(4);
+		chain.add(new OutlierFilter(4, 300, 3));
+		chain.add(new MedianFilter(4, 5));
+		chain.add(new EmaFilter(4, 0.5));
+		Random random = new Random(42);
+		samples = new double[1024][4];
+		for (double[] sample : samples) {
+			for (int c = 0; c < sample.length; c++) {
+				sample[c] = 200 + random.nextGaussian() * 10 + (random.nextInt(50) == 0 ? 800 : 0);
+			}
+		}
+	}
+
+	@Benchmark
+	public double[] apply() {
+		double[] sample = samples[next++ & (samples.length - 1)];
+		System.arraycopy(sample, 0, values, 0, values.length);
+		chain.apply(values);
+		return values;
+	}
+}
@@ -0,0 +1,77 @@
+package lejos.pc.comm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.amr.plt.rcParkingRobot.BenchmarkFrames;
+
+/**
+ * Packet framing of {@link NXTCommAndroid NXTCommAndroid}: reading packets in PACKET and LCP mode as the read thread
+ * does, and adding the length header into the reused buffer as the write thread does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NXTFramingBenchmark {
+
+	static final int PACKETS = 256;
+
+	/**
+	 * Payload bytes per packet, 8 is a single HMI command and 44 a position frame.
+	 */
+	@Param({"8", "44", "200"})
+	int packetSize;
+
+	private ByteArrayInputStream packets;
+	private byte[] command;
+	private final byte[] buffer = new byte[202];
+
+	@Setup(Level.Trial)
+	public void createPackets() {
+		byte[] payload = new byte[PACKETS * packetSize];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = (byte) i;
+		}
+		packets = new ByteArrayInputStream(BenchmarkFrames.packetize(payload, packetSize));
+		command = new byte[packetSize];
+	}
+
+	@Setup(Level.Invocation)
+	public void rewind() {
+		packets.reset();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void read(Blackhole bh) throws IOException {
+		for (int i = 0; i < PACKETS; i++) {
+			bh.consume(NXTFraming.read(packets));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PACKETS)
+	public void readLCP(Blackhole bh) throws IOException {
+		for (int i = 0; i < PACKETS; i++) {
+			bh.consume(NXTFraming.readLCP(packets, packets.read()));
+		}
+	}
+
+	@Benchmark
+	public int write() {
+		return NXTFraming.frame(command, buffer);
+	}
+}
@@ -0,0 +1,59 @@
+package lejos.pc.comm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Hand-off of packets between the read thread and the consumer of {@link NXTCommAndroid#read() NXTCommAndroid.read()}
+ * through the {@link ReadQueue ReadQueue} they share: an {@code offer} on one side, a wait for the packet on the other.
+ * Run as a ping-pong between two threads so the queues stay short and the score is the round trip time.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadQueueBenchmark {
+
+	private final ReadQueue ping = new ReadQueue();
+	private final ReadQueue pong = new ReadQueue();
+	private final byte[] packet = new byte[44];
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public byte[] reader(Control control) throws InterruptedException {
+		ping.offer(packet);
+		return read(pong, control);
+	}
+
+	@Benchmark
+	@Group("handoff")
+	@GroupThreads(1)
+	public void consumer(Control control) throws InterruptedException {
+		byte[] b = read(ping, control);
+		if (b != null) {
+			pong.offer(b);
+		}
+	}
+
+	// waits like the take() of NXTCommAndroid.read(), waking now and then to bail out once JMH ends the iteration
+	private static byte[] read(ReadQueue queue, Control control) throws InterruptedException {
+		byte b[] = null;
+
+		while (b == null) {
+			b = queue.poll(10);
+			if (control.stopMeasurement) {
+				return null;
+			}
+		}
+		return b;
+	}
+}
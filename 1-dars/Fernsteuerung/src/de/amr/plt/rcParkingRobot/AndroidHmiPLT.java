@@ -2,9 +2,13 @@ package de.amr.plt.rcParkingRobot;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import parkingRobot.INxtHmi.Mode;
 import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
@@ -15,6 +19,21 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Messenger;
 import android.util.Log;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+import de.amr.plt.rcParkingRobot.filter.EmaFilter;
+import de.amr.plt.rcParkingRobot.filter.FilterChain;
+import de.amr.plt.rcParkingRobot.filter.MedianFilter;
+import de.amr.plt.rcParkingRobot.filter.OutlierFilter;
+import de.amr.plt.rcParkingRobot.map.OccupancyGrid;
+import de.amr.plt.rcParkingRobot.map.OccupancyMapper;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.export.SnapshotExporter;
+import de.amr.plt.rcParkingRobot.metrics.Gauge;
+import de.amr.plt.rcParkingRobot.metrics.LatencyTracer;
+import de.amr.plt.rcParkingRobot.metrics.LatencyTracer.Stage;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+import de.amr.plt.rcParkingRobot.record.FrameCaptureInputStream;
+import de.amr.plt.rcParkingRobot.record.SessionRecorder;
 
 /**
  * Reference implementation of Android HMI module for communication with NXT robot. The module is used by instantiating it with  
@@ -38,20 +57,34 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	String nxtName;
 	String nxtAddress;
 	// Data stream for incoming bluetooth data
-	DataInputStream dataIn;
+	volatile DataInputStream dataIn;
+	// Keeps the raw bytes of the frame being read from dataIn
+	volatile FrameCaptureInputStream inboundCapture;
+	// Recorder of raw frames, null if not recording
+	volatile SessionRecorder recorder;
+	// Publishes the latest values to other processes, null if not exporting
+	private SnapshotExporter exporter;
+	// Builds an occupancy grid from the distance sensors, null if not mapping
+	volatile OccupancyMapper mapper;
+	// Grid of the last mapping, kept for display after mapping stopped
+	private OccupancyGrid occupancyGrid;
 	// Data stream for outgoing bluetooth data
-	DataOutputStream dataOut;
+	volatile DataOutputStream dataOut;
 
-	/**
-	 * Whether the device is currently connected to a LEGO NXT
-	 */
-	public boolean connected = false;
+	// State of the connection to the robot, replaces the former flag connected
+	final ConnectionStateMachine connection = new ConnectionStateMachine();
+	// Whether a lost Bluetooth connection is opened again
+	private volatile boolean reconnect = false;
 
 	// This thread handles bluetooth connection to remote device.
-	private ConnectThread connectThread;
+	private volatile ConnectThread connectThread;
 
 	// Thread listens for incoming bluetooth data and sends outgoing data
-	BTCommunicationThread bTCommunicationThread;
+	volatile BTCommunicationThread bTCommunicationThread;
+	// Connect and reader threads of the current connection, stopped and joined on disconnect
+	private final WorkerGroup workers = new WorkerGroup();
+	// How long the disconnect thread waits for the threads of the connection to end
+	private static final long STOP_TIMEOUT_MILLIS = 2000;
 
 	// Message handler for position data from ReaderThread
 	PositionHandler positionHandler;
@@ -61,12 +94,41 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	StatusHandler statusHandler;
 	// Messenger for request messages
 	protected Messenger messenger;
+	// Extrapolates the position between received samples
+	final PositionEstimator positionEstimator = new PositionEstimator();
+	// Smooths the four distance values between decoding and publishing
+	final FilterChain distanceFilter = new FilterChain(4);
+	// Times status changes and notifies status listeners
+	final StatusTracker statusTracker = new StatusTracker();
+	// Matches mode commands with the status they lead to, if enabled
+	final CommandTracker commandTracker = new CommandTracker(this);
+	// Adapts the position rate to the link, if enabled
+	final RateController rateController = new RateController(this);
+	// Ranks the parking slots and selects the best one if asked to
+	final ParkingSlotSelector slotSelector = new ParkingSlotSelector(this);
 
 	/**
 	 * Message handler for receiving commands from main thread, forwarding requests to bluetooth output stream
 	 */
 	public MessageHandler messageHandler = new MessageHandler();
 
+	// Listeners notified by the handlers on the main thread
+	private final List<TelemetryListener> listeners = new CopyOnWriteArrayList<TelemetryListener>();
+
+	// connection metrics
+	private final Counter connects = MetricsRegistry.getDefault().counter("hmi.connects");
+	private final Counter reconnects = MetricsRegistry.getDefault().counter("hmi.reconnects");
+	private final Counter disconnects = MetricsRegistry.getDefault().counter("hmi.disconnects");
+	// whether this module has been connected before
+	private boolean wasConnected = false;
+	// registered from connect to disconnect, so the registry does not keep modules of ended sessions
+	private final Gauge slotCount = new Gauge() {
+		@Override
+		public long get() {
+			return parkSlotHandler.getNoOfParkingSlots();
+		}
+	};
+
 	/**
 	 * Creates a new Android HMI module. Each module instance can connect to only one NXT device, provided via name and address.
 	 * @param nxtName
@@ -75,57 +137,270 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	public AndroidHmiPLT(String nxtName, String nxtAddress) {
 		this.nxtName = nxtName;
 		this.nxtAddress = nxtAddress;
-		this.positionHandler = new PositionHandler();
-		this.parkSlotHandler = new ParkSlotHandler();
-		this.statusHandler = new StatusHandler();
+		this.positionHandler = new PositionHandler(listeners);
+		this.parkSlotHandler = new ParkSlotHandler(listeners);
+		this.statusHandler = new StatusHandler(listeners, statusTracker);
+		// reject single readings jumping by more than 30 cm, then median of 5 and a light average
+		distanceFilter.add(new OutlierFilter(4, 300, 3));
+		distanceFilter.add(new MedianFilter(4, 5));
+		distanceFilter.add(new EmaFilter(4, 0.5));
 	}
 
 	/**
-	 * Connects to the NXT remote device specified by {@code nxtName} and {@code nxtAddress}.
+	 * Connects to the NXT remote device specified by {@code nxtName} and {@code nxtAddress}. Returns at once, the
+	 * state changes from CONNECTING to CONNECTED or back to DISCONNECTED, see
+	 * {@link #addConnectionListener(ConnectionListener) addConnectionListener}. Does nothing unless DISCONNECTED.
 	 */
 	public synchronized void connect() {
-		if (!isConnected()) {
-			connectThread = new ConnectThread(this);
-			connectThread.setName("connectThread");
-			connectThread.setDaemon(true);
-			connectThread.start();
+		if (connection.moveTo(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING)) {
+			MetricsRegistry.getDefault().register("hmi.parkingSlots", slotCount);
+			workers.open();
+			startConnectThread();
+		}
+	}
+
+	private void startConnectThread() {
+		ConnectThread thread = new ConnectThread(this);
+		thread.setName("connectThread");
+		thread.setDaemon(true);
+		connectThread = thread;
+		workers.start(thread);
+	}
+
+	/**
+	 * Connects to an already opened pair of streams instead of a NXT device, e.g. to a
+	 * {@link de.amr.plt.rcParkingRobot.sim.NxtSimulator NxtSimulator} reached via TCP.
+	 * @param in stream carrying data sent by the robot
+	 * @param out stream receiving commands for the robot
+	 */
+	public synchronized void connect(InputStream in, OutputStream out) {
+		if (connection.moveTo(ConnectionState.DISCONNECTED, ConnectionState.CONNECTING)) {
+			MetricsRegistry.getDefault().register("hmi.parkingSlots", slotCount);
+			workers.open();
+			startCommunication(in, out);
+			connection.moveTo(ConnectionState.CONNECTING, ConnectionState.CONNECTED);
+		}
+	}
+
+	/**
+	 * Called by the connect thread once the reader thread runs.
+	 */
+	void connectSucceeded() {
+		// from CONNECTING or RECONNECTING, not if disconnecting meanwhile
+		connection.moveTo(ConnectionState.CONNECTED);
+	}
+
+	/**
+	 * Called by the connect thread if no connection could be opened.
+	 */
+	void connectFailed() {
+		if (!connection.moveTo(ConnectionState.CONNECTING, ConnectionState.DISCONNECTED)) {
+			connection.moveTo(ConnectionState.RECONNECTING, ConnectionState.DISCONNECTED);
+		}
+	}
+
+	/**
+	 * Called by the reader thread when its stream ended or failed without a disconnect. Does not lock the module, a
+	 * disconnect may be waiting for the reader thread to end.
+	 * @param thread the reader thread
+	 */
+	void connectionLost(BTCommunicationThread thread) {
+		if (thread != bTCommunicationThread) {
+			return;
+		}
+		// only a Bluetooth connection can be opened again, streams passed to connect(in, out) cannot
+		ConnectThread oldConnectThread = connectThread;
+		ConnectionState next = reconnect && oldConnectThread != null ? ConnectionState.RECONNECTING : ConnectionState.DISCONNECTED;
+		if (!connection.moveTo(ConnectionState.CONNECTED, next) && !connection.moveTo(ConnectionState.DEGRADED, next)) {
+			// disconnecting anyway
+			return;
+		}
+		Log.e("AndroidHmiPLT", "Connection lost");
+		bTCommunicationThread = null;
+		thread.closeStreams();
+		if (oldConnectThread != null) {
+			oldConnectThread.close();
+		}
+		if (next == ConnectionState.RECONNECTING) {
+			startConnectThread();
+		}
+	}
+
+	/**
+	 * Sets whether a lost Bluetooth connection is opened again, passing through RECONNECTING. Off by default, a lost
+	 * connection goes to DISCONNECTED then.
+	 * @param reconnect true to reconnect
+	 */
+	public void setReconnect(boolean reconnect) {
+		this.reconnect = reconnect;
+	}
+
+	/**
+	 * Wraps the given streams and starts the thread reading from them.
+	 * @param in stream carrying data sent by the robot
+	 * @param out stream receiving commands for the robot
+	 * @return false if disconnected meanwhile, the streams are closed then
+	 */
+	boolean startCommunication(InputStream in, OutputStream out) {
+		connects.increment();
+		if (wasConnected) {
+			reconnects.increment();
 		}
+		wasConnected = true;
+		positionEstimator.reset();
+		distanceFilter.reset();
+		statusTracker.reset();
+		commandTracker.reset();
+		rateController.reset();
+		inboundCapture = new FrameCaptureInputStream(in);
+		dataIn = new DataInputStream(inboundCapture);
+		dataOut = new DataOutputStream(out);
+		BTCommunicationThread thread = new BTCommunicationThread(this, dataIn, dataOut, inboundCapture);
+		thread.setName("readerThread");
+		thread.setDaemon(true);
+		bTCommunicationThread = thread;
+		if (!workers.start(thread)) {
+			// disconnected while connecting
+			bTCommunicationThread = null;
+			thread.closeStreams();
+			return false;
+		}
+		messenger = new Messenger(messageHandler);
+		return true;
 	}
 
 	/**
-	 * Disconnects from the current device. 
+	 * Disconnects from the current device. Returns at once, the state passes through CLOSING to DISCONNECTED, see
+	 * {@link #addConnectionListener(ConnectionListener) addConnectionListener}. A disconnect thread closes the streams,
+	 * which ends blocking reads, interrupts the connect and reader threads and waits up to two seconds for them to end.
+	 * Threads still running after that are logged and counted in the metric {@code hmi.threads.leaked}. Connecting
+	 * again is possible once DISCONNECTED.
 	 */
 	public synchronized void disconnect() {
+		final boolean closing = connection.moveTo(ConnectionState.CLOSING);
+		final DataInputStream in = dataIn;
+		final DataOutputStream out = dataOut;
+		final ConnectThread oldConnectThread = connectThread;
+		final List<Thread> stopping = workers.close();
+		dataIn = null;
+		dataOut = null;
+		// the capture buffer goes with the stream
+		inboundCapture = null;
+		bTCommunicationThread = null;
+		connectThread = null;
+		MetricsRegistry.getDefault().unregister("hmi.parkingSlots", slotCount);
+
+		Thread thread = new Thread("disconnectThread") {
+			@Override
+			public void run() {
+				closeStreams(in, out);
+				if (oldConnectThread != null) {
+					oldConnectThread.close();
+				}
+				int leaked = workers.join(stopping, STOP_TIMEOUT_MILLIS);
+				if (leaked > 0) {
+					Log.e("AndroidHmiPLT", leaked+" threads still running after disconnect");
+				}
+				if (closing) {
+					connection.moveTo(ConnectionState.CLOSING, ConnectionState.DISCONNECTED);
+					disconnects.increment();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void closeStreams(DataInputStream in, DataOutputStream out) {
 		try {
-			dataIn.close();
-			dataOut.close();
-			connectThread.close();
+			if (in != null) {
+				in.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		finally{
-			dataIn = null;
-			dataOut = null;
-			bTCommunicationThread = null;
-			connectThread = null;
+		try {
+			if (out != null) {
+				out.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-	
-		connected = false;
-		
 	}
 
 	/**
 	 * Checks whether connection is established or not.
-	 * @return check result
+	 * @return true if CONNECTED or DEGRADED
+	 */
+	public boolean isConnected() {
+		return connection.isConnected();
+	}
+
+	/**
+	 * @return the current connection state
+	 */
+	public ConnectionState getConnectionState() {
+		return connection.getState();
+	}
+
+	/**
+	 * Returns the connection state machine, e.g. for its history or to change when a connection counts as DEGRADED.
+	 * @return the state machine
+	 */
+	public ConnectionStateMachine getConnectionStateMachine() {
+		return connection;
+	}
+
+	/**
+	 * Registers a listener to be notified of every connection state change, on the main thread.
+	 * @param listener the listener
 	 */
-	public synchronized boolean isConnected() {
-		return connected;
+	public void addConnectionListener(ConnectionListener listener) {
+		connection.addConnectionListener(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with {@link #addConnectionListener(ConnectionListener) addConnectionListener}.
+	 * @param listener the listener
+	 */
+	public void removeConnectionListener(ConnectionListener listener) {
+		connection.removeConnectionListener(listener);
 	}
 
 	public Position getPosition() {
 		return positionHandler.getPosition();
 	}
 
+	/**
+	 * Returns the position extrapolated to the current time from the positions received so far, see
+	 * {@link PositionEstimator PositionEstimator}. Unlike {@link #getPosition() getPosition()} it moves smoothly between
+	 * position updates.
+	 * @return estimated position, or the initial position if none has been received yet
+	 */
+	public Position getEstimatedPosition() {
+		Position estimate = positionEstimator.getPosition(System.nanoTime());
+		return estimate != null ? estimate : getPosition();
+	}
+
+	/**
+	 * Returns the estimator behind {@link #getEstimatedPosition() getEstimatedPosition()}, e.g. to tune its extrapolation
+	 * horizon and correction time.
+	 * @return the position estimator
+	 */
+	public PositionEstimator getPositionEstimator() {
+		return positionEstimator;
+	}
+
+	/**
+	 * Returns the filters the distance values (front, right, back, left) pass before they are published. By default
+	 * readings jumping by more than 300 mm are rejected up to 3 times in a row, followed by a median of 5 and an
+	 * exponential moving average with weight 0.5. Clear the chain to see raw values.
+	 * @return the distance filter chain
+	 */
+	public FilterChain getDistanceFilter() {
+		return distanceFilter;
+	}
+
 	public int getNoOfParkingSlots() {
 		return parkSlotHandler.getNoOfParkingSlots();
 	}
@@ -134,16 +409,241 @@ public class AndroidHmiPLT implements IAndroidHmi {
 		return parkSlotHandler.getParkingSlot(id);
 	}
 
+	/**
+	 * Returns the parking slots within the given distance of the robot's {@link #getEstimatedPosition() estimated
+	 * position}, e.g. the GOOD slots nearby.
+	 * @param radius distance in mm
+	 * @param status only slots with this status, or null for all
+	 * @return matching slots in no particular order, empty if no position has been received yet
+	 */
+	public List<ParkingSlot> getParkingSlotsWithin(double radius, ParkingSlotStatus status) {
+		float[] pose = new float[3];
+		if (!positionEstimator.estimate(System.nanoTime(), pose)) {
+			return new ArrayList<ParkingSlot>();
+		}
+		return parkSlotHandler.getIndex().findWithin(pose[0], pose[1], radius, status);
+	}
+
+	/**
+	 * Returns the parking slot nearest to the robot's {@link #getEstimatedPosition() estimated position} that lies ahead
+	 * along its heading.
+	 * @param status only slots with this status, or null for all
+	 * @return nearest slot ahead, or null if there is none or no position has been received yet
+	 */
+	public ParkingSlot getNearestParkingSlotAhead(ParkingSlotStatus status) {
+		float[] pose = new float[3];
+		if (!positionEstimator.estimate(System.nanoTime(), pose)) {
+			return null;
+		}
+		return parkSlotHandler.getIndex().findNearestAhead(pose[0], pose[1], pose[2], status);
+	}
+
+	/**
+	 * Returns the spatial index of the parking slots found so far, for queries around other points than the robot.
+	 * @return the parking slot index
+	 */
+	public ParkingSlotIndex getParkingSlotIndex() {
+		return parkSlotHandler.getIndex();
+	}
+
+	/**
+	 * Returns the engine ranking the parking slots found so far. Turn on its
+	 * {@link ParkingSlotSelector#setAutoSelect(boolean) automatic selection} to have the best slot sent to the robot
+	 * instead of calling {@link #setSelectedParkingSlot(int) setSelectedParkingSlot(int)}.
+	 * @return the parking slot selector
+	 */
+	public ParkingSlotSelector getSlotSelector() {
+		return slotSelector;
+	}
+
+	/**
+	 * Returns the tracker of status changes. Register a {@link StatusListener StatusListener} with it to react to a
+	 * change, e.g. to EXIT, as soon as it arrives, and use its dwell times to see how long manoeuvres take.
+	 * @return the status tracker
+	 */
+	public StatusTracker getStatusTracker() {
+		return statusTracker;
+	}
+
 	public CurrentStatus getCurrentStatus() {
 		return statusHandler.getStatus();
 	}
 
 	public void setMode(Mode mode) {
-		bTCommunicationThread.sendMode(mode);
+		BTCommunicationThread thread = bTCommunicationThread;
+		if (thread != null) {
+			thread.sendMode(mode);
+		}
+	}
+
+	/**
+	 * Sends a mode command again on behalf of the {@link CommandTracker CommandTracker}.
+	 * @param mode the mode
+	 */
+	void resendMode(Mode mode) {
+		BTCommunicationThread thread = bTCommunicationThread;
+		if (thread != null) {
+			thread.resendMode(mode);
+		}
+	}
+
+	/**
+	 * Returns the tracker of mode command acknowledgements and round-trip times. Tracking is off until
+	 * {@link CommandTracker#setEnabled(boolean) enabled}.
+	 * @return the command tracker
+	 */
+	public CommandTracker getCommandTracker() {
+		return commandTracker;
+	}
+
+	/**
+	 * Returns the controller adapting the robot's position update rate to the health of the link. It is off until
+	 * {@link RateController#setEnabled(boolean) enabled}, since the robot has to understand its rate requests.
+	 * @return the rate controller
+	 */
+	public RateController getRateController() {
+		return rateController;
 	}
 
 	public void setSelectedParkingSlot(int id) {
-		bTCommunicationThread.sendSelectedParkingSlot(id);
+		BTCommunicationThread thread = bTCommunicationThread;
+		if (thread != null) {
+			thread.sendSelectedParkingSlot(id);
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of every position, parking slot and status received, on the main thread.
+	 * @param listener the listener
+	 */
+	public void addTelemetryListener(TelemetryListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with {@link #addTelemetryListener(TelemetryListener) addTelemetryListener}.
+	 * @param listener the listener
+	 */
+	public void removeTelemetryListener(TelemetryListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Starts recording every raw frame received from and sent to the robot, see {@link SessionRecorder}. A recording
+	 * already running is stopped first.
+	 * @param file recording file, replaced if it exists
+	 * @throws IOException if the file cannot be created
+	 */
+	public synchronized void startRecording(File file) throws IOException {
+		stopRecording();
+		recorder = new SessionRecorder(file);
+	}
+
+	/**
+	 * Stops recording and closes the recording file, if recording.
+	 */
+	public synchronized void stopRecording() {
+		SessionRecorder r = recorder;
+		recorder = null;
+		if (r != null) {
+			r.close();
+		}
+	}
+
+	/**
+	 * Starts publishing the latest position, status and up to 64 parking slots into a memory-mapped file, see
+	 * {@link SnapshotExporter SnapshotExporter}; other processes read it with a
+	 * {@link de.amr.plt.rcParkingRobot.export.SnapshotReader SnapshotReader}. The values received so far are published at
+	 * once. An export already running is stopped first.
+	 * @param file file to publish into, must be readable by the consumers
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public synchronized void startExport(File file) throws IOException {
+		stopExport();
+		SnapshotExporter e = new SnapshotExporter(file, 64);
+		e.onPosition(positionHandler.getPosition());
+		if (statusHandler.getStatus() != null) {
+			e.onStatus(statusHandler.getStatus());
+		}
+		for (ParkingSlot slot : parkSlotHandler.getParkingSlots()) {
+			e.onParkingSlot(slot);
+		}
+		exporter = e;
+		listeners.add(e);
+	}
+
+	/**
+	 * Stops publishing, if exporting. The file keeps the last values.
+	 */
+	public synchronized void stopExport() {
+		SnapshotExporter e = exporter;
+		exporter = null;
+		if (e != null) {
+			listeners.remove(e);
+			e.close();
+		}
+	}
+
+	/**
+	 * Starts mapping the distance sensor readings into a new 5 m by 5 m {@link OccupancyGrid occupancy grid} at 2 cm
+	 * resolution, reaching 1 m behind and beside the start position. A mapping already running is stopped first.
+	 */
+	public void startMapping() {
+		startMapping(new OccupancyGrid(250, 250, 0.02f, -1, -1));
+	}
+
+	/**
+	 * Starts mapping the distance sensor readings into the given grid, see {@link OccupancyMapper OccupancyMapper}. A
+	 * mapping already running is stopped first.
+	 * @param grid grid to map into
+	 */
+	public synchronized void startMapping(OccupancyGrid grid) {
+		stopMapping();
+		OccupancyMapper m = new OccupancyMapper(grid, 256);
+		m.start();
+		occupancyGrid = grid;
+		mapper = m;
+	}
+
+	/**
+	 * Stops mapping, if mapping. The grid stays available through {@link #getOccupancyGrid() getOccupancyGrid()}.
+	 */
+	public synchronized void stopMapping() {
+		OccupancyMapper m = mapper;
+		mapper = null;
+		if (m != null) {
+			m.stop();
+		}
+	}
+
+	/**
+	 * @return grid of the current or last mapping, null if mapping was never started
+	 */
+	public synchronized OccupancyGrid getOccupancyGrid() {
+		return occupancyGrid;
+	}
+
+	/**
+	 * Reports that the latest position has been shown to the user. Only the first report per position is counted.
+	 */
+	public void positionRendered() {
+		LatencyTracer.getDefault().mark(positionHandler.getFrame(), Stage.RENDER);
+	}
+
+	/**
+	 * Returns the tracer recording how long frames take from the Bluetooth socket to the screen.
+	 * @return the latency tracer
+	 */
+	public LatencyTracer getLatencyTracer() {
+		return LatencyTracer.getDefault();
+	}
+
+	/**
+	 * Returns the registry holding byte, frame, queue and connection metrics of the communication stack.
+	 * @return the metrics registry
+	 */
+	public MetricsRegistry getMetrics() {
+		return MetricsRegistry.getDefault();
 	}
 
 	/**
@@ -154,6 +654,12 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	static class PositionHandler extends Handler {
 
 		private Position position = new Position(new PointF(1, 1), 45, new double[]{0.0, 0.0, 0.0, 0.0});
+		private int frame = LatencyTracer.NO_FRAME;
+		private final List<TelemetryListener> listeners;
+
+		PositionHandler(List<TelemetryListener> listeners) {
+			this.listeners = listeners;
+		}
 
 		/**
 		 * Returns the latest position information received from NXT device.
@@ -163,9 +669,21 @@ public class AndroidHmiPLT implements IAndroidHmi {
 			return position;
 		}
 
+		/**
+		 * @return trace id of the frame carrying the latest position
+		 */
+		int getFrame() {
+			return frame;
+		}
+
 		@Override
 		public void handleMessage(Message msg) {
 			position = (Position)msg.obj;
+			frame = msg.arg1;
+			LatencyTracer.getDefault().mark(frame, Stage.PUBLISH);
+			for (TelemetryListener l : listeners) {
+				l.onPosition(position);
+			}
 		}
 
 	};
@@ -177,7 +695,15 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	 */
 	static class ParkSlotHandler extends Handler {
 
-		private List<ParkingSlot> parkingSlots = new ArrayList<ParkingSlot>();
+		// one version per ID, resent slots replace the former version
+		private final ParkingSlotTable parkingSlots = new ParkingSlotTable();
+		// the same slots by location
+		private final ParkingSlotIndex index = new ParkingSlotIndex();
+		private final List<TelemetryListener> listeners;
+
+		ParkSlotHandler(List<TelemetryListener> listeners) {
+			this.listeners = listeners;
+		}
 
 		/**
 		 * Returns the latest number of parking slots found by robot.
@@ -190,20 +716,38 @@ public class AndroidHmiPLT implements IAndroidHmi {
 		/**
 		 * Returns a specific parking slot, retrieved via an ID number.
 		 * @param id ID number of the specific parking slot
-		 * @return the parking slot matching this ID, or null.
+		 * @return the latest version of the parking slot matching this ID, or null.
 		 */
 		public ParkingSlot getParkingSlot(int id) {
-			for (ParkingSlot p : parkingSlots) {
-				if (p.getID() == id) {
-					return p;
-				}
-			}
-			return null;
+			return parkingSlots.get(id);
+		}
+
+		/**
+		 * @return the parking slots in the order they were first received
+		 */
+		List<ParkingSlot> getParkingSlots() {
+			return parkingSlots.toList();
+		}
+
+		/**
+		 * @return spatial index of the parking slots
+		 */
+		ParkingSlotIndex getIndex() {
+			return index;
 		}
 
 		@Override
 		public void handleMessage(Message msg) {
-			parkingSlots.add((ParkingSlot)msg.obj);
+			ParkingSlot slot = (ParkingSlot)msg.obj;
+			LatencyTracer.getDefault().mark(msg.arg1, Stage.PUBLISH);
+			if (!parkingSlots.put(slot)) {
+				// resent without change, nothing to update
+				return;
+			}
+			index.put(slot);
+			for (TelemetryListener l : listeners) {
+				l.onParkingSlot(slot);
+			}
 		}
 
 	};
@@ -216,6 +760,13 @@ public class AndroidHmiPLT implements IAndroidHmi {
 	static class StatusHandler extends Handler {
 
 		private CurrentStatus status;
+		private final List<TelemetryListener> listeners;
+		private final StatusTracker tracker;
+
+		StatusHandler(List<TelemetryListener> listeners, StatusTracker tracker) {
+			this.listeners = listeners;
+			this.tracker = tracker;
+		}
 
 		/**
 		 * Returns the latest status received from the robot.
@@ -228,6 +779,11 @@ public class AndroidHmiPLT implements IAndroidHmi {
 		@Override
 		public void handleMessage(Message msg) {
 			status = (CurrentStatus)msg.obj;
+			LatencyTracer.getDefault().mark(msg.arg1, Stage.PUBLISH);
+			tracker.update(status, System.nanoTime());
+			for (TelemetryListener l : listeners) {
+				l.onStatus(status);
+			}
 		}
 
 	};
@@ -242,24 +798,21 @@ public class AndroidHmiPLT implements IAndroidHmi {
 
 
 		public void handleMessage(Message msg) {
-			try {
-				switch(msg.what) {
-
-				case MSG_MODE:
-					dataOut.writeInt(Command.IN_SET_MODE.ordinal());
-					dataOut.writeInt(((Mode)msg.obj).ordinal());
-					dataOut.flush();
-					break;
-
-				case MSG_SELECT_PS:
-					dataOut.writeInt(Command.IN_SELECTED_PARKING_SLOT.ordinal());
-					dataOut.writeInt((Integer)msg.obj);
-					dataOut.flush();
-					break;
-				}
-			} catch (IOException e) {
-				Log.e("MessageHandler","IOException: "+e.getMessage());
-			}	
+			BTCommunicationThread thread = bTCommunicationThread;
+			if (thread == null) {
+				Log.e("MessageHandler","Not connected, dropping message "+msg.what);
+				return;
+			}
+			switch(msg.what) {
+
+			case MSG_MODE:
+				thread.sendMode((Mode)msg.obj);
+				break;
+
+			case MSG_SELECT_PS:
+				thread.sendSelectedParkingSlot((Integer)msg.obj);
+				break;
+			}
 		}	
 	}
 
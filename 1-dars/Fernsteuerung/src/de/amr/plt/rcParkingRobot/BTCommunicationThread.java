@@ -1,18 +1,37 @@
 package de.amr.plt.rcParkingRobot;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 
 import parkingRobot.INxtHmi.Mode;
 import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
 import parkingRobot.hsamr0.HmiPLT.Command;
-import android.graphics.PointF;
 import android.os.Message;
 import android.util.Log;
 import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
 import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.codec.CodecRegistry;
+import de.amr.plt.rcParkingRobot.codec.EnumCodec;
+import de.amr.plt.rcParkingRobot.codec.IntCodec;
+import de.amr.plt.rcParkingRobot.codec.MessageHandler;
+import de.amr.plt.rcParkingRobot.codec.ParkingSlotCodec;
+import de.amr.plt.rcParkingRobot.codec.ParkingSlotFrame;
+import de.amr.plt.rcParkingRobot.codec.PositionCodec;
+import de.amr.plt.rcParkingRobot.codec.PositionFrame;
+import de.amr.plt.rcParkingRobot.map.OccupancyMapper;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.LatencyTracer;
+import de.amr.plt.rcParkingRobot.metrics.LatencyTracer.Stage;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+import de.amr.plt.rcParkingRobot.record.FrameCaptureInputStream;
+import de.amr.plt.rcParkingRobot.record.SessionRecorder;
 
 /**
  * Thread spawned by Application main thread to handle reading and writing operations from/to bluetooth data streams.
+ * The thread keeps the streams of its connection and reads until it is interrupted or the input stream ends or fails,
+ * e.g. because {@link AndroidHmiPLT#disconnect() disconnect()} closed it.
  * @author PLT
  *
  */
@@ -24,135 +43,247 @@ class BTCommunicationThread extends Thread {
 	 * 
 	 */
 	private final AndroidHmiPLT hmi;
+	// streams of this connection, kept so that commands racing a disconnect fail with an IOException
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final FrameCaptureInputStream capture;
 
-	// local current values received from robot
-	float x = 0, y = 0, angle = 0;
-	double[] distances = new double[]{0,0,0,0};
+	// stamps frames on their way to the UI
+	private final LatencyTracer tracer = LatencyTracer.getDefault();
+	// id of the frame being decoded
+	private int frame = LatencyTracer.NO_FRAME;
+
+	// metrics replacing per frame logging
+	private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+	private final Counter positionFrames = metrics.counter("hmi.frames.position");
+	private final Counter parkSlotFrames = metrics.counter("hmi.frames.parkslot");
+	private final Counter statusFrames = metrics.counter("hmi.frames.status");
+	private final Counter decodeErrors = metrics.counter("hmi.decode.errors");
+	private final Counter commandsSent = metrics.counter("hmi.commands.out");
+
+	// codecs of the messages received and sent, indexed by opcode
+	private final CodecRegistry codecs = new CodecRegistry();
+
+	// last status received from robot
 	CurrentStatus status;
 
 	/**
 	 * @param hmi
 	 */
-	BTCommunicationThread(AndroidHmiPLT hmi) {
+	BTCommunicationThread(AndroidHmiPLT hmi, DataInputStream in, DataOutputStream out, FrameCaptureInputStream capture) {
 		this.hmi = hmi;
+		this.in = in;
+		this.out = out;
+		this.capture = capture;
+
+		codecs.register(Command.OUT_POSITION.ordinal(), new PositionCodec(), new MessageHandler<PositionFrame>() {
+			public void handle(PositionFrame position) {
+				positionReceived(position);
+			}
+		});
+		codecs.register(Command.OUT_PARKSLOT.ordinal(), new ParkingSlotCodec(), new MessageHandler<ParkingSlotFrame>() {
+			public void handle(ParkingSlotFrame slot) {
+				parkingSlotReceived(slot);
+			}
+		});
+		codecs.register(Command.OUT_STATUS.ordinal(), new EnumCodec<CurrentStatus>(CurrentStatus.class),
+				new MessageHandler<CurrentStatus>() {
+			public void handle(CurrentStatus newStatus) {
+				statusReceived(newStatus);
+			}
+		});
+		codecs.register(Command.IN_SET_MODE.ordinal(), new EnumCodec<Mode>(Mode.class));
+		codecs.register(Command.IN_SELECTED_PARKING_SLOT.ordinal(), new IntCodec());
+		codecs.register(HmiProtocol.IN_SET_POSITION_RATE, new IntCodec());
 	}
 
 
 	@Override
 	public void run() {
 
-		// Message Code
-		Command command = null;
-
-		// Transmitted integer, representing a message code
-		int code = -1;
-		while(true) {
-			if(hmi.connected) {			// Thread begins process of reading
-
-				try {
-					// first integer contains message code
-					// Careful: read* are blocking methods!
-					code = hmi.dataIn.readInt();
-
-					// Check whether the received code has a sane value
-					if (code > 0 && code < 100) {
-						command = Command.values()[code];
-						Log.i("TAG_READER_THREAD", "Command received: "+command.toString());
-					}
-
-					// Read position
-					if (command == Command.OUT_POSITION) {
-						x = hmi.dataIn.readFloat();	
-						y = hmi.dataIn.readFloat();
-						angle = hmi.dataIn.readFloat();
-						Log.i("TAG_READER_THREAD", "Position: x="+x+" y="+y+" angle="+angle);
-
-						// Distance sensor values in clockwise directions (front, right, back, left) in mm
-						distances[0] = hmi.dataIn.readDouble();
-						distances[1] = hmi.dataIn.readDouble();
-						distances[2] = hmi.dataIn.readDouble();
-						distances[3] = hmi.dataIn.readDouble();
-						Log.i("TAG_READER_THREAD", "Distances = " + distances[0] + ", " + distances[1] + ", " + distances[2] + ", " + distances[3]);
-
-						sendPosition();
-					}
-
-					// Read parking slots
-					else if (command == Command.OUT_PARKSLOT) {
-						int istatus = hmi.dataIn.readInt();
-						int id = hmi.dataIn.readInt();
-						float xf = hmi.dataIn.readFloat();
-						float yf = hmi.dataIn.readFloat();
-						float xb = hmi.dataIn.readFloat();
-						float yb = hmi.dataIn.readFloat();
-						ParkingSlot newSlot = new ParkingSlot(id, new PointF(xf,yf), new PointF(xb,yb), 
-								ParkingSlot.ParkingSlotStatus.values()[istatus]);
-						sendParkingSlot(newSlot);
-					} 
-
-					// Read status
-					else if (command == Command.OUT_STATUS) {
-						int istatus = hmi.dataIn.readInt();
-						status = CurrentStatus.values()[istatus];
-						Log.i(TAG_COMM_THREAD, "Status: "+status);
-						sendStatus();
-					}
-
-
-				} catch (IOException e)
-				{
-					Log.e(TAG_COMM_THREAD, "IOExeption: "+e.getMessage());
+		while(!isInterrupted()) {
+			try {
+				// first integer contains message code
+				// Careful: read* are blocking methods!
+				int code = in.readInt();
+				frame = tracer.beginFrame();
+				hmi.connection.frameReceived(System.nanoTime());
+
+				// the payload of an unknown code cannot be skipped, its ints are read as codes until a known one follows
+				if (codecs.dispatch(code, in) != CodecRegistry.HANDLED) {
+					decodeErrors.increment();
 				}
 
-			} // if connected
+				// hand the raw frame to the session recorder, if any
+				capture.endFrame(hmi.recorder);
 
-			try
-			{
-				Thread.sleep(50);
-			} catch (InterruptedException e)
-			{
-				Log.e(TAG_COMM_THREAD,"Interrupted Exception: "+e.getMessage());
-			} 
-			catch (Exception e)
+
+			} catch (EOFException e) {
+				capture.endFrame(null);
+				Log.i(TAG_COMM_THREAD, "End of stream");
+				break;
+			} catch (IOException e)
 			{
-				Log.e(TAG_COMM_THREAD,"Other Exception: "+e.getMessage());
-			} 
-		} // while true
+				capture.endFrame(null);
+				// a failed stream does not recover, reading on would spin
+				if (!isInterrupted()) {
+					decodeErrors.increment();
+					Log.e(TAG_COMM_THREAD, "IOExeption: "+e.getMessage());
+				}
+				break;
+			}
+		} // while not interrupted
+		if (!isInterrupted()) {
+			hmi.connectionLost(this);
+		}
+	}
+
+	private void positionReceived(PositionFrame position) {
+		float x = position.getX();
+		float y = position.getY();
+		float angle = position.getAngle();
+		// Distance sensor values in clockwise directions (front, right, back, left) in mm
+		double[] distances = position.getDistances();
+		hmi.distanceFilter.apply(distances);
+
+		positionFrames.increment();
+		tracer.mark(frame, Stage.DECODE);
+		hmi.positionEstimator.update(System.nanoTime(), x, y, angle, distances);
+		hmi.slotSelector.setPosition(x, y);
+		if (hmi.rateController.isEnabled()) {
+			try {
+				hmi.rateController.positionReceived(System.nanoTime(), in.available());
+			} catch (IOException e) {
+				// the next read fails as well and ends the loop
+			}
+		}
+		OccupancyMapper mapper = hmi.mapper;
+		if (mapper != null) {
+			mapper.offer(x, y, angle, distances);
+		}
+		sendPosition(x, y, angle, distances);
+	}
+
+	private void parkingSlotReceived(ParkingSlotFrame slot) {
+		// length, center and heading computed once by the codec
+		ParkingSlot newSlot = new ParkingSlot(slot.getId(), slot.getGeometry(), slot.getStatus());
+		parkSlotFrames.increment();
+		tracer.mark(frame, Stage.DECODE);
+		hmi.slotSelector.update(newSlot);
+		sendParkingSlot(newSlot);
+	}
+
+	private void statusReceived(CurrentStatus newStatus) {
+		if (newStatus != status) {
+			Log.i(TAG_COMM_THREAD, "Status: "+newStatus);
+			hmi.slotSelector.statusChanged(newStatus);
+		}
+		status = newStatus;
+		hmi.commandTracker.statusReceived(status, System.nanoTime());
+		statusFrames.increment();
+		tracer.mark(frame, Stage.DECODE);
+		sendStatus();
+	}
+
+	/**
+	 * Closes the streams of this connection, which ends a blocking read.
+	 */
+	void closeStreams() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			Log.e(TAG_COMM_THREAD, "close: "+e.getMessage());
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			Log.e(TAG_COMM_THREAD, "close: "+e.getMessage());
+		}
 	}
 
-	public void sendMode(Mode mode) {
+	// synchronized, commands are sent by the UI thread and by the slot selector on this thread
+	public synchronized void sendMode(Mode mode) {
 		
+		if (writeMode(mode)) {
+			hmi.commandTracker.modeSent(mode, System.nanoTime());
+		}
+		
+	}
+
+	/**
+	 * Sends a mode command again that has not been acknowledged yet.
+	 * @param mode the mode
+	 */
+	synchronized void resendMode(Mode mode) {
+		writeMode(mode);
+	}
+
+	private boolean writeMode(Mode mode) {
 		try {
-			hmi.dataOut.writeInt(Command.IN_SET_MODE.ordinal());
-			hmi.dataOut.writeInt(mode.ordinal());
-			hmi.dataOut.flush();
+			codecs.write(out, Command.IN_SET_MODE.ordinal(), mode);
+			out.flush();
+			commandsSent.increment();
+			recordCommand(Command.IN_SET_MODE.ordinal(), mode.ordinal());
+			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
+			return false;
 		}
-		
 	}
 	
-	public void sendSelectedParkingSlot(int id) {
+	public synchronized void sendSelectedParkingSlot(int id) {
 		
 		try {
-			hmi.dataOut.writeInt(Command.IN_SELECTED_PARKING_SLOT.ordinal());
-			hmi.dataOut.writeInt(id);
-			hmi.dataOut.flush();
+			codecs.write(out, Command.IN_SELECTED_PARKING_SLOT.ordinal(), id);
+			out.flush();
+			commandsSent.increment();
+			recordCommand(Command.IN_SELECTED_PARKING_SLOT.ordinal(), id);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 		
 	}
 	
-	private void sendPosition() {
-		hmi.positionHandler.sendMessage(Message.obtain(hmi.positionHandler, 0, new Position(x, y, angle, distances)));
+	/**
+	 * Requests a position update rate, see {@link RateController RateController}.
+	 * @param hz position updates per second
+	 * @return false if sending failed
+	 */
+	synchronized boolean sendPositionRate(int hz) {
+		try {
+			codecs.write(out, HmiProtocol.IN_SET_POSITION_RATE, hz);
+			out.flush();
+			commandsSent.increment();
+			recordCommand(HmiProtocol.IN_SET_POSITION_RATE, hz);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private void recordCommand(int code, int value) {
+		SessionRecorder recorder = hmi.recorder;
+		if (recorder != null) {
+			byte[] bytes = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				bytes[i] = (byte) (code >>> (24 - 8 * i));
+				bytes[4 + i] = (byte) (value >>> (24 - 8 * i));
+			}
+			recorder.record(SessionRecorder.OUTBOUND, System.nanoTime(), bytes, 0, bytes.length);
+		}
+	}
+
+	// each position gets its own copy, distances is overwritten by the next frame
+	private void sendPosition(float x, float y, float angle, double[] distances) {
+		hmi.positionHandler.sendMessage(Message.obtain(hmi.positionHandler, 0, frame, 0, new Position(x, y, angle, distances.clone())));
 	}
 
 	private void sendParkingSlot(ParkingSlot newSlot) {
-		hmi.parkSlotHandler.sendMessage(Message.obtain(hmi.parkSlotHandler, 0, newSlot));
+		hmi.parkSlotHandler.sendMessage(Message.obtain(hmi.parkSlotHandler, 0, frame, 0, newSlot));
 	}
 
 	private void sendStatus() {
-		hmi.statusHandler.sendMessage(Message.obtain(hmi.statusHandler, 0, status));
+		hmi.statusHandler.sendMessage(Message.obtain(hmi.statusHandler, 0, frame, 0, status));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package de.amr.plt.rcParkingRobot;
+
+import lejos.pc.comm.PacketClassifier;
+import parkingRobot.INxtHmi.Mode;
+import parkingRobot.hsamr0.HmiPLT.Command;
+
+/**
+ * Sorts the commands written by {@link BTCommunicationThread BTCommunicationThread} into the write lanes of the
+ * Bluetooth connection. Each command is flushed as one packet starting with the opcode: PAUSE and DISCONNECT go to
+ * SAFETY, other modes and parking slot selections to CONTROL, everything else, e.g. rate requests, to BULK. A stop
+ * supersedes the mode changes queued before it, parking slot selections are still sent.
+ * @author PLT
+ *
+ */
+class CommandPacketClassifier implements PacketClassifier {
+
+	private static final int SET_MODE = Command.IN_SET_MODE.ordinal();
+	private static final int SELECTED_PARKING_SLOT = Command.IN_SELECTED_PARKING_SLOT.ordinal();
+	private static final int PAUSE = Mode.PAUSE.ordinal();
+	private static final int DISCONNECT = Mode.DISCONNECT.ordinal();
+
+	public int classify(byte[] packet) {
+		if (packet.length < 8) {
+			return BULK;
+		}
+		int opcode = readInt(packet, 0);
+		if (opcode == SET_MODE) {
+			int mode = readInt(packet, 4);
+			return mode == PAUSE || mode == DISCONNECT ? SAFETY : CONTROL;
+		}
+		return opcode == SELECTED_PARKING_SLOT ? CONTROL : BULK;
+	}
+
+	public boolean isSuperseded(byte[] packet) {
+		return packet.length >= 8 && readInt(packet, 0) == SET_MODE;
+	}
+
+	// big-endian, as written by DataOutputStream
+	private static int readInt(byte[] b, int offset) {
+		return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16 | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+	}
+}
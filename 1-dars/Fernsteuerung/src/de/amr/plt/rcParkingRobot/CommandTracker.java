@@ -0,0 +1,233 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.EnumMap;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import parkingRobot.INxtHmi.Mode;
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Optional acknowledgement of mode commands. The robot protocol has no acknowledgement frame, so a mode command counts
+ * as applied when the robot reports the status the mode leads to: SCOUT leads to DRIVING, PARK_NOW and PARK_THIS to
+ * PARKING, PAUSE to INACTIVE and DISCONNECT to EXIT. Only a change into that status counts: if the robot was already in
+ * it when the command was sent, the status frames repeating it do not acknowledge the command, one with another status
+ * has to come first. Each command gets a local sequence number; the time from sending
+ * to the matching status frame is recorded per mode, and a command without matching status within the
+ * {@link #setTimeoutMillis(long) timeout} is sent again, up to {@link #setMaxRetries(int) a number of times}. A newer
+ * mode command replaces one still pending.
+ * <p>
+ * Round-trip times are recorded in microseconds into the histograms {@code hmi.command.rtt.<MODE>} of the
+ * {@link MetricsRegistry#getDefault() default registry}. Parking slot selections have no visible effect on the status
+ * and are not tracked.
+ * @author PLT
+ *
+ */
+public class CommandTracker {
+
+	private static final String TAG_TRACKER = "CommandTracker";
+	// longest distinguished round-trip time, one minute in us
+	private static final long MAX_RTT = 60L * 1000 * 1000;
+	// how often pending commands are checked for timeouts
+	private static final long CHECK_MILLIS = 50;
+
+	private final AndroidHmiPLT hmi;
+	private final EnumMap<Mode, Histogram> rtt = new EnumMap<Mode, Histogram>(Mode.class);
+	private final Counter acknowledged = MetricsRegistry.getDefault().counter("hmi.commands.acked");
+	private final Counter resent = MetricsRegistry.getDefault().counter("hmi.commands.resent");
+	private final Counter failed = MetricsRegistry.getDefault().counter("hmi.commands.failed");
+	private final Counter superseded = MetricsRegistry.getDefault().counter("hmi.commands.superseded");
+
+	private boolean enabled = false;
+	private long timeoutNanos = 1000L * 1000 * 1000;
+	private int maxRetries = 3;
+	private Timer timer;
+
+	// the pending command, pendingMode is null if none
+	private int sequence = 0;
+	private Mode pendingMode;
+	private CurrentStatus expected;
+	private long firstSentNanos;
+	private long lastSentNanos;
+	private int retries;
+	private int acknowledgedSequence = 0;
+	// latest status received, null if none
+	private CurrentStatus lastStatus;
+	// whether a status other than expected was current at sending or has been received since
+	private boolean leftExpected;
+
+	CommandTracker(AndroidHmiPLT hmi) {
+		this.hmi = hmi;
+		for (Mode m : Mode.values()) {
+			rtt.put(m, MetricsRegistry.getDefault().histogram("hmi.command.rtt."+m, MAX_RTT));
+		}
+	}
+
+	/**
+	 * Turns acknowledgement tracking and resending on or off. Off by default.
+	 * @param enabled true to track mode commands
+	 */
+	public synchronized void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+		if (enabled && timer == null) {
+			timer = new Timer("commandTracker", true);
+			timer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					checkTimeout();
+				}
+			}, CHECK_MILLIS, CHECK_MILLIS);
+		} else if (!enabled && timer != null) {
+			timer.cancel();
+			timer = null;
+			pendingMode = null;
+		}
+	}
+
+	/**
+	 * @return whether mode commands are tracked
+	 */
+	public synchronized boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param millis time in ms after which an unacknowledged command is sent again, default 1000
+	 */
+	public synchronized void setTimeoutMillis(long millis) {
+		this.timeoutNanos = millis * 1000 * 1000;
+	}
+
+	/**
+	 * @param retries number of times an unacknowledged command is sent again before it is given up, default 3
+	 */
+	public synchronized void setMaxRetries(int retries) {
+		this.maxRetries = retries;
+	}
+
+	/**
+	 * Returns the statistics of the time from sending a mode command to the robot reporting the matching status. Only
+	 * the first transmission counts as start, so resent commands show the full delay.
+	 * @param mode the mode
+	 * @return histogram of round-trip times in microseconds
+	 */
+	public Histogram getRoundTripTime(Mode mode) {
+		return rtt.get(mode);
+	}
+
+	/**
+	 * @return sequence number of the last mode command sent, 0 if none
+	 */
+	public synchronized int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return sequence number of the last acknowledged mode command, 0 if none
+	 */
+	public synchronized int getAcknowledgedSequence() {
+		return acknowledgedSequence;
+	}
+
+	/**
+	 * @return whether a mode command is waiting for its acknowledgement
+	 */
+	public synchronized boolean isPending() {
+		return pendingMode != null;
+	}
+
+	/**
+	 * Called when a new mode command has been sent.
+	 * @param mode the mode
+	 * @param nanos {@code System.nanoTime()} of sending
+	 */
+	synchronized void modeSent(Mode mode, long nanos) {
+		if (!enabled) {
+			return;
+		}
+		if (pendingMode != null) {
+			superseded.increment();
+		}
+		sequence++;
+		pendingMode = mode;
+		expected = expectedStatus(mode);
+		leftExpected = lastStatus != expected;
+		firstSentNanos = nanos;
+		lastSentNanos = nanos;
+		retries = 0;
+	}
+
+	/**
+	 * Called for every status frame received.
+	 * @param status the status
+	 * @param nanos {@code System.nanoTime()} of receiving
+	 */
+	synchronized void statusReceived(CurrentStatus status, long nanos) {
+		lastStatus = status;
+		if (pendingMode == null) {
+			return;
+		}
+		if (status != expected) {
+			leftExpected = true;
+			return;
+		}
+		if (!leftExpected) {
+			// the status of before the command, repeated
+			return;
+		}
+		rtt.get(pendingMode).record((nanos - firstSentNanos) / 1000);
+		acknowledged.increment();
+		acknowledgedSequence = sequence;
+		pendingMode = null;
+	}
+
+	/**
+	 * Forgets the pending command, e.g. after reconnecting.
+	 */
+	synchronized void reset() {
+		pendingMode = null;
+		lastStatus = null;
+	}
+
+	private void checkTimeout() {
+		Mode resend = null;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (pendingMode == null || now - lastSentNanos < timeoutNanos) {
+				return;
+			}
+			if (retries < maxRetries) {
+				retries++;
+				lastSentNanos = now;
+				resend = pendingMode;
+				resent.increment();
+			} else {
+				Log.e(TAG_TRACKER, "No acknowledgement for command "+sequence+" ("+pendingMode+")");
+				failed.increment();
+				pendingMode = null;
+			}
+		}
+		// outside the lock, sending locks the communication thread which in turn reports to this tracker
+		if (resend != null) {
+			hmi.resendMode(resend);
+		}
+	}
+
+	private static CurrentStatus expectedStatus(Mode mode) {
+		switch (mode) {
+		case SCOUT:
+			return CurrentStatus.DRIVING;
+		case PARK_NOW:
+		case PARK_THIS:
+			return CurrentStatus.PARKING;
+		case PAUSE:
+			return CurrentStatus.INACTIVE;
+		default:
+			return CurrentStatus.EXIT;
+		}
+	}
+}
@@ -1,14 +1,13 @@
 package de.amr.plt.rcParkingRobot;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 
+import lejos.pc.comm.NXTComm;
+import lejos.pc.comm.NXTCommAndroid;
 import lejos.pc.comm.NXTCommFactory;
 import lejos.pc.comm.NXTCommLogListener;
 import lejos.pc.comm.NXTConnector;
 import android.os.Looper;
-import android.os.Messenger;
 import android.util.Log;
 
 class ConnectThread extends Thread {
@@ -30,7 +29,7 @@ class ConnectThread extends Thread {
 	}
 
 
-	private NXTConnector connector;
+	private volatile NXTConnector connector;
 
 	@Override
 	public void run() {
@@ -49,27 +48,31 @@ class ConnectThread extends Thread {
 		});			
 		
 		// If connection can be established connectTo() returns true
-		if (connector.connectTo(hmi.nxtName, hmi.nxtAddress, NXTCommFactory.BLUETOOTH)) {
-			hmi.dataIn = new DataInputStream(connector.getInputStream());
-			hmi.dataOut = new DataOutputStream(connector.getOutputStream());
-			if (hmi.dataIn == null)
-			{
-				hmi.connected = false;
-				Log.e(TAG_BT_CONNECT,"Connection failed.");
-			}
-			else
-			{
-				hmi.bTCommunicationThread = new BTCommunicationThread(hmi);
-				hmi.bTCommunicationThread.setName("readerThread");
-				hmi.bTCommunicationThread.setDaemon(true);
-				hmi.bTCommunicationThread.start();
-				hmi.messenger = new Messenger(hmi.messageHandler);
-			}
-			hmi.connected = true;
-		} 
+		if (!connector.connectTo(hmi.nxtName, hmi.nxtAddress, NXTCommFactory.BLUETOOTH)
+				|| connector.getInputStream() == null) {
+			Log.e(TAG_BT_CONNECT,"Connection failed.");
+			close();
+			hmi.connectFailed();
+			return;
+		}
+		// stop commands overtake other queued packets
+		NXTComm comm = connector.getNXTComm();
+		if (comm instanceof NXTCommAndroid) {
+			((NXTCommAndroid) comm).setPacketClassifier(new CommandPacketClassifier());
+		}
+		if (hmi.startCommunication(connector.getInputStream(), connector.getOutputStream())) {
+			hmi.connectSucceeded();
+		} else {
+			// disconnected while connecting, the reader was not started
+			close();
+		}
 	
 	}
 	public void close(){
+		NXTConnector connector = this.connector;
+		if (connector == null) {
+			return;
+		}
 		try {
 			connector.close();
 		} catch (IOException e) {
@@ -0,0 +1,16 @@
+package de.amr.plt.rcParkingRobot;
+
+/**
+ * Notified by {@link ConnectionStateMachine ConnectionStateMachine} when the connection state changes, on the main
+ * thread.
+ * @author PLT
+ *
+ */
+public interface ConnectionListener {
+
+	/**
+	 * Called once per change.
+	 * @param transition the change
+	 */
+	public void onConnectionChanged(ConnectionTransition transition);
+}
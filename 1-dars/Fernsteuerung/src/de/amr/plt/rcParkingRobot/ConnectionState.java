@@ -0,0 +1,34 @@
+package de.amr.plt.rcParkingRobot;
+
+/**
+ * States of the connection of an {@link AndroidHmiPLT AndroidHmiPLT} to the robot, see
+ * {@link ConnectionStateMachine ConnectionStateMachine}.
+ * @author PLT
+ *
+ */
+public enum ConnectionState {
+	/**
+	 * no connection, initial state
+	 */
+	DISCONNECTED,
+	/**
+	 * connecting to the robot on request
+	 */
+	CONNECTING,
+	/**
+	 * connected and receiving data
+	 */
+	CONNECTED,
+	/**
+	 * connected, but no data received for a while
+	 */
+	DEGRADED,
+	/**
+	 * connecting again after the connection was lost
+	 */
+	RECONNECTING,
+	/**
+	 * disconnecting on request
+	 */
+	CLOSING
+}
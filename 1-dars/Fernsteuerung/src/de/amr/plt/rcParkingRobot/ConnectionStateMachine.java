@@ -0,0 +1,237 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Keeps the {@link ConnectionState ConnectionState} of an {@link AndroidHmiPLT AndroidHmiPLT}. Only the transitions
+ * below are allowed, each one is made atomically, timed, kept in a bounded history and passed to the
+ * {@link ConnectionListener listeners} on the main thread:
+ * <pre>
+ * DISCONNECTED -&gt; CONNECTING
+ * CONNECTING   -&gt; CONNECTED, DISCONNECTED, CLOSING
+ * CONNECTED    -&gt; DEGRADED, RECONNECTING, DISCONNECTED, CLOSING
+ * DEGRADED     -&gt; CONNECTED, RECONNECTING, DISCONNECTED, CLOSING
+ * RECONNECTING -&gt; CONNECTED, DISCONNECTED, CLOSING
+ * CLOSING      -&gt; DISCONNECTED
+ * </pre>
+ * While connected, a watchdog checks every quarter of a second when data has last been received; after
+ * {@link #setDegradedAfterMillis(long) a while} without data the state becomes DEGRADED, and CONNECTED again with the
+ * next frame.
+ * <p>
+ * The time spent in each state is recorded in ms into the histograms {@code hmi.connection.dwell.<STATE>}, so the time
+ * to connect is the dwell time of CONNECTING. The time from CONNECTED to the first frame received is recorded into
+ * {@code hmi.connection.firstFrame}.
+ * @author PLT
+ *
+ */
+public class ConnectionStateMachine {
+
+	private static final String TAG_CONNECTION = "ConnectionState";
+	// transitions kept in the history
+	private static final int HISTORY = 64;
+	// longest distinguished time, one day in ms
+	private static final long MAX_MILLIS = 24L * 3600 * 1000;
+	// how often the watchdog looks for missing data
+	private static final long WATCHDOG_MILLIS = 250;
+	private static final long NANOS_PER_MILLI = 1000 * 1000;
+
+	private static final EnumMap<ConnectionState, EnumSet<ConnectionState>> ALLOWED =
+			new EnumMap<ConnectionState, EnumSet<ConnectionState>>(ConnectionState.class);
+	static {
+		ALLOWED.put(ConnectionState.DISCONNECTED, EnumSet.of(ConnectionState.CONNECTING));
+		ALLOWED.put(ConnectionState.CONNECTING,
+				EnumSet.of(ConnectionState.CONNECTED, ConnectionState.DISCONNECTED, ConnectionState.CLOSING));
+		ALLOWED.put(ConnectionState.CONNECTED, EnumSet.of(ConnectionState.DEGRADED, ConnectionState.RECONNECTING,
+				ConnectionState.DISCONNECTED, ConnectionState.CLOSING));
+		ALLOWED.put(ConnectionState.DEGRADED, EnumSet.of(ConnectionState.CONNECTED, ConnectionState.RECONNECTING,
+				ConnectionState.DISCONNECTED, ConnectionState.CLOSING));
+		ALLOWED.put(ConnectionState.RECONNECTING,
+				EnumSet.of(ConnectionState.CONNECTED, ConnectionState.DISCONNECTED, ConnectionState.CLOSING));
+		ALLOWED.put(ConnectionState.CLOSING, EnumSet.of(ConnectionState.DISCONNECTED));
+	}
+
+	private final List<ConnectionListener> listeners = new CopyOnWriteArrayList<ConnectionListener>();
+	private final EnumMap<ConnectionState, Histogram> dwell = new EnumMap<ConnectionState, Histogram>(ConnectionState.class);
+	private final Histogram firstFrame = MetricsRegistry.getDefault().histogram("hmi.connection.firstFrame", MAX_MILLIS);
+	// posts to the thread that created the module, the main thread
+	private final Handler handler = new Handler();
+
+	private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+	private long enteredNanos = System.nanoTime();
+	private final ConnectionTransition[] history = new ConnectionTransition[HISTORY];
+	private int transitions = 0;
+
+	// data watchdog
+	private long degradedAfterNanos = 1000 * NANOS_PER_MILLI;
+	private volatile long lastFrameNanos;
+	private volatile boolean frameSinceConnected;
+	private volatile long connectedNanos;
+	private Timer watchdog;
+
+	ConnectionStateMachine() {
+		for (ConnectionState s : ConnectionState.values()) {
+			dwell.put(s, MetricsRegistry.getDefault().histogram("hmi.connection.dwell."+s, MAX_MILLIS));
+		}
+	}
+
+	/**
+	 * Registers a listener for state changes.
+	 * @param listener the listener
+	 */
+	public void addConnectionListener(ConnectionListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with {@link #addConnectionListener(ConnectionListener) addConnectionListener}.
+	 * @param listener the listener
+	 */
+	public void removeConnectionListener(ConnectionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return the current state, read without locking
+	 */
+	public ConnectionState getState() {
+		return state;
+	}
+
+	/**
+	 * @return whether the state is CONNECTED or DEGRADED
+	 */
+	public boolean isConnected() {
+		ConnectionState s = state;
+		return s == ConnectionState.CONNECTED || s == ConnectionState.DEGRADED;
+	}
+
+	/**
+	 * @param millis time in ms without data after which a connection counts as DEGRADED, default 1000, 0 to never
+	 */
+	public synchronized void setDegradedAfterMillis(long millis) {
+		this.degradedAfterNanos = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return time in ms spent in the current state so far
+	 */
+	public synchronized long getTimeInStateMillis() {
+		return (System.nanoTime() - enteredNanos) / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return the transitions so far, oldest first, at most the last 64
+	 */
+	public synchronized List<ConnectionTransition> getHistory() {
+		int n = Math.min(transitions, HISTORY);
+		List<ConnectionTransition> list = new ArrayList<ConnectionTransition>(n);
+		for (int i = transitions - n; i < transitions; i++) {
+			list.add(history[i % HISTORY]);
+		}
+		return list;
+	}
+
+	/**
+	 * Changes the state if the transition is allowed.
+	 * @param to state to enter
+	 * @return false if the transition from the current state is not allowed, the state is unchanged then
+	 */
+	boolean moveTo(ConnectionState to) {
+		return moveTo(null, to);
+	}
+
+	/**
+	 * Changes the state if it is the expected one and the transition is allowed.
+	 * @param from expected current state, null for any
+	 * @param to state to enter
+	 * @return false if the state is not the expected one or the transition is not allowed
+	 */
+	synchronized boolean moveTo(ConnectionState from, ConnectionState to) {
+		ConnectionState current = state;
+		if ((from != null && current != from) || !ALLOWED.get(current).contains(to)) {
+			return false;
+		}
+		long now = System.nanoTime();
+		long duration = (now - enteredNanos) / NANOS_PER_MILLI;
+		final ConnectionTransition transition = new ConnectionTransition(current, to, System.currentTimeMillis(), duration);
+		dwell.get(current).record(duration);
+		history[transitions % HISTORY] = transition;
+		transitions++;
+		state = to;
+		enteredNanos = now;
+
+		if (to == ConnectionState.CONNECTED && current != ConnectionState.DEGRADED) {
+			lastFrameNanos = now;
+			connectedNanos = now;
+			frameSinceConnected = false;
+			startWatchdog();
+		} else if (to != ConnectionState.CONNECTED && to != ConnectionState.DEGRADED) {
+			stopWatchdog();
+		}
+
+		Log.i(TAG_CONNECTION, transition.toString());
+		if (!listeners.isEmpty()) {
+			handler.post(new Runnable() {
+				public void run() {
+					for (ConnectionListener l : listeners) {
+						l.onConnectionChanged(transition);
+					}
+				}
+			});
+		}
+		return true;
+	}
+
+	/**
+	 * Called by the reader thread for every frame received.
+	 * @param nanos {@code System.nanoTime()} of receiving
+	 */
+	void frameReceived(long nanos) {
+		lastFrameNanos = nanos;
+		ConnectionState s = state;
+		if (s == ConnectionState.DEGRADED) {
+			moveTo(ConnectionState.DEGRADED, ConnectionState.CONNECTED);
+		} else if (s == ConnectionState.CONNECTED && !frameSinceConnected) {
+			frameSinceConnected = true;
+			firstFrame.record(Math.max(0, nanos - connectedNanos) / NANOS_PER_MILLI);
+		}
+	}
+
+	private void startWatchdog() {
+		if (watchdog != null) {
+			return;
+		}
+		watchdog = new Timer("connectionWatchdog", true);
+		watchdog.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				checkData();
+			}
+		}, WATCHDOG_MILLIS, WATCHDOG_MILLIS);
+	}
+
+	private void stopWatchdog() {
+		if (watchdog != null) {
+			watchdog.cancel();
+			watchdog = null;
+		}
+	}
+
+	private synchronized void checkData() {
+		if (state == ConnectionState.CONNECTED && degradedAfterNanos > 0
+				&& System.nanoTime() - lastFrameNanos > degradedAfterNanos) {
+			moveTo(ConnectionState.CONNECTED, ConnectionState.DEGRADED);
+		}
+	}
+}
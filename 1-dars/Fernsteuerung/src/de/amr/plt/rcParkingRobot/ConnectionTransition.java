@@ -0,0 +1,61 @@
+package de.amr.plt.rcParkingRobot;
+
+/**
+ * Change of the {@link ConnectionState ConnectionState}, as recorded by {@link ConnectionStateMachine
+ * ConnectionStateMachine}. This class is read-only.
+ * @author PLT
+ *
+ */
+public class ConnectionTransition {
+
+	private final ConnectionState from;
+	private final ConnectionState to;
+	private final long timeMillis;
+	private final long durationMillis;
+
+	/**
+	 * @param from state left
+	 * @param to state entered
+	 * @param timeMillis wall clock time of the change in ms
+	 * @param durationMillis time spent in {@code from} in ms
+	 */
+	public ConnectionTransition(ConnectionState from, ConnectionState to, long timeMillis, long durationMillis) {
+		this.from = from;
+		this.to = to;
+		this.timeMillis = timeMillis;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * @return state left
+	 */
+	public ConnectionState getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return state entered
+	 */
+	public ConnectionState getTo() {
+		return to;
+	}
+
+	/**
+	 * @return wall clock time of the change in ms
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return time spent in the state left in ms, e.g. the time to connect for CONNECTING to CONNECTED
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return from+" -> "+to+" after "+durationMillis+" ms";
+	}
+}
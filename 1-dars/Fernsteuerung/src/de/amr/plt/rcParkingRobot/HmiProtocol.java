@@ -0,0 +1,19 @@
+package de.amr.plt.rcParkingRobot;
+
+/**
+ * Extensions of the HmiPLT protocol beyond the codes of {@code HmiPLT.Command}. Uses no Android classes, so that the
+ * {@link de.amr.plt.rcParkingRobot.sim.NxtSimulator NxtSimulator} can speak them on any JVM.
+ * @author PLT
+ *
+ */
+public final class HmiProtocol {
+
+	/**
+	 * Command code of a rate request, followed by the requested position rate in Hz as int, see
+	 * {@link RateController RateController}. Outside the codes of {@code HmiPLT.Command}.
+	 */
+	public static final int IN_SET_POSITION_RATE = 64;
+
+	private HmiProtocol() {
+	}
+}
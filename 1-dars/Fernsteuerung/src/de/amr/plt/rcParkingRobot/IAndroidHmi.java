@@ -39,6 +39,12 @@ public interface IAndroidHmi {
 	 */
 	public CurrentStatus getCurrentStatus();
 	
+	/**
+	 * Checks whether connection is established or not. Commands sent while not connected are dropped.
+	 * @return true if connected to the robot
+	 */
+	public boolean isConnected();
+	
 	/**
 	 * Changes the robot's driving mode. Possible values are SCOUT, PARK_NOW, PARK_THIS and PAUSE. 
 	 * @param mode request driving mode for robot
@@ -130,6 +136,39 @@ public interface IAndroidHmi {
 			return (float) (Math.round(angle*180.0*10.0/Math.PI)/10.0);
 		}
 		
+		/**
+		 * Gets the X coordinate as received, not rounded.
+		 * @return X coordinate in m
+		 */
+		public float getRawX() {
+			return position.x;
+		}
+		
+		/**
+		 * Gets the Y coordinate as received, not rounded.
+		 * @return Y coordinate in m
+		 */
+		public float getRawY() {
+			return position.y;
+		}
+		
+		/**
+		 * Gets the heading direction (angle) as received, not rounded.
+		 * @return the heading direction in rad
+		 */
+		public float getRawAngle() {
+			return angle;
+		}
+		
+		/**
+		 * Gets a distance measurement as received, not rounded.
+		 * @param sensor 0 front, 1 right, 2 back, 3 left
+		 * @return distance value of the sensor in mm
+		 */
+		public double getRawDistance(int sensor) {
+			return distance[sensor];
+		}
+		
 		/**
 		 * Gets distance measurement in front of the robot.
 		 * @return distance value of front sensor in cm
@@ -213,6 +252,10 @@ public interface IAndroidHmi {
 		 * RESCAN - measurement not satisfying, has to be scanned again
 		 */
 		ParkingSlotStatus status = ParkingSlotStatus.RESCAN;
+		/**
+		 * boundaries with length, center and heading, computed whenever a boundary is set, null if a boundary is missing
+		 */
+		ParkingSlotGeometry geometry = null;
 		
 		
 		// Constructor
@@ -237,6 +280,22 @@ public interface IAndroidHmi {
 			this.backBoundaryPosition  	= backBoundaryPosition;
 			this.frontBoundaryPosition	= frontBoundaryPosition;
 			this.status 				= slotStatus;		
+			this.geometry				= ParkingSlotGeometry.of(backBoundaryPosition, frontBoundaryPosition);
+		}
+		
+		/**
+		 * generate a ParkingSlot object from a geometry computed before, e.g. while decoding.
+		 * 
+		 * @param ID			stores the parking slot ID that is the number of recent detected parking spaces incremented by one
+		 * @param geometry		boundaries and derived values of the parking slot
+		 * @param slotStatus	characterization of the parking slot measurement
+		 */
+		public ParkingSlot(int ID, ParkingSlotGeometry geometry, ParkingSlotStatus slotStatus){
+			this.ID     				= ID;
+			this.backBoundaryPosition  	= new PointF(geometry.getBackX(), geometry.getBackY());
+			this.frontBoundaryPosition	= new PointF(geometry.getFrontX(), geometry.getFrontY());
+			this.status 				= slotStatus;
+			this.geometry				= geometry;
 		}
 		
 		// Set methods
@@ -252,12 +311,14 @@ public interface IAndroidHmi {
 		 */
 		public void setBackBoundaryPosition(PointF backBoundaryPosition){
 			this.backBoundaryPosition  = backBoundaryPosition;
+			this.geometry = ParkingSlotGeometry.of(this.backBoundaryPosition, this.frontBoundaryPosition);
 		}
 		/**
 		 * @param frontBoundaryPosition position of parking slot front boundary, robot passes it second after the back boundary
 		 */
 		public void setFrontBoundaryPosition(PointF frontBoundaryPosition){
 			this.frontBoundaryPosition = frontBoundaryPosition;
+			this.geometry = ParkingSlotGeometry.of(this.backBoundaryPosition, this.frontBoundaryPosition);
 		}
 		/**
 		 * @param slotStatus characterization of the parking slot measurement
@@ -293,6 +354,23 @@ public interface IAndroidHmi {
 		public ParkingSlotStatus getParkingSlotStatus(){
 			return status;
 		}
+		/**
+		 * @return boundaries with length, center and heading, null if a boundary is missing. Changes only when a boundary is
+		 * set, not when the returned points are modified.
+		 */
+		public ParkingSlotGeometry getGeometry(){
+			return geometry;
+		}
+		/**
+		 * @param other another slot, e.g. the previous version of this slot
+		 * @return true if both slots have the same status and boundaries, consumers can keep what they derived then
+		 */
+		public boolean isSameAs(ParkingSlot other){
+			if (other == null || other.status != status) {
+				return false;
+			}
+			return geometry == null ? other.geometry == null : geometry.equals(other.geometry);
+		}
 	}	
 
 	
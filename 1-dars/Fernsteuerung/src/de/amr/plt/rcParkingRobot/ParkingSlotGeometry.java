@@ -0,0 +1,121 @@
+package de.amr.plt.rcParkingRobot;
+
+import android.graphics.PointF;
+
+/**
+ * Boundaries of a {@link IAndroidHmi.ParkingSlot parking slot} together with the values derived from them, computed
+ * once when the slot is decoded. This class is read-only, two instances are equal if their boundaries are, so a
+ * consumer can skip its work if an updated slot kept its geometry.
+ * @author PLT
+ *
+ */
+public final class ParkingSlotGeometry {
+
+	private final float backX, backY, frontX, frontY;
+	private final float length;
+	private final float centerX, centerY;
+	private final float heading;
+
+	/**
+	 * @param backX X coordinate of the back boundary, passed first by the robot
+	 * @param backY Y coordinate of the back boundary
+	 * @param frontX X coordinate of the front boundary, passed second
+	 * @param frontY Y coordinate of the front boundary
+	 */
+	public ParkingSlotGeometry(float backX, float backY, float frontX, float frontY) {
+		this.backX = backX;
+		this.backY = backY;
+		this.frontX = frontX;
+		this.frontY = frontY;
+		float dx = frontX - backX;
+		float dy = frontY - backY;
+		this.length = (float) Math.hypot(dx, dy);
+		this.centerX = (backX + frontX) / 2;
+		this.centerY = (backY + frontY) / 2;
+		this.heading = (float) Math.atan2(dy, dx);
+	}
+
+	/**
+	 * @param back back boundary, passed first by the robot
+	 * @param front front boundary, passed second
+	 * @return the geometry, null if a boundary is null
+	 */
+	public static ParkingSlotGeometry of(PointF back, PointF front) {
+		if (back == null || front == null) {
+			return null;
+		}
+		return new ParkingSlotGeometry(back.x, back.y, front.x, front.y);
+	}
+
+	public float getBackX() {
+		return backX;
+	}
+
+	public float getBackY() {
+		return backY;
+	}
+
+	public float getFrontX() {
+		return frontX;
+	}
+
+	public float getFrontY() {
+		return frontY;
+	}
+
+	/**
+	 * @return distance between the boundaries
+	 */
+	public float getLength() {
+		return length;
+	}
+
+	/**
+	 * @return X coordinate of the middle between the boundaries
+	 */
+	public float getCenterX() {
+		return centerX;
+	}
+
+	/**
+	 * @return Y coordinate of the middle between the boundaries
+	 */
+	public float getCenterY() {
+		return centerY;
+	}
+
+	/**
+	 * @return direction from the back to the front boundary in rad, the heading of the robot passing the slot
+	 */
+	public float getHeading() {
+		return heading;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (!(o instanceof ParkingSlotGeometry)) {
+			return false;
+		}
+		ParkingSlotGeometry g = (ParkingSlotGeometry) o;
+		return Float.floatToIntBits(backX) == Float.floatToIntBits(g.backX)
+				&& Float.floatToIntBits(backY) == Float.floatToIntBits(g.backY)
+				&& Float.floatToIntBits(frontX) == Float.floatToIntBits(g.frontX)
+				&& Float.floatToIntBits(frontY) == Float.floatToIntBits(g.frontY);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = Float.floatToIntBits(backX);
+		h = 31 * h + Float.floatToIntBits(backY);
+		h = 31 * h + Float.floatToIntBits(frontX);
+		return 31 * h + Float.floatToIntBits(frontY);
+	}
+
+	@Override
+	public String toString() {
+		return "("+backX+", "+backY+") - ("+frontX+", "+frontY+"), length "+length;
+	}
+}
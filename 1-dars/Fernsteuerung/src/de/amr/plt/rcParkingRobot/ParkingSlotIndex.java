@@ -0,0 +1,273 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Spatial index of the parking slots found by the robot, a uniform grid over the line between the back and front
+ * boundary of each slot. Slots are added or replaced one at a time as they arrive, and the queries only visit the grid
+ * cells around the requested area instead of all slots.
+ * <p>
+ * Coordinates are in m and angles in rad as sent by the robot, distances passed to queries in mm.
+ * @author PLT
+ *
+ */
+public class ParkingSlotIndex {
+
+	/**
+	 * Indexed slot with its boundary coordinates.
+	 */
+	private static final class Entry {
+		// latest version of the slot, replaced without moving the entry while the geometry stays the same
+		ParkingSlot slot;
+		final float xb, yb, xf, yf;
+		// id of the last query that visited this entry, slots spanning several cells are visited once per query
+		int visited;
+
+		Entry(ParkingSlot slot, ParkingSlotGeometry geometry) {
+			this.slot = slot;
+			this.xb = geometry.getBackX();
+			this.yb = geometry.getBackY();
+			this.xf = geometry.getFrontX();
+			this.yf = geometry.getFrontY();
+		}
+	}
+
+	private final float cellSize;
+	private final Map<Long, List<Entry>> cells = new HashMap<Long, List<Entry>>();
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	// bounds of all occupied cells, limits how far the nearest slot search goes
+	private int minCellX = Integer.MAX_VALUE, minCellY = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE, maxCellY = Integer.MIN_VALUE;
+	private int query = 0;
+
+	/**
+	 * Creates an index with 0.5 m grid cells.
+	 */
+	public ParkingSlotIndex() {
+		this(0.5f);
+	}
+
+	/**
+	 * Creates an index with the given cell size. Cells about as large as a slot work best.
+	 * @param cellSize edge length of the grid cells in m
+	 */
+	public ParkingSlotIndex(float cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive, got "+cellSize+".");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Adds a parking slot, or replaces the slot with the same ID, e.g. when a slot has been rescanned. Slots without
+	 * boundary positions are ignored.
+	 * @param slot slot received from the robot
+	 */
+	public synchronized void put(ParkingSlot slot) {
+		ParkingSlotGeometry geometry = slot.getGeometry();
+		Entry old = entries.get(slot.getID());
+		if (old != null && geometry != null && geometry.equals(old.slot.getGeometry())) {
+			// same cells
+			old.slot = slot;
+			return;
+		}
+		remove(slot.getID());
+		if (geometry == null) {
+			return;
+		}
+		Entry entry = new Entry(slot, geometry);
+		entries.put(slot.getID(), entry);
+		int x0 = cell(Math.min(entry.xb, entry.xf)), x1 = cell(Math.max(entry.xb, entry.xf));
+		int y0 = cell(Math.min(entry.yb, entry.yf)), y1 = cell(Math.max(entry.yb, entry.yf));
+		for (int cx = x0; cx <= x1; cx++) {
+			for (int cy = y0; cy <= y1; cy++) {
+				Long key = key(cx, cy);
+				List<Entry> list = cells.get(key);
+				if (list == null) {
+					list = new ArrayList<Entry>(2);
+					cells.put(key, list);
+				}
+				list.add(entry);
+			}
+		}
+		minCellX = Math.min(minCellX, x0);
+		minCellY = Math.min(minCellY, y0);
+		maxCellX = Math.max(maxCellX, x1);
+		maxCellY = Math.max(maxCellY, y1);
+	}
+
+	/**
+	 * Removes the slot with the given ID, if indexed.
+	 * @param id ID of the parking slot
+	 */
+	public synchronized void remove(int id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		int x0 = cell(Math.min(entry.xb, entry.xf)), x1 = cell(Math.max(entry.xb, entry.xf));
+		int y0 = cell(Math.min(entry.yb, entry.yf)), y1 = cell(Math.max(entry.yb, entry.yf));
+		for (int cx = x0; cx <= x1; cx++) {
+			for (int cy = y0; cy <= y1; cy++) {
+				Long key = key(cx, cy);
+				List<Entry> list = cells.get(key);
+				list.remove(entry);
+				if (list.isEmpty()) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of indexed slots
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Removes all slots.
+	 */
+	public synchronized void clear() {
+		cells.clear();
+		entries.clear();
+		minCellX = minCellY = Integer.MAX_VALUE;
+		maxCellX = maxCellY = Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Finds the slots whose boundary line passes within the given distance of a point.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @param radius distance in mm
+	 * @param status only slots with this status, or null for all
+	 * @return matching slots in no particular order
+	 */
+	public synchronized List<ParkingSlot> findWithin(float x, float y, double radius, ParkingSlotStatus status) {
+		List<ParkingSlot> result = new ArrayList<ParkingSlot>();
+		double r = radius / 1000;
+		int stamp = ++query;
+		int x0 = cell((float) (x - r)), x1 = cell((float) (x + r));
+		int y0 = cell((float) (y - r)), y1 = cell((float) (y + r));
+		for (int cx = x0; cx <= x1; cx++) {
+			for (int cy = y0; cy <= y1; cy++) {
+				List<Entry> list = cells.get(key(cx, cy));
+				if (list == null) {
+					continue;
+				}
+				for (Entry e : list) {
+					if (e.visited == stamp) {
+						continue;
+					}
+					e.visited = stamp;
+					if ((status == null || e.slot.getParkingSlotStatus() == status) && distance(e, x, y) <= r) {
+						result.add(e.slot);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the slot nearest to a point whose middle lies ahead along the given heading, i.e. less than 90 degree off it.
+	 * The grid is searched in rings of cells growing around the point until no closer slot can be found.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @param angle heading in rad
+	 * @param status only slots with this status, or null for all
+	 * @return nearest slot ahead, or null if there is none
+	 */
+	public synchronized ParkingSlot findNearestAhead(float x, float y, float angle, ParkingSlotStatus status) {
+		if (entries.isEmpty()) {
+			return null;
+		}
+		double dirX = Math.cos(angle), dirY = Math.sin(angle);
+		int stamp = ++query;
+		int cx = cell(x), cy = cell(y);
+		// rings beyond this contain no cells with slots
+		int maxRing = Math.max(Math.max(Math.abs(cx - minCellX), Math.abs(cx - maxCellX)),
+				Math.max(Math.abs(cy - minCellY), Math.abs(cy - maxCellY)));
+		Entry best = null;
+		double bestDistance = Double.MAX_VALUE;
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// every cell of this ring and beyond is at least this far away
+			if (best != null && (ring - 1) * cellSize > bestDistance) {
+				break;
+			}
+			// only the border of the ring, its inner cells belong to earlier rings
+			for (int i = -ring; i <= ring; i++) {
+				best = closerAhead(best, cx + i, cy - ring, stamp, x, y, dirX, dirY, status);
+				if (ring > 0) {
+					best = closerAhead(best, cx + i, cy + ring, stamp, x, y, dirX, dirY, status);
+				}
+			}
+			for (int j = -ring + 1; j < ring; j++) {
+				best = closerAhead(best, cx - ring, cy + j, stamp, x, y, dirX, dirY, status);
+				best = closerAhead(best, cx + ring, cy + j, stamp, x, y, dirX, dirY, status);
+			}
+			if (best != null) {
+				bestDistance = distance(best, x, y);
+			}
+		}
+		return best != null ? best.slot : null;
+	}
+
+	/**
+	 * Visits the slots of one cell not visited by this query yet.
+	 * @return the nearest slot ahead found so far, best or one of the cell
+	 */
+	private Entry closerAhead(Entry best, int cellX, int cellY, int stamp, float x, float y, double dirX, double dirY,
+			ParkingSlotStatus status) {
+		List<Entry> list = cells.get(key(cellX, cellY));
+		if (list == null) {
+			return best;
+		}
+		double bestDistance = best != null ? distance(best, x, y) : Double.MAX_VALUE;
+		for (Entry e : list) {
+			if (e.visited == stamp) {
+				continue;
+			}
+			e.visited = stamp;
+			if (status != null && e.slot.getParkingSlotStatus() != status) {
+				continue;
+			}
+			double ahead = ((e.xb + e.xf) / 2 - x) * dirX + ((e.yb + e.yf) / 2 - y) * dirY;
+			if (ahead <= 0) {
+				continue;
+			}
+			double d = distance(e, x, y);
+			if (d < bestDistance) {
+				best = e;
+				bestDistance = d;
+			}
+		}
+		return best;
+	}
+
+	private int cell(float coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	/**
+	 * @return distance in m between the point and the boundary line of the slot
+	 */
+	private static double distance(Entry e, float x, float y) {
+		double dx = e.xf - e.xb, dy = e.yf - e.yb;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared > 0 ? ((x - e.xb) * dx + (y - e.yb) * dy) / lengthSquared : 0;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(e.xb + t * dx - x, e.yb + t * dy - y);
+	}
+}
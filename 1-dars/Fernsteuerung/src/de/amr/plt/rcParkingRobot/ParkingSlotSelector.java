@@ -0,0 +1,335 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Ranks the parking slots found by the robot and optionally selects the best one on its own. A slot scores for its
+ * status, for its length up to the {@link #setPreferredLength(double) preferred length}, and loses score with its
+ * distance from the robot. BAD slots are not candidates.
+ * <p>
+ * The part of the score that does not depend on the robot position is computed once per slot update and kept in a
+ * sorted set. Since the distance can only lower a score, finding the best slots walks that set from the top and stops
+ * as soon as no remaining slot can beat the slots found so far, so neither slot nor position updates rebuild the
+ * ranking. Automatic selection looks for the best slot only after the slots or the robot status changed, not on every
+ * position update, and walks a copy of the set kept in a reused array, so it does not allocate on the reader thread.
+ * @author PLT
+ *
+ */
+public class ParkingSlotSelector {
+
+	private static final String TAG_SELECTOR = "SlotSelector";
+
+	/**
+	 * Candidate slot with the position independent part of its score.
+	 */
+	private static final class Candidate {
+		// latest version of the slot, replaced while status and geometry stay the same
+		ParkingSlot slot;
+		final double staticScore;
+		final float middleX, middleY;
+
+		Candidate(ParkingSlot slot, double staticScore, float middleX, float middleY) {
+			this.slot = slot;
+			this.staticScore = staticScore;
+			this.middleX = middleX;
+			this.middleY = middleY;
+		}
+	}
+
+	// best static score first, ties by ID
+	private static final Comparator<Candidate> BY_STATIC_SCORE = new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate a, Candidate b) {
+			int c = Double.compare(b.staticScore, a.staticScore);
+			return c != 0 ? c : (a.slot.getID() < b.slot.getID() ? -1 : (a.slot.getID() == b.slot.getID() ? 0 : 1));
+		}
+	};
+
+	private final AndroidHmiPLT hmi;
+	private final TreeSet<Candidate> ranking = new TreeSet<Candidate>(BY_STATIC_SCORE);
+	private final Map<Integer, Candidate> candidates = new HashMap<Integer, Candidate>();
+	// the ranking in order, copied from the set after it changed, reused by automatic selection
+	private Candidate[] order = new Candidate[16];
+	private int orderSize = 0;
+	private boolean orderStale = false;
+
+	// latest robot position in m, not known before the first position update
+	private boolean positionKnown = false;
+	private float x, y;
+
+	private double goodScore = 1.0;
+	private double rescanScore = 0.3;
+	private double lengthWeight = 2.0;
+	private double preferredLength = 0.6;
+	private double distanceWeight = 0.5;
+
+	private boolean autoSelect = false;
+	private double hysteresis = 0.2;
+	private long minSelectIntervalMillis = 1000;
+	private int selectedId = -1;
+	private long lastSelectMillis = 0;
+	// whether slots or status changed since the best slot was last looked for
+	private boolean selectionPending = false;
+
+	/**
+	 * @param hmi module the best slot is sent through when {@link #setAutoSelect(boolean) selecting automatically}
+	 */
+	public ParkingSlotSelector(AndroidHmiPLT hmi) {
+		this.hmi = hmi;
+	}
+
+	/**
+	 * Adds a parking slot received from the robot, or updates the slot with the same ID.
+	 * @param slot the slot
+	 */
+	public synchronized void update(ParkingSlot slot) {
+		Candidate old = candidates.get(slot.getID());
+		if (old != null && old.slot.isSameAs(slot)) {
+			// same score, only the slot object is newer
+			old.slot = slot;
+			return;
+		}
+		if (old != null) {
+			candidates.remove(slot.getID());
+			ranking.remove(old);
+			orderStale = true;
+		}
+		ParkingSlotGeometry geometry = slot.getGeometry();
+		if (geometry != null && slot.getParkingSlotStatus() != ParkingSlotStatus.BAD) {
+			double score = (slot.getParkingSlotStatus() == ParkingSlotStatus.GOOD ? goodScore : rescanScore)
+					+ lengthWeight * Math.min(geometry.getLength(), preferredLength);
+			Candidate c = new Candidate(slot, score, geometry.getCenterX(), geometry.getCenterY());
+			candidates.put(slot.getID(), c);
+			ranking.add(c);
+			orderStale = true;
+		}
+		selectionPending = true;
+		autoSelect();
+	}
+
+	/**
+	 * Updates the robot position the distance part of the score is computed from.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 */
+	public synchronized void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+		if (!positionKnown) {
+			// scores include the distance from now on
+			positionKnown = true;
+			selectionPending = true;
+		}
+		if (selectionPending) {
+			autoSelect();
+		}
+	}
+
+	/**
+	 * Reports a status change of the robot, after which the best slot is looked for again.
+	 * @param status the new status
+	 */
+	public synchronized void statusChanged(CurrentStatus status) {
+		selectionPending = true;
+		autoSelect();
+	}
+
+	/**
+	 * @return the best slot for the latest position, or null if there is no candidate
+	 */
+	public synchronized ParkingSlot getBest() {
+		Candidate best = best();
+		return best == null ? null : best.slot;
+	}
+
+	/**
+	 * Returns the best slots for the latest position.
+	 * @param max maximum number of slots to return
+	 * @return up to {@code max} slots, best first
+	 */
+	public synchronized List<ParkingSlot> getRanking(int max) {
+		// best candidates found so far with their scores, in descending order
+		List<Candidate> top = new ArrayList<Candidate>(max);
+		List<Double> scores = new ArrayList<Double>(max);
+		for (Candidate c : ranking) {
+			if (top.size() == max && c.staticScore <= scores.get(max - 1)) {
+				// sorted by static score, no remaining slot can make it into the top
+				break;
+			}
+			double score = score(c);
+			int i = top.size();
+			while (i > 0 && scores.get(i - 1) < score) {
+				i--;
+			}
+			if (i < max) {
+				top.add(i, c);
+				scores.add(i, score);
+				if (top.size() > max) {
+					top.remove(max);
+					scores.remove(max);
+				}
+			}
+		}
+		List<ParkingSlot> result = new ArrayList<ParkingSlot>(top.size());
+		for (Candidate c : top) {
+			result.add(c.slot);
+		}
+		return result;
+	}
+
+	/**
+	 * Turns automatic selection on or off. When on, the best slot is sent to the robot whenever it changes, provided it
+	 * beats the slot selected before by the {@link #setHysteresis(double) hysteresis}.
+	 * @param autoSelect true to select automatically
+	 */
+	public synchronized void setAutoSelect(boolean autoSelect) {
+		this.autoSelect = autoSelect;
+		selectionPending = true;
+		autoSelect();
+	}
+
+	/**
+	 * @return whether the best slot is selected automatically
+	 */
+	public synchronized boolean isAutoSelect() {
+		return autoSelect;
+	}
+
+	/**
+	 * @return ID of the slot last selected automatically, -1 if none
+	 */
+	public synchronized int getSelectedId() {
+		return selectedId;
+	}
+
+	/**
+	 * @param hysteresis score a new best slot needs above the selected one to replace it, default 0.2
+	 */
+	public synchronized void setHysteresis(double hysteresis) {
+		this.hysteresis = hysteresis;
+	}
+
+	/**
+	 * @param millis shortest time between two automatic selections in ms, default 1000
+	 */
+	public synchronized void setMinSelectIntervalMillis(long millis) {
+		this.minSelectIntervalMillis = millis;
+	}
+
+	/**
+	 * Sets the score of the slot status. Applies to slots updated afterwards with a changed status or geometry.
+	 * @param good score of GOOD slots, default 1.0
+	 * @param rescan score of slots to be rescanned, default 0.3
+	 */
+	public synchronized void setStatusScores(double good, double rescan) {
+		this.goodScore = good;
+		this.rescanScore = rescan;
+	}
+
+	/**
+	 * Sets the score of the slot length. Applies to slots updated afterwards with a changed status or geometry.
+	 * @param weight score per m of slot length, default 2.0
+	 * @param preferredLength length in m beyond which a longer slot is not better, default 0.6
+	 */
+	public synchronized void setLengthScore(double weight, double preferredLength) {
+		this.lengthWeight = weight;
+		this.preferredLength = preferredLength;
+	}
+
+	/**
+	 * @param weight score lost per m of distance between robot and slot middle, default 0.5, must not be negative
+	 */
+	public synchronized void setDistanceWeight(double weight) {
+		if (weight < 0) {
+			throw new IllegalArgumentException("Distance weight must not be negative, got "+weight+".");
+		}
+		this.distanceWeight = weight;
+	}
+
+	/**
+	 * Forgets all slots and the automatic selection.
+	 */
+	public synchronized void clear() {
+		ranking.clear();
+		candidates.clear();
+		orderStale = true;
+		selectedId = -1;
+	}
+
+	private double score(Candidate c) {
+		if (!positionKnown) {
+			return c.staticScore;
+		}
+		return c.staticScore - distanceWeight * Math.hypot(c.middleX - x, c.middleY - y);
+	}
+
+	/**
+	 * @return the best candidate for the latest position, or null if there is none
+	 */
+	private Candidate best() {
+		if (orderStale) {
+			if (order.length < ranking.size()) {
+				order = new Candidate[Math.max(ranking.size(), 2 * order.length)];
+			}
+			int previousSize = orderSize;
+			orderSize = 0;
+			for (Candidate c : ranking) {
+				order[orderSize++] = c;
+			}
+			// no references to removed candidates
+			for (int i = orderSize; i < previousSize; i++) {
+				order[i] = null;
+			}
+			orderStale = false;
+		}
+		Candidate best = null;
+		double bestScore = 0;
+		for (int i = 0; i < orderSize; i++) {
+			Candidate c = order[i];
+			if (best != null && c.staticScore <= bestScore) {
+				// sorted by static score, no remaining slot can beat the best
+				break;
+			}
+			double score = score(c);
+			if (best == null || score > bestScore) {
+				best = c;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+	private void autoSelect() {
+		if (!autoSelect || !selectionPending || !hmi.isConnected()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (now - lastSelectMillis < minSelectIntervalMillis) {
+			// still pending, looked for again with a later update
+			return;
+		}
+		selectionPending = false;
+		Candidate best = best();
+		if (best == null || best.slot.getID() == selectedId) {
+			return;
+		}
+		Candidate selected = candidates.get(selectedId);
+		if (selected != null && score(best) < score(selected) + hysteresis) {
+			return;
+		}
+		lastSelectMillis = now;
+		selectedId = best.slot.getID();
+		Log.i(TAG_SELECTOR, "Selecting parking slot "+selectedId);
+		hmi.setSelectedParkingSlot(selectedId);
+	}
+}
@@ -0,0 +1,65 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+
+/**
+ * The parking slots received from the robot, one per ID in the order they were first received. The robot sends a slot
+ * again after rescanning it and from time to time anyway; a resent slot replaces the slot with its ID, and
+ * {@link #put(ParkingSlot) put} tells whether anything changed. Thread-safe.
+ * @author PLT
+ *
+ */
+public class ParkingSlotTable {
+
+	private final List<ParkingSlot> slots = new ArrayList<ParkingSlot>();
+	// position of each ID in slots
+	private final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+	/**
+	 * Adds a parking slot, or replaces the slot with the same ID.
+	 * @param slot slot received from the robot
+	 * @return false if the slot with this ID {@link ParkingSlot#isSameAs(ParkingSlot) is the same}, the table is
+	 * unchanged then
+	 */
+	public synchronized boolean put(ParkingSlot slot) {
+		Integer position = positions.get(slot.getID());
+		if (position == null) {
+			positions.put(slot.getID(), slots.size());
+			slots.add(slot);
+			return true;
+		}
+		if (slots.get(position).isSameAs(slot)) {
+			return false;
+		}
+		slots.set(position, slot);
+		return true;
+	}
+
+	/**
+	 * @param id ID of the parking slot
+	 * @return latest version of the slot with this ID, or null
+	 */
+	public synchronized ParkingSlot get(int id) {
+		Integer position = positions.get(id);
+		return position == null ? null : slots.get(position);
+	}
+
+	/**
+	 * @return number of distinct parking slots
+	 */
+	public synchronized int size() {
+		return slots.size();
+	}
+
+	/**
+	 * @return copy of the slots in the order they were first received
+	 */
+	public synchronized List<ParkingSlot> toList() {
+		return new ArrayList<ParkingSlot>(slots);
+	}
+}
@@ -0,0 +1,215 @@
+package de.amr.plt.rcParkingRobot;
+
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Dead reckoning on top of the position stream. Speed and turn rate are estimated from the recent position samples, and
+ * the pose is extrapolated from the latest sample to any requested time assuming constant speed and turn rate. When the
+ * next sample arrives, the difference between the estimate shown so far and the sample is faded out over the
+ * {@link #setCorrectionMillis(long) correction time} instead of letting the position jump. Samples are timed by their
+ * arrival, so a backlog decoded in a burst after a stall would look like a jump at an absurd speed: speed and turn rate
+ * are only updated from samples arriving at least 25 ms apart on average, half the interval at the highest position
+ * rate, and are limited to 1 m/s and one turn per second.
+ * <p>
+ * Samples are fed by the thread reading from the robot, estimates are read by the UI thread.
+ * @author PLT
+ *
+ */
+public class PositionEstimator {
+
+	// number of samples speed and turn rate are estimated from
+	private static final int HISTORY = 4;
+	// weight of a new speed measurement against the previous estimate
+	private static final double VELOCITY_GAIN = 0.5;
+	// turn rates below this (rad/s) are treated as driving straight
+	private static final double MIN_TURN_RATE = 1e-3;
+	// samples arriving closer than this on average are a burst, their times tell nothing about the speed
+	private static final long MIN_INTERVAL_NANOS = 25 * 1000000L;
+	// physical limits of the robot, with a margin, in m/s and rad/s
+	private static final double MAX_SPEED = 1.0;
+	private static final double MAX_TURN_RATE = 2 * Math.PI;
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	// ring of recent samples: time in ns, x and y in m, heading in rad
+	private final long[] times = new long[HISTORY];
+	private final float[] xs = new float[HISTORY];
+	private final float[] ys = new float[HISTORY];
+	private final float[] angles = new float[HISTORY];
+	private int samples = 0;
+	private int last = -1;
+	private double[] distances = new double[]{0, 0, 0, 0};
+	// reused estimates, guarded by this
+	private final float[] shown = new float[3];
+	private final float[] pose = new float[3];
+
+	// speed along the heading in m/s, negative when reversing, and turn rate in rad/s
+	private double speed = 0;
+	private double turnRate = 0;
+
+	// offset between the last estimate and the sample that replaced it, faded out after correctionStart
+	private double offsetX = 0, offsetY = 0, offsetAngle = 0;
+	private long correctionStart = 0;
+
+	private long maxExtrapolationNanos = 500 * NANOS_PER_MILLI;
+	private long correctionNanos = 200 * NANOS_PER_MILLI;
+
+	// distance in mm between the estimate and the sample that arrived
+	private final Histogram error = MetricsRegistry.getDefault().histogram("hmi.estimator.error", 100000);
+
+	/**
+	 * Sets how far beyond the latest sample the pose is extrapolated. Without new samples, e.g. when the robot stopped
+	 * sending, the estimate stays at this horizon.
+	 * @param millis extrapolation horizon in ms, default 500
+	 */
+	public synchronized void setMaxExtrapolationMillis(long millis) {
+		maxExtrapolationNanos = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return extrapolation horizon in ms
+	 */
+	public synchronized long getMaxExtrapolationMillis() {
+		return maxExtrapolationNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Sets the time over which the estimate converges to a newly received sample.
+	 * @param millis correction time in ms, default 200, 0 to jump to each sample
+	 */
+	public synchronized void setCorrectionMillis(long millis) {
+		correctionNanos = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return correction time in ms
+	 */
+	public synchronized long getCorrectionMillis() {
+		return correctionNanos / NANOS_PER_MILLI;
+	}
+
+	/**
+	 * Adds a position received from the robot.
+	 * @param nanos {@code System.nanoTime()} when the position was received
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @param angle heading in rad
+	 * @param distances distance sensor values (front, right, back, left) in mm, copied
+	 */
+	public synchronized void update(long nanos, float x, float y, float angle, double[] distances) {
+		if (samples > 0) {
+			if (nanos <= times[last]) {
+				// same or older time stamp, cannot tell speed from it
+				nanos = times[last] + 1;
+			}
+			// where the robot has been shown so far, relative to the new sample
+			estimate(nanos, shown);
+			offsetX = shown[0] - x;
+			offsetY = shown[1] - y;
+			offsetAngle = normalize(shown[2] - angle);
+			correctionStart = nanos;
+			error.record(Math.round(Math.hypot(offsetX, offsetY) * 1000));
+		}
+
+		last = (last + 1) % HISTORY;
+		times[last] = nanos;
+		xs[last] = x;
+		ys[last] = y;
+		angles[last] = angle;
+		samples = Math.min(samples + 1, HISTORY);
+		this.distances = distances.clone();
+
+		int first = (last - samples + 1 + HISTORY) % HISTORY;
+		if (samples > 1 && times[last] - times[first] >= (samples - 1) * MIN_INTERVAL_NANOS) {
+			double dt = (times[last] - times[first]) / 1e9;
+			double dx = xs[last] - xs[first];
+			double dy = ys[last] - ys[first];
+			// project the displacement on the mean heading, so reversing gives a negative speed
+			double heading = angles[first] + normalize(angles[last] - angles[first]) / 2;
+			double measuredSpeed = clamp((dx * Math.cos(heading) + dy * Math.sin(heading)) / dt, MAX_SPEED);
+			double measuredTurnRate = clamp(normalize(angles[last] - angles[first]) / dt, MAX_TURN_RATE);
+			speed += VELOCITY_GAIN * (measuredSpeed - speed);
+			turnRate += VELOCITY_GAIN * (measuredTurnRate - turnRate);
+		}
+	}
+
+	/**
+	 * Estimates the pose at the given time.
+	 * @param nanos {@code System.nanoTime()} to estimate the pose for
+	 * @param pose receives X and Y in m and the heading in rad
+	 * @return false if no position has been received yet, pose is unchanged then
+	 */
+	public synchronized boolean estimate(long nanos, float[] pose) {
+		if (samples == 0) {
+			return false;
+		}
+		double dt = Math.min(Math.max(nanos - times[last], 0), maxExtrapolationNanos) / 1e9;
+		double heading = angles[last];
+		double x, y;
+		if (Math.abs(turnRate) < MIN_TURN_RATE) {
+			x = xs[last] + speed * dt * Math.cos(heading);
+			y = ys[last] + speed * dt * Math.sin(heading);
+		} else {
+			double turned = heading + turnRate * dt;
+			double radius = speed / turnRate;
+			x = xs[last] + radius * (Math.sin(turned) - Math.sin(heading));
+			y = ys[last] - radius * (Math.cos(turned) - Math.cos(heading));
+		}
+		double angle = heading + turnRate * dt;
+
+		double remaining = correctionNanos > 0 ? 1 - (double) (nanos - correctionStart) / correctionNanos : 0;
+		if (remaining > 0) {
+			remaining = Math.min(remaining, 1);
+			x += offsetX * remaining;
+			y += offsetY * remaining;
+			angle += offsetAngle * remaining;
+		}
+
+		pose[0] = (float) x;
+		pose[1] = (float) y;
+		pose[2] = (float) normalize(angle);
+		return true;
+	}
+
+	/**
+	 * Estimates the position at the given time. Distances are those of the latest sample.
+	 * @param nanos {@code System.nanoTime()} to estimate the position for
+	 * @return estimated position, or null if no position has been received yet
+	 */
+	public synchronized Position getPosition(long nanos) {
+		if (!estimate(nanos, pose)) {
+			return null;
+		}
+		return new Position(pose[0], pose[1], pose[2], distances);
+	}
+
+	/**
+	 * Forgets all samples, e.g. after reconnecting.
+	 */
+	public synchronized void reset() {
+		samples = 0;
+		last = -1;
+		speed = 0;
+		turnRate = 0;
+		offsetX = offsetY = offsetAngle = 0;
+	}
+
+	private static double clamp(double value, double max) {
+		return Math.max(-max, Math.min(max, value));
+	}
+
+	/**
+	 * @param angle angle in rad
+	 * @return the same angle in the range -pi to pi
+	 */
+	private static double normalize(double angle) {
+		while (angle > Math.PI) {
+			angle -= 2 * Math.PI;
+		}
+		while (angle < -Math.PI) {
+			angle += 2 * Math.PI;
+		}
+		return angle;
+	}
+}
@@ -0,0 +1,181 @@
+package de.amr.plt.rcParkingRobot;
+
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Gauge;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Adapts the position update rate of the robot to the health of the link. For every position frame the controller
+ * tracks the inter-arrival jitter and the bytes still waiting to be decoded; once per
+ * {@link #setControlPeriodMillis(long) control period} it also looks at the depth of the {@code NXTCommAndroid} read
+ * queue. Like CoDel, the backlog counts only if it never fell below the threshold during the period, so the bursts
+ * draining an old queue are not mistaken for a standing one. If any of them shows congestion the rate is halved,
+ * otherwise it is raised by a fixed step, so the rate settles just below the highest one the link sustains without
+ * frames queuing up (additive increase, multiplicative decrease).
+ * <p>
+ * The rate is requested with the protocol extension {@link HmiProtocol#IN_SET_POSITION_RATE IN_SET_POSITION_RATE}, which
+ * {@link de.amr.plt.rcParkingRobot.sim.NxtSimulator NxtSimulator} understands. The robot firmware has to be extended
+ * the same way, so the controller is off by default.
+ * @author PLT
+ *
+ */
+public class RateController {
+
+	private static final String TAG_RATE = "RateController";
+	private static final long NANOS_PER_MILLI = 1000 * 1000;
+	// frames the decoder may lag behind all period long before it counts as backlog
+	private static final int MAX_BACKLOG_FRAMES = 2;
+	// intervals measured at a rate before deciding on it
+	private static final int MIN_SAMPLES = 8;
+	// size of a position frame in bytes: code, 3 floats, 4 doubles
+	private static final int POSITION_FRAME_SIZE = 4 + 3 * 4 + 4 * 8;
+
+	private final AndroidHmiPLT hmi;
+	private final Gauge requestedRate = MetricsRegistry.getDefault().gauge("hmi.rate.requested");
+	private final Gauge jitterGauge = MetricsRegistry.getDefault().gauge("hmi.rate.jitter.us");
+	private final Counter changes = MetricsRegistry.getDefault().counter("hmi.rate.changes");
+
+	private volatile boolean enabled = false;
+	private int minRate = 2;
+	private int maxRate = 20;
+	private int step = 2;
+	private double maxJitter = 0.5;
+	private int maxQueueDepth = 2;
+	private long controlPeriodNanos = 1000 * NANOS_PER_MILLI;
+
+	// state, updated by the reader thread
+	private int rate = maxRate;
+	private long lastArrival = 0;
+	private double meanInterval = 0;
+	private double jitter = 0;
+	private int samples = 0;
+	private int minBacklog = Integer.MAX_VALUE;
+	private long periodStart = 0;
+
+	RateController(AndroidHmiPLT hmi) {
+		this.hmi = hmi;
+		requestedRate.set(rate);
+	}
+
+	/**
+	 * Turns rate control on or off. Only enable it if the robot understands {@link HmiProtocol#IN_SET_POSITION_RATE
+	 * IN_SET_POSITION_RATE}.
+	 * @param enabled true to adapt the rate
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return whether the rate is adapted
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Sets the range of requested rates. The highest rate is assumed again on the next connect.
+	 * @param min lowest rate in Hz, default 2
+	 * @param max highest rate in Hz and the rate assumed at start, default 20
+	 * @param step increase per control period in Hz, default 2
+	 */
+	public synchronized void setRange(int min, int max, int step) {
+		if (min < 1 || max < min || step < 1) {
+			throw new IllegalArgumentException("Expected 1 <= min <= max and step >= 1.");
+		}
+		this.minRate = min;
+		this.maxRate = max;
+		this.step = step;
+	}
+
+	/**
+	 * Sets the congestion thresholds.
+	 * @param jitter mean deviation of the inter-arrival time from its average, as a fraction of the average, default 0.5
+	 * @param queueDepth packets waiting in the {@code NXTCommAndroid} read queue, default 2
+	 */
+	public synchronized void setThresholds(double jitter, int queueDepth) {
+		this.maxJitter = jitter;
+		this.maxQueueDepth = queueDepth;
+	}
+
+	/**
+	 * @param millis time between two rate decisions in ms, default 1000
+	 */
+	public synchronized void setControlPeriodMillis(long millis) {
+		this.controlPeriodNanos = millis * NANOS_PER_MILLI;
+	}
+
+	/**
+	 * @return last requested position rate in Hz
+	 */
+	public synchronized int getRate() {
+		return rate;
+	}
+
+	/**
+	 * Called by the reader thread for every position frame.
+	 * @param nanos {@code System.nanoTime()} of decoding
+	 * @param backlogBytes bytes received but not decoded yet
+	 */
+	synchronized void positionReceived(long nanos, int backlogBytes) {
+		if (!enabled) {
+			return;
+		}
+		if (lastArrival > 0) {
+			// RFC 3550 style estimators with gain 1/16
+			long interval = nanos - lastArrival;
+			meanInterval = meanInterval == 0 ? interval : meanInterval + (interval - meanInterval) / 16;
+			jitter += (Math.abs(interval - meanInterval) - jitter) / 16;
+			samples++;
+		} else {
+			periodStart = nanos;
+		}
+		lastArrival = nanos;
+		minBacklog = Math.min(minBacklog, backlogBytes);
+
+		if (samples >= MIN_SAMPLES && nanos - periodStart >= controlPeriodNanos) {
+			control();
+			periodStart = nanos;
+			minBacklog = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Assumes the highest rate again, e.g. after reconnecting.
+	 */
+	synchronized void reset() {
+		rate = maxRate;
+		requestedRate.set(rate);
+		lastArrival = 0;
+		meanInterval = 0;
+		jitter = 0;
+		samples = 0;
+		minBacklog = Integer.MAX_VALUE;
+	}
+
+	// the read queue gauge is looked up each time, NXTCommAndroid registers a new one per connection
+	private void control() {
+		jitterGauge.set((long) (jitter / 1000));
+		boolean congested = jitter > maxJitter * meanInterval
+				|| MetricsRegistry.getDefault().gauge("nxt.readQueue.depth").get() > maxQueueDepth
+				|| minBacklog > MAX_BACKLOG_FRAMES * POSITION_FRAME_SIZE;
+		int newRate = congested ? Math.max(minRate, rate / 2) : Math.min(maxRate, rate + step);
+		if (newRate == rate) {
+			return;
+		}
+		BTCommunicationThread thread = hmi.bTCommunicationThread;
+		if (thread == null || !thread.sendPositionRate(newRate)) {
+			return;
+		}
+		Log.i(TAG_RATE, "Position rate "+rate+" -> "+newRate+" Hz"+(congested ? ", link congested" : ""));
+		rate = newRate;
+		requestedRate.set(rate);
+		changes.increment();
+		// the interval statistics of the old rate do not apply
+		lastArrival = 0;
+		meanInterval = 0;
+		jitter = 0;
+		samples = 0;
+	}
+}
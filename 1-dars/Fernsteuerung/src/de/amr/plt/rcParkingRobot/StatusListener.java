@@ -0,0 +1,15 @@
+package de.amr.plt.rcParkingRobot;
+
+/**
+ * Notified by {@link StatusTracker StatusTracker} when the robot's status changes, on the main thread.
+ * @author PLT
+ *
+ */
+public interface StatusListener {
+
+	/**
+	 * Called once per change, not for repetitions of the same status.
+	 * @param transition the change
+	 */
+	public void onTransition(StatusTransition transition);
+}
@@ -0,0 +1,139 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Turns the status frames sent by the robot into a stream of {@link StatusTransition transitions}. Repetitions of
+ * the same status are coalesced; each change is timed, kept in a bounded history, added to the dwell time statistics
+ * of the status left and passed to the {@link StatusListener listeners} at once.
+ * <p>
+ * Dwell times are recorded in ms into the histograms {@code hmi.status.dwell.<STATUS>} of the
+ * {@link MetricsRegistry#getDefault() default registry}.
+ * @author PLT
+ *
+ */
+public class StatusTracker {
+
+	private static final String TAG_STATUS = "StatusTracker";
+	// transitions kept in the history
+	private static final int HISTORY = 256;
+	// longest distinguished dwell time, one day in ms
+	private static final long MAX_DWELL = 24L * 3600 * 1000;
+
+	private final List<StatusListener> listeners = new CopyOnWriteArrayList<StatusListener>();
+	private final EnumMap<CurrentStatus, Histogram> dwell = new EnumMap<CurrentStatus, Histogram>(CurrentStatus.class);
+
+	private final StatusTransition[] history = new StatusTransition[HISTORY];
+	private int transitions = 0;
+	private CurrentStatus status;
+	private long enteredNanos;
+
+	StatusTracker() {
+		for (CurrentStatus s : CurrentStatus.values()) {
+			dwell.put(s, MetricsRegistry.getDefault().histogram("hmi.status.dwell."+s, MAX_DWELL));
+		}
+	}
+
+	/**
+	 * Registers a listener for status changes.
+	 * @param listener the listener
+	 */
+	public void addStatusListener(StatusListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener registered with {@link #addStatusListener(StatusListener) addStatusListener}.
+	 * @param listener the listener
+	 */
+	public void removeStatusListener(StatusListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Processes a status received from the robot.
+	 * @param newStatus the status
+	 * @param nanos {@code System.nanoTime()} when it was received
+	 */
+	void update(CurrentStatus newStatus, long nanos) {
+		if (newStatus == status) {
+			return;
+		}
+		StatusTransition transition;
+		synchronized (this) {
+			long duration = status == null ? 0 : (nanos - enteredNanos) / 1000000;
+			transition = new StatusTransition(status, newStatus, System.currentTimeMillis(), duration);
+			if (status != null) {
+				dwell.get(status).record(duration);
+			}
+			history[transitions % HISTORY] = transition;
+			transitions++;
+			status = newStatus;
+			enteredNanos = nanos;
+		}
+		Log.i(TAG_STATUS, transition.toString());
+		for (StatusListener l : listeners) {
+			l.onTransition(transition);
+		}
+	}
+
+	/**
+	 * @return the latest status, null if none has been received
+	 */
+	public synchronized CurrentStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return time in ms the robot has been in its current status, 0 if no status has been received
+	 */
+	public synchronized long getTimeInStatusMillis() {
+		return status == null ? 0 : (System.nanoTime() - enteredNanos) / 1000000;
+	}
+
+	/**
+	 * @return number of transitions since connecting
+	 */
+	public synchronized int getTransitionCount() {
+		return transitions;
+	}
+
+	/**
+	 * Returns the latest transitions, up to 256.
+	 * @return transitions, oldest first
+	 */
+	public synchronized List<StatusTransition> getHistory() {
+		int n = Math.min(transitions, HISTORY);
+		List<StatusTransition> result = new ArrayList<StatusTransition>(n);
+		for (int i = transitions - n; i < transitions; i++) {
+			result.add(history[i % HISTORY]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the statistics of the time spent in a status, e.g. how long parking manoeuvres take. Only completed stays
+	 * are counted.
+	 * @param status the status
+	 * @return histogram of dwell times in ms
+	 */
+	public Histogram getDwellTime(CurrentStatus status) {
+		return dwell.get(status);
+	}
+
+	/**
+	 * Forgets the current status and the history, e.g. after reconnecting. Dwell time statistics are kept.
+	 */
+	synchronized void reset() {
+		status = null;
+		transitions = 0;
+	}
+}
@@ -0,0 +1,63 @@
+package de.amr.plt.rcParkingRobot;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+
+/**
+ * Change of the robot's {@link CurrentStatus CurrentStatus}, as recorded by {@link StatusTracker StatusTracker}. This
+ * class is read-only.
+ * @author PLT
+ *
+ */
+public class StatusTransition {
+
+	private final CurrentStatus from;
+	private final CurrentStatus to;
+	private final long timeMillis;
+	private final long durationMillis;
+
+	/**
+	 * @param from status left, null for the first status received
+	 * @param to status entered
+	 * @param timeMillis wall clock time of the change in ms
+	 * @param durationMillis time spent in {@code from} in ms, 0 for the first status received
+	 */
+	public StatusTransition(CurrentStatus from, CurrentStatus to, long timeMillis, long durationMillis) {
+		this.from = from;
+		this.to = to;
+		this.timeMillis = timeMillis;
+		this.durationMillis = durationMillis;
+	}
+
+	/**
+	 * @return status left, null for the first status received
+	 */
+	public CurrentStatus getFrom() {
+		return from;
+	}
+
+	/**
+	 * @return status entered
+	 */
+	public CurrentStatus getTo() {
+		return to;
+	}
+
+	/**
+	 * @return wall clock time of the change in ms
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return time spent in the status left in ms, e.g. the duration of a parking manoeuvre for PARKING to INACTIVE
+	 */
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return from+" -> "+to+" after "+durationMillis+" ms";
+	}
+}
@@ -0,0 +1,32 @@
+package de.amr.plt.rcParkingRobot;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+
+/**
+ * Receives the data sent by the robot as it arrives, instead of polling {@link AndroidHmiPLT AndroidHmiPLT}. All
+ * methods are called on the main thread.
+ * @author PLT
+ *
+ */
+public interface TelemetryListener {
+
+	/**
+	 * Called for every position received.
+	 * @param position the new position
+	 */
+	public void onPosition(Position position);
+
+	/**
+	 * Called for every parking slot received, including updates of slots received before.
+	 * @param slot the new or updated parking slot
+	 */
+	public void onParkingSlot(ParkingSlot slot);
+
+	/**
+	 * Called for every status received, changed or not.
+	 * @param status the robot's status
+	 */
+	public void onStatus(CurrentStatus status);
+}
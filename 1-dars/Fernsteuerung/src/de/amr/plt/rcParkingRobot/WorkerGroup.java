@@ -0,0 +1,127 @@
+package de.amr.plt.rcParkingRobot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Gauge;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * The threads working for one connection of an {@link AndroidHmiPLT AndroidHmiPLT}. {@link #close()} interrupts
+ * them and hands them out, {@link #join(List, long) join()} then waits a bounded time for them to end, off the thread
+ * that disconnected; a thread still alive after that is logged with its stack and counted in
+ * {@code hmi.threads.leaked}, so soak tests connecting and disconnecting many times can tell whether threads
+ * accumulate. Once closed, the group refuses new threads until it is {@link #open() opened} again, so a thread started
+ * late by a connect still in progress cannot outlive the disconnect.
+ * @author PLT
+ *
+ */
+class WorkerGroup {
+
+	private static final String TAG_WORKERS = "WorkerGroup";
+
+	private final List<Thread> threads = new ArrayList<Thread>();
+	private final Counter leaked = MetricsRegistry.getDefault().counter("hmi.threads.leaked");
+	private boolean stopped = false;
+	// registered while open, so the registry does not keep groups of closed connections
+	private final Gauge workers = new Gauge() {
+		@Override
+		public long get() {
+			return getAliveCount();
+		}
+	};
+
+	/**
+	 * Accepts threads again after {@link #close()}.
+	 */
+	synchronized void open() {
+		stopped = false;
+		MetricsRegistry.getDefault().register("hmi.threads.workers", workers);
+	}
+
+	/**
+	 * Starts a thread as member of the group.
+	 * @param thread the thread, not started yet
+	 * @return false if the group has been closed, the thread is not started then
+	 */
+	synchronized boolean start(Thread thread) {
+		if (stopped) {
+			return false;
+		}
+		for (Iterator<Thread> i = threads.iterator(); i.hasNext();) {
+			if (!i.next().isAlive()) {
+				i.remove();
+			}
+		}
+		threads.add(thread);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Interrupts all threads of the group and removes them from it without waiting, so the group can be
+	 * {@link #open() opened} again for the next connection while they end. Streams the threads block on have to be
+	 * closed too, interrupting does not end a blocking read on a socket.
+	 * @return the removed threads, to be passed to {@link #join(List, long) join()}
+	 */
+	List<Thread> close() {
+		List<Thread> stopping;
+		synchronized (this) {
+			stopped = true;
+			stopping = new ArrayList<Thread>(threads);
+			threads.clear();
+		}
+		MetricsRegistry.getDefault().unregister("hmi.threads.workers", workers);
+		for (Thread thread : stopping) {
+			thread.interrupt();
+		}
+		return stopping;
+	}
+
+	/**
+	 * Waits for threads removed by {@link #close()} to end.
+	 * @param stopping the threads
+	 * @param timeoutMillis longest time to wait for all threads together
+	 * @return number of threads still alive
+	 */
+	int join(List<Thread> stopping, long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		int alive = 0;
+		for (Thread thread : stopping) {
+			if (thread == Thread.currentThread()) {
+				continue;
+			}
+			long wait = deadline - System.currentTimeMillis();
+			try {
+				if (wait > 0) {
+					thread.join(wait);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (thread.isAlive()) {
+				alive++;
+				StackTraceElement[] stack = thread.getStackTrace();
+				Log.e(TAG_WORKERS, "Thread "+thread.getName()+" did not end"+(stack.length > 0 ? ", at "+stack[0] : ""));
+			}
+		}
+		leaked.add(alive);
+		return alive;
+	}
+
+	/**
+	 * @return number of threads of the group still running
+	 */
+	synchronized int getAliveCount() {
+		int alive = 0;
+		for (Thread thread : threads) {
+			if (thread.isAlive()) {
+				alive++;
+			}
+		}
+		return alive;
+	}
+}
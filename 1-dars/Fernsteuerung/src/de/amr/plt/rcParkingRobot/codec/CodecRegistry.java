@@ -0,0 +1,132 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Codecs of the message types of one connection, kept in an array indexed by opcode. A frame is dispatched by a single
+ * array access, without allocating or walking through the known message types, and a new message type is supported by
+ * registering its codec, the reader loop stays untouched. Registration is meant to be finished before frames are read,
+ * the registry is not thread-safe.
+ * @author PLT
+ *
+ */
+public class CodecRegistry {
+
+	/**
+	 * {@link #dispatch(int, DataInputStream) dispatch} result: the message was decoded and handled.
+	 */
+	public static final int HANDLED = 0;
+	/**
+	 * {@link #dispatch(int, DataInputStream) dispatch} result: no codec handles the opcode, nothing was read.
+	 */
+	public static final int UNKNOWN = 1;
+	/**
+	 * {@link #dispatch(int, DataInputStream) dispatch} result: the payload was read but is invalid and dropped.
+	 */
+	public static final int INVALID = 2;
+
+	/**
+	 * Codec of an opcode and the handler of its decoded messages.
+	 */
+	private static final class Entry<T> {
+		final MessageCodec<T> codec;
+		// null if the message type is only sent
+		final MessageHandler<? super T> handler;
+
+		Entry(MessageCodec<T> codec, MessageHandler<? super T> handler) {
+			this.codec = codec;
+			this.handler = handler;
+		}
+
+		boolean dispatch(DataInputStream in) throws IOException {
+			T message = codec.decode(in);
+			if (message == null) {
+				return false;
+			}
+			handler.handle(message);
+			return true;
+		}
+	}
+
+	private Entry<?>[] entries = new Entry<?>[0];
+
+	/**
+	 * Registers a message type received, replacing the codec registered for its opcode before.
+	 * @param code opcode of the message type
+	 * @param codec codec of its payload
+	 * @param handler receiver of the decoded messages
+	 */
+	public <T> void register(int code, MessageCodec<T> codec, MessageHandler<? super T> handler) {
+		if (handler == null) {
+			throw new IllegalArgumentException("No handler for opcode "+code+".");
+		}
+		put(code, new Entry<T>(codec, handler));
+	}
+
+	/**
+	 * Registers a message type only sent, replacing the codec registered for its opcode before.
+	 * @param code opcode of the message type
+	 * @param codec codec of its payload
+	 */
+	public <T> void register(int code, MessageCodec<T> codec) {
+		put(code, new Entry<T>(codec, null));
+	}
+
+	private void put(int code, Entry<?> entry) {
+		if (code < 0) {
+			throw new IllegalArgumentException("Negative opcode "+code+".");
+		}
+		if (code >= entries.length) {
+			entries = Arrays.copyOf(entries, code + 1);
+		}
+		entries[code] = entry;
+	}
+
+	/**
+	 * @param code opcode of a message type
+	 * @return its codec, null if none is registered
+	 */
+	public MessageCodec<?> getCodec(int code) {
+		Entry<?> entry = code >= 0 && code < entries.length ? entries[code] : null;
+		return entry == null ? null : entry.codec;
+	}
+
+	/**
+	 * Decodes the payload of a frame and passes the message to its handler.
+	 * @param code opcode of the frame, already read
+	 * @param in stream positioned behind the opcode
+	 * @return {@link #HANDLED}, {@link #UNKNOWN} or {@link #INVALID}
+	 * @throws IOException if reading failed
+	 */
+	public int dispatch(int code, DataInputStream in) throws IOException {
+		if (code < 0 || code >= entries.length) {
+			return UNKNOWN;
+		}
+		Entry<?> entry = entries[code];
+		if (entry == null || entry.handler == null) {
+			return UNKNOWN;
+		}
+		return entry.dispatch(in) ? HANDLED : INVALID;
+	}
+
+	/**
+	 * Writes a frame, opcode and payload.
+	 * @param out stream to write to, not flushed
+	 * @param code opcode of the message type
+	 * @param message the message, of the type of the codec registered for the opcode
+	 * @throws IOException if writing failed
+	 * @throws IllegalArgumentException if no codec is registered for the opcode
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> void write(DataOutputStream out, int code, T message) throws IOException {
+		Entry<?> entry = code >= 0 && code < entries.length ? entries[code] : null;
+		if (entry == null) {
+			throw new IllegalArgumentException("No codec for opcode "+code+".");
+		}
+		out.writeInt(code);
+		((MessageCodec<T>) entry.codec).encode(out, message);
+	}
+}
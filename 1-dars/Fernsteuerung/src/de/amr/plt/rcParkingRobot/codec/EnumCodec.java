@@ -0,0 +1,43 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Payload of one int holding the ordinal of an enum constant. The constants are looked up once, {@code values()}
+ * clones its array on every call.
+ * @author PLT
+ *
+ * @param <E> the enum
+ */
+public class EnumCodec<E extends Enum<E>> implements MessageCodec<E> {
+
+	private final E[] constants;
+
+	/**
+	 * @param type class of the enum
+	 */
+	public EnumCodec(Class<E> type) {
+		this.constants = type.getEnumConstants();
+	}
+
+	/**
+	 * @return the constant, null if the ordinal is out of range
+	 */
+	public E decode(DataInputStream in) throws IOException {
+		return valueOf(in.readInt());
+	}
+
+	public void encode(DataOutputStream out, E message) throws IOException {
+		out.writeInt(message.ordinal());
+	}
+
+	/**
+	 * @param ordinal ordinal of a constant
+	 * @return the constant, null if the ordinal is out of range
+	 */
+	public E valueOf(int ordinal) {
+		return ordinal >= 0 && ordinal < constants.length ? constants[ordinal] : null;
+	}
+}
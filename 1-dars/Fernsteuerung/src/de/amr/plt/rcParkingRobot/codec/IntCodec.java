@@ -0,0 +1,21 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Payload of one int, e.g. a parking slot ID or a rate.
+ * @author PLT
+ *
+ */
+public class IntCodec implements MessageCodec<Integer> {
+
+	public Integer decode(DataInputStream in) throws IOException {
+		return in.readInt();
+	}
+
+	public void encode(DataOutputStream out, Integer message) throws IOException {
+		out.writeInt(message);
+	}
+}
@@ -0,0 +1,31 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads and writes the payload of one message type, the part of a frame following its opcode. Codecs are registered by
+ * opcode in a {@link CodecRegistry CodecRegistry}.
+ * @author PLT
+ *
+ * @param <T> type of the decoded message
+ */
+public interface MessageCodec<T> {
+
+	/**
+	 * Reads the payload of a frame.
+	 * @param in stream positioned behind the opcode
+	 * @return the message, null if the payload was read completely but holds an invalid value
+	 * @throws IOException if reading failed
+	 */
+	T decode(DataInputStream in) throws IOException;
+
+	/**
+	 * Writes the payload of a frame, the opcode has been written already.
+	 * @param out stream to write to, not flushed
+	 * @param message the message
+	 * @throws IOException if writing failed
+	 */
+	void encode(DataOutputStream out, T message) throws IOException;
+}
@@ -0,0 +1,15 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+/**
+ * Receives the messages decoded by a {@link MessageCodec MessageCodec}, called by the thread reading the frames.
+ * @author PLT
+ *
+ * @param <T> type of the message
+ */
+public interface MessageHandler<T> {
+
+	/**
+	 * @param message the decoded message, never null
+	 */
+	void handle(T message);
+}
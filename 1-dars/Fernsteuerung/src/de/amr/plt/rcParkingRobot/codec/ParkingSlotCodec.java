@@ -0,0 +1,46 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import de.amr.plt.rcParkingRobot.ParkingSlotGeometry;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Payload of {@code OUT_PARKSLOT}: status and ID as ints, followed by the back and the front boundary as floats.
+ * @author PLT
+ *
+ */
+public class ParkingSlotCodec implements MessageCodec<ParkingSlotFrame> {
+
+	private final EnumCodec<ParkingSlotStatus> status = new EnumCodec<ParkingSlotStatus>(ParkingSlotStatus.class);
+
+	/**
+	 * @return the parking slot, null if its status is out of range
+	 */
+	public ParkingSlotFrame decode(DataInputStream in) throws IOException {
+		int istatus = in.readInt();
+		int id = in.readInt();
+		float xb = in.readFloat();
+		float yb = in.readFloat();
+		float xf = in.readFloat();
+		float yf = in.readFloat();
+		// the whole payload is read first, an invalid frame leaves the stream in sync
+		ParkingSlotStatus slotStatus = status.valueOf(istatus);
+		if (slotStatus == null) {
+			return null;
+		}
+		return new ParkingSlotFrame(id, slotStatus, new ParkingSlotGeometry(xb, yb, xf, yf));
+	}
+
+	public void encode(DataOutputStream out, ParkingSlotFrame message) throws IOException {
+		ParkingSlotGeometry geometry = message.getGeometry();
+		out.writeInt(message.getStatus().ordinal());
+		out.writeInt(message.getId());
+		out.writeFloat(geometry.getBackX());
+		out.writeFloat(geometry.getBackY());
+		out.writeFloat(geometry.getFrontX());
+		out.writeFloat(geometry.getFrontY());
+	}
+}
@@ -0,0 +1,39 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import de.amr.plt.rcParkingRobot.ParkingSlotGeometry;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Values of a parking slot frame. This class is read-only.
+ * @author PLT
+ *
+ */
+public final class ParkingSlotFrame {
+
+	private final int id;
+	private final ParkingSlotStatus status;
+	private final ParkingSlotGeometry geometry;
+
+	/**
+	 * @param id ID of the parking slot
+	 * @param status status of the parking slot
+	 * @param geometry boundaries of the parking slot
+	 */
+	public ParkingSlotFrame(int id, ParkingSlotStatus status, ParkingSlotGeometry geometry) {
+		this.id = id;
+		this.status = status;
+		this.geometry = geometry;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public ParkingSlotStatus getStatus() {
+		return status;
+	}
+
+	public ParkingSlotGeometry getGeometry() {
+		return geometry;
+	}
+}
@@ -0,0 +1,36 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Payload of {@code OUT_POSITION}: X, Y and angle as floats, followed by the four distance sensor values as doubles.
+ * Decodes every frame into the same {@link PositionFrame PositionFrame}, without allocating.
+ * @author PLT
+ *
+ */
+public class PositionCodec implements MessageCodec<PositionFrame> {
+
+	private final PositionFrame frame = new PositionFrame();
+
+	public PositionFrame decode(DataInputStream in) throws IOException {
+		frame.x = in.readFloat();
+		frame.y = in.readFloat();
+		frame.angle = in.readFloat();
+		double[] distances = frame.distances;
+		for (int i = 0; i < distances.length; i++) {
+			distances[i] = in.readDouble();
+		}
+		return frame;
+	}
+
+	public void encode(DataOutputStream out, PositionFrame message) throws IOException {
+		out.writeFloat(message.x);
+		out.writeFloat(message.y);
+		out.writeFloat(message.angle);
+		for (double d : message.distances) {
+			out.writeDouble(d);
+		}
+	}
+}
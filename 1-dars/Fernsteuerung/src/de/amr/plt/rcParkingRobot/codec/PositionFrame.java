@@ -0,0 +1,47 @@
+package de.amr.plt.rcParkingRobot.codec;
+
+/**
+ * Values of a position frame: pose and distance sensor values. A {@link PositionCodec PositionCodec} decodes every
+ * frame into the same instance, so its values are only valid until the next frame is read.
+ * @author PLT
+ *
+ */
+public class PositionFrame {
+
+	float x, y, angle;
+	// Distance sensor values in clockwise directions (front, right, back, left) in mm
+	final double[] distances = new double[4];
+
+	/**
+	 * Sets all values.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @param angle heading angle in rad
+	 * @param distances distance sensor values (front, right, back, left) in mm, copied
+	 */
+	public void set(float x, float y, float angle, double[] distances) {
+		this.x = x;
+		this.y = y;
+		this.angle = angle;
+		System.arraycopy(distances, 0, this.distances, 0, this.distances.length);
+	}
+
+	public float getX() {
+		return x;
+	}
+
+	public float getY() {
+		return y;
+	}
+
+	public float getAngle() {
+		return angle;
+	}
+
+	/**
+	 * @return distance sensor values (front, right, back, left) in mm, the array of this frame, not a copy
+	 */
+	public double[] getDistances() {
+		return distances;
+	}
+}
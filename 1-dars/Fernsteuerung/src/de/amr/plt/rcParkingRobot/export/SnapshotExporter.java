@@ -0,0 +1,204 @@
+package de.amr.plt.rcParkingRobot.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.graphics.PointF;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.TelemetryListener;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Publishes the latest position, status and parking slots into a memory-mapped file, so other processes on the device
+ * can follow the robot without a connection of their own. Any number of {@link SnapshotReader readers} map the same
+ * file and read it in place; the exporter is the only writer and never waits for them.
+ * <p>
+ * The file is guarded by a sequence lock: the sequence is made odd before and even again after each update, a reader
+ * retries while it is odd or has changed during the read. Java 6 has no fences for mapped memory, so the accesses to
+ * the sequence are surrounded by volatile accesses, which the Android runtimes implement with full barriers.
+ * <p>
+ * File layout, big-endian, offsets in bytes: {@link #MAGIC magic} (int, 0), {@link #VERSION version} (int, 4),
+ * sequence (long, 8), wall clock time of the last update in ms (long, 16), status ordinal or -1 (int, 24), number of
+ * parking slots (int, 28), x and y in m and angle in rad as received (float, 32 to 40) and distances front, front side,
+ * back, back side in mm (double, 48 to 72) as returned by {@link Position Position}, slot capacity (int, 80), then from
+ * offset {@link #SLOTS_OFFSET} one entry of {@link #SLOT_SIZE} bytes per slot in the order received: ID, status ordinal
+ * (int), back boundary x, y and front boundary x, y in m as received (float, NaN if unknown). Version 1 held x and y
+ * in cm and the angle in degree.
+ * @author PLT
+ *
+ */
+public class SnapshotExporter implements TelemetryListener {
+
+	/**
+	 * Marks a snapshot file, "NXTS".
+	 */
+	public static final int MAGIC = 0x4e585453;
+	/**
+	 * Version of the file layout.
+	 */
+	public static final int VERSION = 2;
+
+	static final int SEQUENCE_OFFSET = 8;
+	static final int TIME_OFFSET = 16;
+	static final int STATUS_OFFSET = 24;
+	static final int SLOT_COUNT_OFFSET = 28;
+	static final int POSITION_OFFSET = 32;
+	static final int DISTANCE_OFFSET = 48;
+	static final int SLOT_CAPACITY_OFFSET = 80;
+	/**
+	 * Offset of the first parking slot entry in bytes.
+	 */
+	public static final int SLOTS_OFFSET = 88;
+	/**
+	 * Size of a parking slot entry in bytes.
+	 */
+	public static final int SLOT_SIZE = 24;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int slotCapacity;
+	// IDs of the slots in the order of their entries, read by the writer only
+	private final int[] slotIds;
+	private int slotCount = 0;
+	private long sequence = 0;
+	private boolean closed = false;
+	// orders the plain writes to the mapped file
+	private volatile int fence;
+
+	private final Counter updates = MetricsRegistry.getDefault().counter("export.updates");
+	private final Counter slotsDropped = MetricsRegistry.getDefault().counter("export.slotsDropped");
+
+	/**
+	 * Creates the snapshot file, or starts it over, and maps it. An existing file is not truncated, a reader still mapping
+	 * it would fault on the missing pages.
+	 * @param target file to publish into, readable by the consumers
+	 * @param slotCapacity number of parking slots the file holds, further slots are dropped and counted in
+	 * {@code export.slotsDropped}
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+	public SnapshotExporter(File target, int slotCapacity) throws IOException {
+		this.slotCapacity = slotCapacity;
+		this.slotIds = new int[slotCapacity];
+		int size = SLOTS_OFFSET + slotCapacity * SLOT_SIZE;
+		file = new RandomAccessFile(target, "rw");
+		try {
+			if (file.length() < size) {
+				file.setLength(size);
+			}
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		// the sequence goes on from the last one in the file, a reader must not take the new data for the old
+		sequence = buffer.getInt(0) == MAGIC ? buffer.getLong(SEQUENCE_OFFSET) | 1 : 1;
+		buffer.putLong(SEQUENCE_OFFSET, sequence);
+		fence = 0;
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(STATUS_OFFSET, -1);
+		buffer.putInt(SLOT_COUNT_OFFSET, 0);
+		for (int i = POSITION_OFFSET; i < SLOT_CAPACITY_OFFSET; i += 4) {
+			buffer.putInt(i, 0);
+		}
+		buffer.putInt(SLOT_CAPACITY_OFFSET, slotCapacity);
+		end();
+	}
+
+	/**
+	 * @return sequence of the last update, even
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	public synchronized void onPosition(Position position) {
+		if (closed) {
+			return;
+		}
+		begin();
+		// in m and rad like the slot boundaries
+		buffer.putFloat(POSITION_OFFSET, position.getRawX());
+		buffer.putFloat(POSITION_OFFSET + 4, position.getRawY());
+		buffer.putFloat(POSITION_OFFSET + 8, position.getRawAngle());
+		buffer.putDouble(DISTANCE_OFFSET, position.getDistanceFront());
+		buffer.putDouble(DISTANCE_OFFSET + 8, position.getDistanceFrontSide());
+		buffer.putDouble(DISTANCE_OFFSET + 16, position.getDistanceBack());
+		buffer.putDouble(DISTANCE_OFFSET + 24, position.getDistanceBackSide());
+		end();
+	}
+
+	public synchronized void onParkingSlot(ParkingSlot slot) {
+		if (closed) {
+			return;
+		}
+		int entry = 0;
+		while (entry < slotCount && slotIds[entry] != slot.getID()) {
+			entry++;
+		}
+		if (entry == slotCapacity) {
+			slotsDropped.increment();
+			return;
+		}
+		begin();
+		if (entry == slotCount) {
+			slotIds[slotCount++] = slot.getID();
+			buffer.putInt(SLOT_COUNT_OFFSET, slotCount);
+		}
+		int offset = SLOTS_OFFSET + entry * SLOT_SIZE;
+		buffer.putInt(offset, slot.getID());
+		buffer.putInt(offset + 4, slot.getParkingSlotStatus() == null ? -1 : slot.getParkingSlotStatus().ordinal());
+		putPoint(offset + 8, slot.getBackBoundaryPosition());
+		putPoint(offset + 16, slot.getFrontBoundaryPosition());
+		end();
+	}
+
+	public synchronized void onStatus(CurrentStatus status) {
+		if (closed) {
+			return;
+		}
+		begin();
+		buffer.putInt(STATUS_OFFSET, status == null ? -1 : status.ordinal());
+		end();
+	}
+
+	/**
+	 * Stops publishing. The file keeps the last snapshot, readers may go on reading it.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void putPoint(int offset, PointF point) {
+		buffer.putFloat(offset, point == null ? Float.NaN : point.x);
+		buffer.putFloat(offset + 4, point == null ? Float.NaN : point.y);
+	}
+
+	// makes the sequence odd before the data is changed
+	private void begin() {
+		buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+		fence = 0;
+	}
+
+	// makes the sequence even once the data is changed
+	private void end() {
+		buffer.putLong(TIME_OFFSET, System.currentTimeMillis());
+		fence = 0;
+		buffer.putLong(SEQUENCE_OFFSET, ++sequence);
+		updates.increment();
+	}
+}
@@ -0,0 +1,217 @@
+package de.amr.plt.rcParkingRobot.export;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Reads the snapshots published by a {@link SnapshotExporter SnapshotExporter}, e.g. in another process. Maps the file
+ * read-only and takes no lock, {@link #read() read()} copies a consistent snapshot into this reader, which the getters
+ * return until the next read. Reading allocates nothing, so it can be polled at any rate. Not thread-safe, use one
+ * reader per thread.
+ * @author PLT
+ *
+ */
+public class SnapshotReader {
+
+	// reads giving up on an exporter updating all the time
+	private static final int MAX_TRIES = 100;
+	private static final CurrentStatus[] STATUS_VALUES = CurrentStatus.values();
+	private static final ParkingSlotStatus[] SLOT_STATUS_VALUES = ParkingSlotStatus.values();
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int slotCapacity;
+	// orders the plain reads of the mapped file
+	private volatile int fence;
+
+	// copy of the last consistent snapshot
+	private long sequence = -1;
+	private long timeMillis;
+	private int status = -1;
+	private float x, y, angle;
+	private final double[] distances = new double[4];
+	private int slotCount;
+	private final int[] slotIds;
+	private final int[] slotStatus;
+	// back x, back y, front x, front y per slot
+	private final float[] slotBounds;
+
+	/**
+	 * Maps a snapshot file.
+	 * @param source file published into by the exporter
+	 * @throws IOException if the file cannot be mapped or is no snapshot file
+	 */
+	public SnapshotReader(File source) throws IOException {
+		file = new RandomAccessFile(source, "r");
+		try {
+			long length = file.length();
+			if (length < SnapshotExporter.SLOTS_OFFSET) {
+				throw new IOException("Not a snapshot file: "+source);
+			}
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt(0) != SnapshotExporter.MAGIC || buffer.getInt(4) != SnapshotExporter.VERSION) {
+				throw new IOException("Not a snapshot file of version "+SnapshotExporter.VERSION+": "+source);
+			}
+			slotCapacity = (int) Math.min(buffer.getInt(SnapshotExporter.SLOT_CAPACITY_OFFSET),
+					(length - SnapshotExporter.SLOTS_OFFSET) / SnapshotExporter.SLOT_SIZE);
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		slotIds = new int[slotCapacity];
+		slotStatus = new int[slotCapacity];
+		slotBounds = new float[slotCapacity * 4];
+	}
+
+	/**
+	 * Copies the current snapshot into this reader, unless it is the one read last.
+	 * @return false if the exporter kept updating during all tries, the reader holds no consistent snapshot then and
+	 * {@link #getSequence()} returns -1
+	 */
+	public boolean read() {
+		for (int tries = 0; tries < MAX_TRIES; tries++) {
+			long begin = buffer.getLong(SnapshotExporter.SEQUENCE_OFFSET);
+			int f = fence;
+			if ((begin & 1) != 0) {
+				// update in progress
+				Thread.yield();
+				continue;
+			}
+			if (begin == sequence) {
+				return true;
+			}
+			int count = Math.min(Math.max(buffer.getInt(SnapshotExporter.SLOT_COUNT_OFFSET), 0), slotCapacity);
+			long time = buffer.getLong(SnapshotExporter.TIME_OFFSET);
+			int s = buffer.getInt(SnapshotExporter.STATUS_OFFSET);
+			float px = buffer.getFloat(SnapshotExporter.POSITION_OFFSET);
+			float py = buffer.getFloat(SnapshotExporter.POSITION_OFFSET + 4);
+			float pa = buffer.getFloat(SnapshotExporter.POSITION_OFFSET + 8);
+			for (int i = 0; i < distances.length; i++) {
+				distances[i] = buffer.getDouble(SnapshotExporter.DISTANCE_OFFSET + i * 8);
+			}
+			for (int i = 0; i < count; i++) {
+				int offset = SnapshotExporter.SLOTS_OFFSET + i * SnapshotExporter.SLOT_SIZE;
+				slotIds[i] = buffer.getInt(offset);
+				slotStatus[i] = buffer.getInt(offset + 4);
+				for (int j = 0; j < 4; j++) {
+					slotBounds[i * 4 + j] = buffer.getFloat(offset + 8 + j * 4);
+				}
+			}
+			fence = f;
+			if (buffer.getLong(SnapshotExporter.SEQUENCE_OFFSET) != begin) {
+				// changed while copying
+				sequence = -1;
+				continue;
+			}
+			sequence = begin;
+			timeMillis = time;
+			status = s;
+			x = px;
+			y = py;
+			angle = pa;
+			slotCount = count;
+			return true;
+		}
+		sequence = -1;
+		return false;
+	}
+
+	/**
+	 * @return sequence of the snapshot read, -1 if none
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return wall clock time in ms the snapshot was published
+	 */
+	public long getTimeMillis() {
+		return timeMillis;
+	}
+
+	/**
+	 * @return status of the robot, null if not received yet or unknown to this version
+	 */
+	public CurrentStatus getStatus() {
+		return status >= 0 && status < STATUS_VALUES.length ? STATUS_VALUES[status] : null;
+	}
+
+	/**
+	 * @return X coordinate in m, see {@link de.amr.plt.rcParkingRobot.IAndroidHmi.Position#getRawX() Position}
+	 */
+	public float getX() {
+		return x;
+	}
+
+	/**
+	 * @return Y coordinate in m
+	 */
+	public float getY() {
+		return y;
+	}
+
+	/**
+	 * @return heading in rad
+	 */
+	public float getAngle() {
+		return angle;
+	}
+
+	/**
+	 * @param sensor 0 front, 1 front side, 2 back, 3 back side
+	 * @return distance in mm as returned by {@link de.amr.plt.rcParkingRobot.IAndroidHmi.Position Position}
+	 */
+	public double getDistance(int sensor) {
+		return distances[sensor];
+	}
+
+	/**
+	 * @return number of parking slots in the snapshot
+	 */
+	public int getParkingSlotCount() {
+		return slotCount;
+	}
+
+	/**
+	 * @param index index of the slot, below {@link #getParkingSlotCount()}
+	 * @return ID of the slot
+	 */
+	public int getParkingSlotId(int index) {
+		return slotIds[index];
+	}
+
+	/**
+	 * @param index index of the slot, below {@link #getParkingSlotCount()}
+	 * @return status of the slot, null if unknown
+	 */
+	public ParkingSlotStatus getParkingSlotStatus(int index) {
+		int s = slotStatus[index];
+		return s >= 0 && s < SLOT_STATUS_VALUES.length ? SLOT_STATUS_VALUES[s] : null;
+	}
+
+	/**
+	 * @param index index of the slot, below {@link #getParkingSlotCount()}
+	 * @param bounds receives back boundary x, y and front boundary x, y in m as received, NaN if unknown
+	 */
+	public void getParkingSlotBounds(int index, float[] bounds) {
+		System.arraycopy(slotBounds, index * 4, bounds, 0, 4);
+	}
+
+	/**
+	 * Unmaps the file as far as Java allows, the mapping goes with the garbage collection of this reader.
+	 */
+	public void close() {
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
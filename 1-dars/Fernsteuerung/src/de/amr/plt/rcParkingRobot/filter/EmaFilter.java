@@ -0,0 +1,42 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+/**
+ * Exponential moving average of each channel. Smooths noise at the price of some lag.
+ * @author PLT
+ *
+ */
+public class EmaFilter implements SensorFilter {
+
+	private final double alpha;
+	private final double[] average;
+	private final boolean[] started;
+
+	/**
+	 * @param channels number of channels
+	 * @param alpha weight of a new value between 0 (ignore new values) and 1 (no smoothing)
+	 */
+	public EmaFilter(int channels, double alpha) {
+		if (alpha <= 0 || alpha > 1) {
+			throw new IllegalArgumentException("Alpha must be in (0, 1], got "+alpha+".");
+		}
+		this.alpha = alpha;
+		this.average = new double[channels];
+		this.started = new boolean[channels];
+	}
+
+	public double filter(int channel, double value) {
+		if (!started[channel]) {
+			started[channel] = true;
+			average[channel] = value;
+		} else {
+			average[channel] += alpha * (value - average[channel]);
+		}
+		return average[channel];
+	}
+
+	public void reset() {
+		for (int c = 0; c < started.length; c++) {
+			started[c] = false;
+		}
+	}
+}
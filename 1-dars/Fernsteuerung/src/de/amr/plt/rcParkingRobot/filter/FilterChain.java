@@ -0,0 +1,70 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+/**
+ * Runs each value of a multi-channel sample through a sequence of {@link SensorFilter filters}, e.g. outlier
+ * rejection, then a median, then an exponential moving average. Filters can be replaced while samples are filtered
+ * from another thread.
+ * @author PLT
+ *
+ */
+public class FilterChain {
+
+	private final int channels;
+	private SensorFilter[] filters = new SensorFilter[0];
+
+	/**
+	 * Creates an empty chain, passing values through unchanged.
+	 * @param channels number of values per sample
+	 */
+	public FilterChain(int channels) {
+		this.channels = channels;
+	}
+
+	/**
+	 * @return number of values per sample
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Appends a filter to the chain. The filter must handle at least {@link #getChannels() getChannels()} channels.
+	 * @param filter the filter
+	 */
+	public synchronized void add(SensorFilter filter) {
+		SensorFilter[] larger = new SensorFilter[filters.length + 1];
+		System.arraycopy(filters, 0, larger, 0, filters.length);
+		larger[filters.length] = filter;
+		filters = larger;
+	}
+
+	/**
+	 * Removes all filters.
+	 */
+	public synchronized void clear() {
+		filters = new SensorFilter[0];
+	}
+
+	/**
+	 * Forgets the history of all filters, e.g. after reconnecting.
+	 */
+	public synchronized void reset() {
+		for (SensorFilter f : filters) {
+			f.reset();
+		}
+	}
+
+	/**
+	 * Filters a sample in place.
+	 * @param values one value per channel, replaced by the filtered values
+	 */
+	public synchronized void apply(double[] values) {
+		for (int c = 0; c < channels; c++) {
+			double v = values[c];
+			for (int i = 0; i < filters.length; i++) {
+				v = filters[i].filter(c, v);
+			}
+			values[c] = v;
+		}
+	}
+}
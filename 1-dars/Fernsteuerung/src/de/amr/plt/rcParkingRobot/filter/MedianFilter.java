@@ -0,0 +1,60 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+/**
+ * Median of the last N values of each channel. Removes single spikes without smearing edges.
+ * @author PLT
+ *
+ */
+public class MedianFilter implements SensorFilter {
+
+	private final int window;
+	// last values per channel, channel after channel
+	private final double[] history;
+	private final int[] next;
+	private final int[] filled;
+	// sorted copy of the window, reused for every value
+	private final double[] sorted;
+
+	/**
+	 * @param channels number of channels
+	 * @param window number of values the median is taken from, odd numbers work best
+	 */
+	public MedianFilter(int channels, int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("Window must hold at least one value, got "+window+".");
+		}
+		this.window = window;
+		this.history = new double[channels * window];
+		this.next = new int[channels];
+		this.filled = new int[channels];
+		this.sorted = new double[window];
+	}
+
+	public double filter(int channel, double value) {
+		int base = channel * window;
+		history[base + next[channel]] = value;
+		next[channel] = (next[channel] + 1) % window;
+		if (filled[channel] < window) {
+			filled[channel]++;
+		}
+		int n = filled[channel];
+		// insertion sort, the window is small
+		for (int i = 0; i < n; i++) {
+			double v = history[base + i];
+			int j = i;
+			while (j > 0 && sorted[j - 1] > v) {
+				sorted[j] = sorted[j - 1];
+				j--;
+			}
+			sorted[j] = v;
+		}
+		return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+	}
+
+	public void reset() {
+		for (int c = 0; c < next.length; c++) {
+			next[c] = 0;
+			filled[c] = 0;
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+/**
+ * Rejects values jumping too far from the last accepted value of a channel and repeats the last accepted value
+ * instead. If a channel keeps jumping, the new level is real, e.g. the robot passed the end of an obstacle, and is
+ * accepted after a number of rejections.
+ * @author PLT
+ *
+ */
+public class OutlierFilter implements SensorFilter {
+
+	private final double maxJump;
+	private final int maxRejections;
+	private final double[] accepted;
+	private final int[] rejections;
+	private final boolean[] started;
+
+	/**
+	 * @param channels number of channels
+	 * @param maxJump largest accepted difference to the last accepted value
+	 * @param maxRejections number of values rejected in a row before a jump is accepted
+	 */
+	public OutlierFilter(int channels, double maxJump, int maxRejections) {
+		this.maxJump = maxJump;
+		this.maxRejections = maxRejections;
+		this.accepted = new double[channels];
+		this.rejections = new int[channels];
+		this.started = new boolean[channels];
+	}
+
+	public double filter(int channel, double value) {
+		if (started[channel] && Math.abs(value - accepted[channel]) > maxJump
+				&& rejections[channel] < maxRejections) {
+			rejections[channel]++;
+			return accepted[channel];
+		}
+		started[channel] = true;
+		rejections[channel] = 0;
+		accepted[channel] = value;
+		return value;
+	}
+
+	public void reset() {
+		for (int c = 0; c < started.length; c++) {
+			started[c] = false;
+			rejections[c] = 0;
+		}
+	}
+}
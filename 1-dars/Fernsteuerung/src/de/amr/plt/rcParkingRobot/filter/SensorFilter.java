@@ -0,0 +1,24 @@
+package de.amr.plt.rcParkingRobot.filter;
+
+/**
+ * Stage of a {@link FilterChain FilterChain} smoothing a stream of sensor values. A filter handles several channels,
+ * e.g. the four distance sensors, each with its own history. Implementations keep their history in primitive arrays
+ * allocated up front, so filtering creates no garbage.
+ * @author PLT
+ *
+ */
+public interface SensorFilter {
+
+	/**
+	 * Filters the next value of a channel.
+	 * @param channel index of the channel
+	 * @param value raw value
+	 * @return filtered value
+	 */
+	public double filter(int channel, double value);
+
+	/**
+	 * Forgets the history of all channels.
+	 */
+	public void reset();
+}
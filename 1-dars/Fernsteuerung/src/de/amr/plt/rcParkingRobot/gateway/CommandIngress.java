@@ -0,0 +1,390 @@
+package de.amr.plt.rcParkingRobot.gateway;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import parkingRobot.INxtHmi.Mode;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.IAndroidHmi;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Lets test rigs drive the robot over TCP through {@link IAndroidHmi#setMode(Mode) setMode} and
+ * {@link IAndroidHmi#setSelectedParkingSlot(int) setSelectedParkingSlot}. Each line sent by a client is one command,
+ * answered by one line:
+ * <pre>
+ * MODE SCOUT     -&gt; OK
+ * SLOT 3         -&gt; OK
+ * MODE PARK_NOW  -&gt; ERR rate limited
+ * </pre>
+ * Replies are {@code OK}, {@code OK duplicate} if the same command is still waiting or has just been sent,
+ * {@code ERR rate limited}, {@code ERR busy} if the queue is full, {@code ERR not connected} if the module is not
+ * connected to the robot, and {@code ERR syntax}.
+ * <p>
+ * Commands are queued and sent by one dispatcher thread, one after the other. Every client has its own
+ * {@link TokenBucket token bucket}, by default a burst of 5 commands and 2 per second. PAUSE and DISCONNECT are
+ * emergency stops: they are never rate limited or rejected as busy, they go to a lane the dispatcher always empties
+ * first, and they drop the mode commands still queued, so that no queued SCOUT restarts the robot after the stop.
+ * Queued parking slot selections are kept and sent after the stop, like the write lanes of the Bluetooth connection do.
+ * A command already being written is finished first, a write cannot be preempted.
+ * @author PLT
+ *
+ */
+public class CommandIngress {
+
+	private static final String TAG_INGRESS = "CommandIngress";
+	// an identical command sent this recently is not sent again
+	private static final long DEDUPE_NANOS = 250L * 1000 * 1000;
+
+	/**
+	 * A command waiting to be sent.
+	 */
+	private static final class Request {
+		final Mode mode;
+		// parking slot ID, if no mode
+		final int slot;
+
+		Request(Mode mode, int slot) {
+			this.mode = mode;
+			this.slot = slot;
+		}
+
+		boolean isStop() {
+			return mode == Mode.PAUSE || mode == Mode.DISCONNECT;
+		}
+
+		boolean same(Request other) {
+			return other != null && mode == other.mode && (mode != null || slot == other.slot);
+		}
+
+		@Override
+		public String toString() {
+			return mode != null ? "MODE "+mode : "SLOT "+slot;
+		}
+	}
+
+	private final IAndroidHmi hmi;
+	private final int port;
+	private final InetAddress bindAddress;
+	private final int queueCapacity;
+	private int burst = 5;
+	private double perSecond = 2;
+
+	// guards the lanes and the last command sent
+	private final Object lock = new Object();
+	private final ArrayDeque<Request> stopLane = new ArrayDeque<Request>();
+	private final ArrayDeque<Request> lane = new ArrayDeque<Request>();
+	private Request lastSent;
+	private long lastSentNanos;
+
+	private final List<Socket> clients = new CopyOnWriteArrayList<Socket>();
+	private ServerSocket server;
+	private Thread acceptorThread;
+	private Thread dispatcherThread;
+	private int clientNumber = 0;
+
+	private final Counter accepted = MetricsRegistry.getDefault().counter("ingress.accepted");
+	private final Counter sent = MetricsRegistry.getDefault().counter("ingress.sent");
+	private final Counter duplicates = MetricsRegistry.getDefault().counter("ingress.duplicates");
+	private final Counter rateLimited = MetricsRegistry.getDefault().counter("ingress.rateLimited");
+	private final Counter busy = MetricsRegistry.getDefault().counter("ingress.busy");
+	private final Counter superseded = MetricsRegistry.getDefault().counter("ingress.superseded");
+	private final Counter notConnected = MetricsRegistry.getDefault().counter("ingress.notConnected");
+
+	/**
+	 * @param hmi module the commands are passed to
+	 * @param port TCP port to listen on, 0 for any free port
+	 * @param bindAddress address to listen on, e.g. the loopback address for clients reaching the device through
+	 * {@code adb forward}, null for all
+	 * @param queueCapacity number of commands waiting besides emergency stops
+	 */
+	public CommandIngress(IAndroidHmi hmi, int port, InetAddress bindAddress, int queueCapacity) {
+		this.hmi = hmi;
+		this.port = port;
+		this.bindAddress = bindAddress;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets the rate limit of each client, applies to clients connecting afterwards.
+	 * @param burst commands a client may send at once, default 5
+	 * @param perSecond sustained commands per second, default 2
+	 */
+	public synchronized void setRateLimit(int burst, double perSecond) {
+		this.burst = burst;
+		this.perSecond = perSecond;
+	}
+
+	/**
+	 * Opens the server socket and starts the acceptor and dispatcher threads. Does nothing if running.
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		final ServerSocket s = new ServerSocket(port, 8, bindAddress);
+		server = s;
+		acceptorThread = new Thread("ingressAcceptor") {
+			@Override
+			public void run() {
+				accept(s);
+			}
+		};
+		dispatcherThread = new Thread("ingressDispatcher") {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		};
+		acceptorThread.setDaemon(true);
+		dispatcherThread.setDaemon(true);
+		acceptorThread.start();
+		dispatcherThread.start();
+		Log.i(TAG_INGRESS, "Listening on port "+s.getLocalPort());
+	}
+
+	/**
+	 * Closes the server socket and all clients, drops the queued commands and waits up to a second for the threads to
+	 * end.
+	 */
+	public void stop() {
+		List<Thread> stopping = new ArrayList<Thread>();
+		synchronized (this) {
+			if (server == null) {
+				return;
+			}
+			closeQuietly(server);
+			server = null;
+			stopping.add(acceptorThread);
+			stopping.add(dispatcherThread);
+			acceptorThread = null;
+			dispatcherThread = null;
+		}
+		for (Socket client : clients) {
+			closeQuietly(client);
+		}
+		synchronized (lock) {
+			stopLane.clear();
+			lane.clear();
+		}
+		long deadline = System.currentTimeMillis() + 1000;
+		try {
+			for (Thread thread : stopping) {
+				thread.interrupt();
+				thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return port listening on, -1 if not running
+	 */
+	public synchronized int getPort() {
+		return server == null ? -1 : server.getLocalPort();
+	}
+
+	/**
+	 * @return number of commands waiting, emergency stops included
+	 */
+	public int getQueuedCount() {
+		synchronized (lock) {
+			return stopLane.size() + lane.size();
+		}
+	}
+
+	/**
+	 * Queues a command received from a client.
+	 * @return reply to the client
+	 */
+	private String submit(Request command, TokenBucket bucket) {
+		if (!hmi.isConnected()) {
+			// the module would drop the command
+			notConnected.increment();
+			return "ERR not connected";
+		}
+		long now = System.nanoTime();
+		synchronized (lock) {
+			if (command.isStop()) {
+				// jumps ahead and drops the mode changes the stop would otherwise be followed by
+				int dropped = 0;
+				for (Iterator<Request> i = lane.iterator(); i.hasNext();) {
+					if (i.next().mode != null) {
+						i.remove();
+						dropped++;
+					}
+				}
+				superseded.add(dropped);
+				if (!containsSame(stopLane, command)) {
+					stopLane.add(command);
+				}
+				accepted.increment();
+				lock.notify();
+				return "OK";
+			}
+			if (containsSame(lane, command) || (command.same(lastSent) && now - lastSentNanos < DEDUPE_NANOS)) {
+				duplicates.increment();
+				return "OK duplicate";
+			}
+			if (lane.size() >= queueCapacity) {
+				// no token taken for a command not queued
+				busy.increment();
+				return "ERR busy";
+			}
+			if (!bucket.tryTake(now)) {
+				rateLimited.increment();
+				return "ERR rate limited";
+			}
+			lane.add(command);
+			accepted.increment();
+			lock.notify();
+			return "OK";
+		}
+	}
+
+	private static boolean containsSame(ArrayDeque<Request> queue, Request command) {
+		for (Request c : queue) {
+			if (c.same(command)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void dispatch() {
+		while (!Thread.currentThread().isInterrupted()) {
+			Request command;
+			synchronized (lock) {
+				while (stopLane.isEmpty() && lane.isEmpty()) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				command = !stopLane.isEmpty() ? stopLane.poll() : lane.poll();
+			}
+			// sent outside the lock, a stalled link must not block the clients
+			if (command.mode != null) {
+				hmi.setMode(command.mode);
+			} else {
+				hmi.setSelectedParkingSlot(command.slot);
+			}
+			sent.increment();
+			synchronized (lock) {
+				lastSent = command;
+				lastSentNanos = System.nanoTime();
+			}
+		}
+	}
+
+	private void accept(ServerSocket s) {
+		while (true) {
+			final Socket socket;
+			try {
+				socket = s.accept();
+				socket.setTcpNoDelay(true);
+			} catch (SocketException e) {
+				// closed by stop()
+				break;
+			} catch (IOException e) {
+				Log.e(TAG_INGRESS, "Accept failed: "+e.getMessage());
+				break;
+			}
+			final TokenBucket bucket;
+			Thread reader;
+			synchronized (this) {
+				if (server != s) {
+					closeQuietly(socket);
+					break;
+				}
+				bucket = new TokenBucket(burst, perSecond);
+				reader = new Thread("ingressClient-"+(++clientNumber)) {
+					@Override
+					public void run() {
+						serve(socket, bucket);
+					}
+				};
+				clients.add(socket);
+			}
+			reader.setDaemon(true);
+			reader.start();
+			Log.i(TAG_INGRESS, reader.getName()+" connected from "+socket.getInetAddress());
+		}
+	}
+
+	private void serve(Socket socket, TokenBucket bucket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			OutputStream out = socket.getOutputStream();
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0) {
+					continue;
+				}
+				Request command = parse(line);
+				String reply = command == null ? "ERR syntax" : submit(command, bucket);
+				out.write((reply+"\n").getBytes("UTF-8"));
+				out.flush();
+			}
+		} catch (IOException e) {
+			Log.d(TAG_INGRESS, Thread.currentThread().getName()+" gone: "+e.getMessage());
+		} finally {
+			clients.remove(socket);
+			closeQuietly(socket);
+		}
+	}
+
+	/**
+	 * @return the command, null if the line is no valid command
+	 */
+	private static Request parse(String line) {
+		String[] words = line.split("\\s+");
+		if (words.length != 2) {
+			return null;
+		}
+		try {
+			if (words[0].equalsIgnoreCase("MODE")) {
+				return new Request(Mode.valueOf(words[1].toUpperCase(Locale.ROOT)), 0);
+			}
+			if (words[0].equalsIgnoreCase("SLOT")) {
+				return new Request(null, Integer.parseInt(words[1]));
+			}
+		} catch (IllegalArgumentException e) {
+			// unknown mode or no number
+		}
+		return null;
+	}
+
+	private static void closeQuietly(ServerSocket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package de.amr.plt.rcParkingRobot.gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.ParkingSlotGeometry;
+import de.amr.plt.rcParkingRobot.TelemetryListener;
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Gauge;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Streams the positions, parking slots and status received from the robot to any number of TCP clients, e.g.
+ * dashboards on laptops. Each event is written as one line of JSON, for example
+ * <pre>
+ * {"type":"position","x":0.125,"y":0.03,"angle":1.5707964,"distances":[0.2,0.055,0.0,0.0]}
+ * {"type":"slot","id":1,"status":"GOOD","back":[0.1,0.2],"front":[0.5,0.2],"length":0.4,"center":[0.3,0.2],"heading":0.0}
+ * {"type":"status","status":"DRIVING"}
+ * </pre>
+ * All lengths are in m and all angles in rad, as received and not rounded: coordinates, boundaries, slot lengths and
+ * the distances (front, right, back, left), headings counterclockwise from the positive X axis. Slots without both
+ * boundaries have no geometry fields. A new client first gets the latest status, all parking slots
+ * and the latest position.
+ * <p>
+ * Each event is serialized once and the same bytes are queued for every client. The queues are bounded and are
+ * drained by one writer thread per client, so the thread delivering the events never waits for a network write. An
+ * event not fitting into a full queue is dropped for that client and counted in {@code gateway.dropped}; a client whose
+ * queue stays full for two seconds is disconnected and counted in {@code gateway.evicted}, it can connect again to
+ * start over.
+ * @author PLT
+ *
+ */
+public class TelemetryGateway implements TelemetryListener {
+
+	private static final String TAG_GATEWAY = "TelemetryGateway";
+	// marks the end of a client's queue
+	private static final byte[] CLOSE = new byte[0];
+	// how long a client's queue may stay full before the client is disconnected
+	private static final long EVICT_NANOS = 2000L * 1000 * 1000;
+	// the distance sensors measure in mm
+	private static final double MM_PER_M = 1000.0;
+
+	/**
+	 * A connected client and its writer thread.
+	 */
+	private class Client extends Thread {
+		private final Socket socket;
+		private final ArrayBlockingQueue<byte[]> queue;
+		// System.nanoTime() of the first drop since the queue last had room, 0 if none
+		private long droppingSince = 0;
+
+		Client(Socket socket, int number) {
+			super("gatewayClient-"+number);
+			this.socket = socket;
+			this.queue = new ArrayBlockingQueue<byte[]>(queueCapacity);
+			setDaemon(true);
+		}
+
+		/**
+		 * Queues an event, never blocks.
+		 * @return false if the queue has been full for too long and the client has to be closed
+		 */
+		boolean offer(byte[] event) {
+			if (queue.offer(event)) {
+				droppingSince = 0;
+				return true;
+			}
+			droppedEvents.increment();
+			long now = System.nanoTime();
+			if (droppingSince == 0) {
+				droppingSince = now;
+			}
+			return now - droppingSince < EVICT_NANOS;
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			queue.clear();
+			queue.offer(CLOSE);
+		}
+
+		@Override
+		public void run() {
+			try {
+				OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+				while (true) {
+					byte[] event = queue.take();
+					if (event == CLOSE) {
+						break;
+					}
+					out.write(event);
+					// writes what is queued in one go
+					if (queue.isEmpty()) {
+						out.flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				// stopped
+			} catch (IOException e) {
+				Log.d(TAG_GATEWAY, getName()+" gone: "+e.getMessage());
+			} finally {
+				removeClient(this);
+				try {
+					socket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private final int port;
+	private final InetAddress bindAddress;
+	private final int queueCapacity;
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	private ServerSocket server;
+	private Thread acceptorThread;
+	private int clientNumber = 0;
+
+	// latest events, sent to new clients
+	private byte[] lastPosition;
+	private byte[] lastStatus;
+	private final Map<Integer, byte[]> lastSlots = new LinkedHashMap<Integer, byte[]>();
+
+	private final Counter events = MetricsRegistry.getDefault().counter("gateway.events");
+	private final Counter droppedEvents = MetricsRegistry.getDefault().counter("gateway.dropped");
+	private final Counter evicted = MetricsRegistry.getDefault().counter("gateway.evicted");
+	// registered while running, so the registry does not keep stopped gateways
+	private final Gauge clientCount = new Gauge() {
+		@Override
+		public long get() {
+			return clients.size();
+		}
+	};
+
+	/**
+	 * @param port TCP port to listen on, 0 for any free port
+	 * @param bindAddress address to listen on, e.g. the loopback address for clients reaching the device through
+	 * {@code adb forward}, null for all
+	 * @param queueCapacity number of events queued per client
+	 */
+	public TelemetryGateway(int port, InetAddress bindAddress, int queueCapacity) {
+		this.port = port;
+		this.bindAddress = bindAddress;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Opens the server socket and starts accepting clients. Does nothing if running.
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public synchronized void start() throws IOException {
+		if (server != null) {
+			return;
+		}
+		final ServerSocket s = new ServerSocket(port, 50, bindAddress);
+		server = s;
+		MetricsRegistry.getDefault().register("gateway.clients", clientCount);
+		acceptorThread = new Thread("gatewayAcceptor") {
+			@Override
+			public void run() {
+				accept(s);
+			}
+		};
+		acceptorThread.setDaemon(true);
+		acceptorThread.start();
+		Log.i(TAG_GATEWAY, "Listening on port "+s.getLocalPort());
+	}
+
+	/**
+	 * Closes the server socket and all clients and waits up to a second for the threads to end.
+	 */
+	public void stop() {
+		Thread acceptor;
+		synchronized (this) {
+			if (server == null) {
+				return;
+			}
+			try {
+				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			server = null;
+			MetricsRegistry.getDefault().unregister("gateway.clients", clientCount);
+			acceptor = acceptorThread;
+			acceptorThread = null;
+		}
+		List<Client> stopping = new ArrayList<Client>(clients);
+		for (Client c : stopping) {
+			c.close();
+		}
+		long deadline = System.currentTimeMillis() + 1000;
+		try {
+			acceptor.join(Math.max(1, deadline - System.currentTimeMillis()));
+			for (Client c : stopping) {
+				c.join(Math.max(1, deadline - System.currentTimeMillis()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return port listening on, -1 if not running
+	 */
+	public synchronized int getPort() {
+		return server == null ? -1 : server.getLocalPort();
+	}
+
+	/**
+	 * @return number of connected clients
+	 */
+	public int getClientCount() {
+		return clients.size();
+	}
+
+	public void onPosition(Position position) {
+		StringBuilder json = new StringBuilder(128);
+		json.append("{\"type\":\"position\",\"x\":");
+		appendNumber(json, position.getRawX());
+		json.append(",\"y\":");
+		appendNumber(json, position.getRawY());
+		json.append(",\"angle\":");
+		appendNumber(json, position.getRawAngle());
+		json.append(",\"distances\":[");
+		for (int i = 0; i < 4; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			appendNumber(json, (float) (position.getRawDistance(i) / MM_PER_M));
+		}
+		json.append("]}\n");
+		byte[] event = encode(json);
+		synchronized (this) {
+			lastPosition = event;
+		}
+		publish(event);
+	}
+
+	public void onParkingSlot(ParkingSlot slot) {
+		StringBuilder json = new StringBuilder(128);
+		json.append("{\"type\":\"slot\",\"id\":").append(slot.getID());
+		json.append(",\"status\":");
+		if (slot.getParkingSlotStatus() == null) {
+			json.append("null");
+		} else {
+			json.append('"').append(slot.getParkingSlotStatus()).append('"');
+		}
+		ParkingSlotGeometry geometry = slot.getGeometry();
+		if (geometry != null) {
+			json.append(",\"back\":");
+			appendPoint(json, geometry.getBackX(), geometry.getBackY());
+			json.append(",\"front\":");
+			appendPoint(json, geometry.getFrontX(), geometry.getFrontY());
+			json.append(",\"length\":");
+			appendNumber(json, geometry.getLength());
+			json.append(",\"center\":");
+			appendPoint(json, geometry.getCenterX(), geometry.getCenterY());
+			json.append(",\"heading\":");
+			appendNumber(json, geometry.getHeading());
+		}
+		json.append("}\n");
+		byte[] event = encode(json);
+		synchronized (this) {
+			lastSlots.put(slot.getID(), event);
+		}
+		publish(event);
+	}
+
+	public void onStatus(CurrentStatus status) {
+		StringBuilder json = new StringBuilder(48);
+		json.append("{\"type\":\"status\",\"status\":");
+		if (status == null) {
+			json.append("null");
+		} else {
+			json.append('"').append(status).append('"');
+		}
+		json.append("}\n");
+		byte[] event = encode(json);
+		synchronized (this) {
+			lastStatus = event;
+		}
+		publish(event);
+	}
+
+	private void publish(byte[] event) {
+		events.increment();
+		for (Client c : clients) {
+			if (!c.offer(event)) {
+				Log.w(TAG_GATEWAY, c.getName()+" too slow, disconnected");
+				evicted.increment();
+				removeClient(c);
+				c.close();
+			}
+		}
+	}
+
+	private void accept(ServerSocket s) {
+		while (true) {
+			Socket socket;
+			try {
+				socket = s.accept();
+				socket.setTcpNoDelay(true);
+			} catch (SocketException e) {
+				// closed by stop()
+				break;
+			} catch (IOException e) {
+				Log.e(TAG_GATEWAY, "Accept failed: "+e.getMessage());
+				break;
+			}
+			Client c;
+			synchronized (this) {
+				if (server != s) {
+					closeQuietly(socket);
+					break;
+				}
+				c = new Client(socket, ++clientNumber);
+				// the latest state first, queued before any newer event
+				if (lastStatus != null) {
+					c.offer(lastStatus);
+				}
+				for (byte[] slot : lastSlots.values()) {
+					c.offer(slot);
+				}
+				if (lastPosition != null) {
+					c.offer(lastPosition);
+				}
+				clients.add(c);
+			}
+			Log.i(TAG_GATEWAY, c.getName()+" connected from "+socket.getInetAddress());
+			c.start();
+		}
+	}
+
+	private void removeClient(Client c) {
+		clients.remove(c);
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// as float, the values are floats
+	private static void appendNumber(StringBuilder json, float value) {
+		if (Float.isNaN(value) || Float.isInfinite(value)) {
+			json.append("null");
+		} else {
+			json.append(value);
+		}
+	}
+
+	private static void appendPoint(StringBuilder json, float x, float y) {
+		json.append('[');
+		appendNumber(json, x);
+		json.append(',');
+		appendNumber(json, y);
+		json.append(']');
+	}
+
+	private static byte[] encode(StringBuilder json) {
+		try {
+			return json.toString().getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package de.amr.plt.rcParkingRobot.gateway;
+
+/**
+ * Token bucket limiting the rate of one client: holds up to {@code capacity} tokens, refilled at a steady rate, and
+ * each request takes one. A full bucket allows a burst of {@code capacity} requests. Not thread-safe.
+ * @author PLT
+ *
+ */
+class TokenBucket {
+
+	private final double capacity;
+	private final double tokensPerNano;
+	private double tokens;
+	private long refilledNanos;
+
+	/**
+	 * Creates a full bucket.
+	 * @param capacity largest burst
+	 * @param perSecond sustained rate in requests per second
+	 */
+	TokenBucket(int capacity, double perSecond) {
+		this.capacity = capacity;
+		this.tokensPerNano = perSecond / 1e9;
+		this.tokens = capacity;
+		this.refilledNanos = System.nanoTime();
+	}
+
+	/**
+	 * Takes a token if there is one.
+	 * @param nanos {@code System.nanoTime()} of the request
+	 * @return false if the bucket is empty
+	 */
+	boolean tryTake(long nanos) {
+		tokens = Math.min(capacity, tokens + (nanos - refilledNanos) * tokensPerNano);
+		refilledNanos = nanos;
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+}
@@ -0,0 +1,192 @@
+package de.amr.plt.rcParkingRobot.map;
+
+import java.util.Arrays;
+
+/**
+ * Occupancy grid of the area around the parking lane. Each cell holds the log-odds of being occupied in one byte, in
+ * steps of 1/16, so a 5 m by 5 m area at 2 cm resolution takes 62.5 KB. Cells are updated along measurement rays:
+ * cells a ray passes are more likely free, the cell it ends in is more likely occupied if the sensor saw an obstacle.
+ * <p>
+ * The grid tracks the rectangle of cells changed since it was last {@link #renderDirty(int[], int[], int[]) rendered},
+ * so a view only has to redraw that part.
+ * @author PLT
+ *
+ */
+public class OccupancyGrid {
+
+	/**
+	 * Log-odds added to a cell a ray ends in, in steps of 1/16 (0.85 in probability).
+	 */
+	public static final int HIT = 28;
+	/**
+	 * Log-odds added to a cell a ray passes, in steps of 1/16 (0.4 in probability).
+	 */
+	public static final int MISS = -7;
+	/**
+	 * Bound of the stored log-odds, keeps cells able to change their mind.
+	 */
+	public static final int LIMIT = 127;
+
+	private final int width;
+	private final int height;
+	private final float resolution;
+	private final float originX;
+	private final float originY;
+	private final byte[] logOdds;
+
+	// changed cells since the last rendering, empty if minX > maxX
+	private int dirtyMinX, dirtyMinY, dirtyMaxX, dirtyMaxY;
+
+	/**
+	 * Creates a grid of unknown cells.
+	 * @param width number of cells along X
+	 * @param height number of cells along Y
+	 * @param resolution edge length of a cell in m
+	 * @param originX X coordinate of the lower left grid corner in m
+	 * @param originY Y coordinate of the lower left grid corner in m
+	 */
+	public OccupancyGrid(int width, int height, float resolution, float originX, float originY) {
+		if (width <= 0 || height <= 0 || resolution <= 0) {
+			throw new IllegalArgumentException("Grid size and resolution must be positive.");
+		}
+		this.width = width;
+		this.height = height;
+		this.resolution = resolution;
+		this.originX = originX;
+		this.originY = originY;
+		this.logOdds = new byte[width * height];
+		clearDirty();
+	}
+
+	/**
+	 * @return number of cells along X
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return number of cells along Y
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return edge length of a cell in m
+	 */
+	public float getResolution() {
+		return resolution;
+	}
+
+	/**
+	 * Updates the cells along a measurement ray.
+	 * @param x0 X coordinate of the sensor in m
+	 * @param y0 Y coordinate of the sensor in m
+	 * @param x1 X coordinate of the ray end in m
+	 * @param y1 Y coordinate of the ray end in m
+	 * @param hit true if the ray ends at an obstacle, false if it ends at the sensor range
+	 */
+	public synchronized void updateRay(float x0, float y0, float x1, float y1, boolean hit) {
+		int cx = cellX(x0), cy = cellY(y0);
+		int ex = cellX(x1), ey = cellY(y1);
+		// Bresenham's line, the end cell is handled after the loop
+		int dx = Math.abs(ex - cx), dy = -Math.abs(ey - cy);
+		int sx = cx < ex ? 1 : -1, sy = cy < ey ? 1 : -1;
+		int err = dx + dy;
+		while (cx != ex || cy != ey) {
+			add(cx, cy, MISS);
+			int e2 = 2 * err;
+			if (e2 >= dy) {
+				err += dy;
+				cx += sx;
+			}
+			if (e2 <= dx) {
+				err += dx;
+				cy += sy;
+			}
+		}
+		add(ex, ey, hit ? HIT : MISS);
+	}
+
+	/**
+	 * Returns the probability that the cell containing a point is occupied.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @return probability between 0 and 1, 0.5 for unknown cells and points outside the grid
+	 */
+	public synchronized double getProbability(float x, float y) {
+		int cx = cellX(x), cy = cellY(y);
+		if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+			return 0.5;
+		}
+		return 1 - 1 / (1 + Math.exp(logOdds[cy * width + cx] / 16.0));
+	}
+
+	/**
+	 * Forgets all measurements.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(logOdds, (byte) 0);
+		dirtyMinX = 0;
+		dirtyMinY = 0;
+		dirtyMaxX = width - 1;
+		dirtyMaxY = height - 1;
+	}
+
+	/**
+	 * Converts the cells changed since the last call to pixel colors. Pixels are laid out row by row, {@link #getWidth()
+	 * width} pixels per row, with the top row holding the highest Y coordinate, as in a bitmap.
+	 * @param pixels receives the colors, at least width * height entries
+	 * @param palette 256 colors, indexed by the log-odds of a cell plus 128
+	 * @param rect receives left, top, right and bottom (exclusive) of the updated pixels
+	 * @return false if no cell has changed, pixels and rect are unchanged then
+	 */
+	public synchronized boolean renderDirty(int[] pixels, int[] palette, int[] rect) {
+		if (dirtyMinX > dirtyMaxX) {
+			return false;
+		}
+		for (int cy = dirtyMinY; cy <= dirtyMaxY; cy++) {
+			int row = (height - 1 - cy) * width;
+			for (int cx = dirtyMinX; cx <= dirtyMaxX; cx++) {
+				pixels[row + cx] = palette[logOdds[cy * width + cx] + 128];
+			}
+		}
+		rect[0] = dirtyMinX;
+		rect[1] = height - 1 - dirtyMaxY;
+		rect[2] = dirtyMaxX + 1;
+		rect[3] = height - dirtyMinY;
+		clearDirty();
+		return true;
+	}
+
+	private void add(int cx, int cy, int delta) {
+		if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+			return;
+		}
+		int i = cy * width + cx;
+		int value = Math.max(-LIMIT, Math.min(LIMIT, logOdds[i] + delta));
+		if (value != logOdds[i]) {
+			logOdds[i] = (byte) value;
+			dirtyMinX = Math.min(dirtyMinX, cx);
+			dirtyMinY = Math.min(dirtyMinY, cy);
+			dirtyMaxX = Math.max(dirtyMaxX, cx);
+			dirtyMaxY = Math.max(dirtyMaxY, cy);
+		}
+	}
+
+	private void clearDirty() {
+		dirtyMinX = Integer.MAX_VALUE;
+		dirtyMinY = Integer.MAX_VALUE;
+		dirtyMaxX = Integer.MIN_VALUE;
+		dirtyMaxY = Integer.MIN_VALUE;
+	}
+
+	private int cellX(float x) {
+		return (int) Math.floor((x - originX) / resolution);
+	}
+
+	private int cellY(float y) {
+		return (int) Math.floor((y - originY) / resolution);
+	}
+}
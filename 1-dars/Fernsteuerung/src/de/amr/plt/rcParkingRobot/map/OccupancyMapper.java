@@ -0,0 +1,164 @@
+package de.amr.plt.rcParkingRobot.map;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Background stage building an {@link OccupancyGrid OccupancyGrid} from the four distance sensors. The reader thread
+ * {@link #offer(float, float, float, double[]) offers} each position to a lock-free single producer, single consumer
+ * ring and returns at once; a mapping thread takes the positions from the ring and casts one ray per sensor into the
+ * grid. If the mapping thread falls behind, positions are dropped and counted instead of stalling the reader.
+ * <p>
+ * The sensors are assumed at the robot center, looking front, right, back and left.
+ * @author PLT
+ *
+ */
+public class OccupancyMapper {
+
+	// x, y, angle and four distances per position
+	private static final int SLOT = 7;
+	// how long the mapping thread sleeps if there is nothing to do, unless woken by offer()
+	private static final long IDLE_NANOS = 20 * 1000 * 1000;
+	// sensor directions relative to the heading, in the order of the distance values
+	private static final double[] SENSOR_ANGLES = {0, -Math.PI / 2, Math.PI, Math.PI / 2};
+
+	private final OccupancyGrid grid;
+	private final int capacity;
+	private final float[] ring;
+	// next slot to read, written by the mapping thread only
+	private final AtomicLong head = new AtomicLong();
+	// next slot to write, written by the producer only
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile boolean running = false;
+	private volatile boolean idle = false;
+	private Thread thread;
+	private double maxRange = 400;
+
+	private final Counter readings = MetricsRegistry.getDefault().counter("map.positions");
+	private final Counter dropped = MetricsRegistry.getDefault().counter("map.dropped");
+
+	/**
+	 * @param grid grid to map into
+	 * @param capacity number of positions the ring holds, rounded up to a power of 2
+	 */
+	public OccupancyMapper(OccupancyGrid grid, int capacity) {
+		this.grid = grid;
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring = new float[this.capacity * SLOT];
+	}
+
+	/**
+	 * @return the grid mapped into
+	 */
+	public OccupancyGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Sets the range of the distance sensors. Longer readings count as no obstacle within range.
+	 * @param millimeters sensor range in mm, default 400
+	 */
+	public void setMaxRange(double millimeters) {
+		this.maxRange = millimeters;
+	}
+
+	/**
+	 * Starts the mapping thread.
+	 */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		thread = new Thread("mapperThread") {
+			@Override
+			public void run() {
+				map();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the mapping thread after the positions already offered have been mapped.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	/**
+	 * Hands a position over to the mapping thread. Called by one thread only, never blocks.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @param angle heading in rad
+	 * @param distances distance sensor values (front, right, back, left) in mm
+	 * @return false if the position was dropped because the ring is full
+	 */
+	public boolean offer(float x, float y, float angle, double[] distances) {
+		long t = tail.get();
+		if (t - head.get() == capacity) {
+			dropped.increment();
+			return false;
+		}
+		int i = (int) (t & (capacity - 1)) * SLOT;
+		ring[i] = x;
+		ring[i + 1] = y;
+		ring[i + 2] = angle;
+		ring[i + 3] = (float) distances[0];
+		ring[i + 4] = (float) distances[1];
+		ring[i + 5] = (float) distances[2];
+		ring[i + 6] = (float) distances[3];
+		// publishes the slot to the mapping thread
+		tail.lazySet(t + 1);
+		if (idle) {
+			LockSupport.unpark(thread);
+		}
+		return true;
+	}
+
+	private void map() {
+		long h = head.get();
+		while (running || h != tail.get()) {
+			if (h == tail.get()) {
+				idle = true;
+				// check again, offer() may have missed the idle flag
+				if (h == tail.get()) {
+					LockSupport.parkNanos(this, IDLE_NANOS);
+				}
+				idle = false;
+				continue;
+			}
+			int i = (int) (h & (capacity - 1)) * SLOT;
+			float x = ring[i], y = ring[i + 1], angle = ring[i + 2];
+			for (int s = 0; s < SENSOR_ANGLES.length; s++) {
+				double distance = ring[i + 3 + s];
+				if (distance <= 0) {
+					// no reading
+					continue;
+				}
+				double range = Math.min(distance, maxRange) / 1000;
+				double direction = angle + SENSOR_ANGLES[s];
+				grid.updateRay(x, y, (float) (x + range * Math.cos(direction)), (float) (y + range * Math.sin(direction)),
+						distance <= maxRange);
+			}
+			// releases the slot to the producer
+			head.lazySet(++h);
+			readings.increment();
+		}
+	}
+}
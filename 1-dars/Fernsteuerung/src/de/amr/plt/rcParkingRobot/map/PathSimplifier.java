@@ -0,0 +1,207 @@
+package de.amr.plt.rcParkingRobot.map;
+
+/**
+ * Online simplification of the path driven by the robot, so that drawing it stays cheap on long runs. Points are
+ * collected in an open window as long as the straight line from the last kept point to the newest point passes all of
+ * them within the {@link #getTolerance() tolerance}; once it does not, the point before the newest one is kept and a new
+ * window starts there. Kept points never change until there are more than the configured maximum, then the whole path
+ * is simplified again by Douglas-Peucker with twice the tolerance, which bounds memory and drawing time for any length
+ * of run.
+ * @author PLT
+ *
+ */
+public class PathSimplifier {
+
+	// longest open window, bounds the work per point
+	private static final int MAX_WINDOW = 64;
+
+	private final int maxPoints;
+	private float tolerance;
+	private final float[] points;
+	private int count = 0;
+	private final float[] window = new float[2 * MAX_WINDOW];
+	private int windowCount = 0;
+
+	/**
+	 * @param tolerance distance in m the simplified path may deviate from the driven one, points closer than this to the
+	 * previous point are skipped
+	 * @param maxPoints number of kept points after which the path is simplified again
+	 */
+	public PathSimplifier(float tolerance, int maxPoints) {
+		if (maxPoints < 4) {
+			throw new IllegalArgumentException("Expected at least 4 points, got "+maxPoints+".");
+		}
+		this.tolerance = tolerance;
+		this.maxPoints = maxPoints;
+		this.points = new float[2 * maxPoints];
+	}
+
+	/**
+	 * Adds the newest position.
+	 * @param x X coordinate in m
+	 * @param y Y coordinate in m
+	 * @return true if the whole path was simplified again, so kept points may have changed or moved
+	 */
+	public boolean add(float x, float y) {
+		if (count == 0) {
+			keep(x, y);
+			return false;
+		}
+		float lastX = windowCount > 0 ? window[2 * windowCount - 2] : points[2 * count - 2];
+		float lastY = windowCount > 0 ? window[2 * windowCount - 1] : points[2 * count - 1];
+		if (Math.hypot(x - lastX, y - lastY) < tolerance) {
+			// standing or creeping, nothing to see yet
+			return false;
+		}
+		if (windowCount == MAX_WINDOW || !fits(x, y)) {
+			if (windowCount > 0) {
+				keep(window[2 * windowCount - 2], window[2 * windowCount - 1]);
+				windowCount = 0;
+			}
+		}
+		window[2 * windowCount] = x;
+		window[2 * windowCount + 1] = y;
+		windowCount++;
+		if (count < maxPoints) {
+			return false;
+		}
+		do {
+			tolerance *= 2;
+			count = simplify(points, count, tolerance);
+		} while (count == maxPoints);
+		return true;
+	}
+
+	/**
+	 * @return current tolerance in m, doubled each time the path is simplified again
+	 */
+	public float getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * @return number of kept points
+	 */
+	public int getPointCount() {
+		return count;
+	}
+
+	/**
+	 * @param i index of a kept point
+	 * @return X coordinate in m
+	 */
+	public float getX(int i) {
+		return points[2 * i];
+	}
+
+	/**
+	 * @param i index of a kept point
+	 * @return Y coordinate in m
+	 */
+	public float getY(int i) {
+		return points[2 * i + 1];
+	}
+
+	/**
+	 * Returns the number of points added after the last kept point and not simplified yet. The path ends with them.
+	 * @return number of open points
+	 */
+	public int getOpenCount() {
+		return windowCount;
+	}
+
+	/**
+	 * @param i index of an open point
+	 * @return X coordinate in m
+	 */
+	public float getOpenX(int i) {
+		return window[2 * i];
+	}
+
+	/**
+	 * @param i index of an open point
+	 * @return Y coordinate in m
+	 */
+	public float getOpenY(int i) {
+		return window[2 * i + 1];
+	}
+
+	/**
+	 * Forgets the path.
+	 */
+	public void clear() {
+		count = 0;
+		windowCount = 0;
+	}
+
+	private void keep(float x, float y) {
+		points[2 * count] = x;
+		points[2 * count + 1] = y;
+		count++;
+	}
+
+	/**
+	 * @return whether the line from the last kept point to (x, y) passes all open points within the tolerance
+	 */
+	private boolean fits(float x, float y) {
+		float ax = points[2 * count - 2], ay = points[2 * count - 1];
+		for (int i = 0; i < windowCount; i++) {
+			if (distance(window[2 * i], window[2 * i + 1], ax, ay, x, y) > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Douglas-Peucker in place, without recursion.
+	 * @return number of points left at the start of the array
+	 */
+	private static int simplify(float[] xy, int n, float tolerance) {
+		boolean[] keep = new boolean[n];
+		keep[0] = keep[n - 1] = true;
+		int[] stack = new int[2 * n];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+		while (top > 0) {
+			int last = stack[--top], first = stack[--top];
+			double maxDistance = 0;
+			int index = -1;
+			for (int i = first + 1; i < last; i++) {
+				double d = distance(xy[2 * i], xy[2 * i + 1], xy[2 * first], xy[2 * first + 1], xy[2 * last], xy[2 * last + 1]);
+				if (d > maxDistance) {
+					maxDistance = d;
+					index = i;
+				}
+			}
+			if (maxDistance > tolerance) {
+				keep[index] = true;
+				stack[top++] = first;
+				stack[top++] = index;
+				stack[top++] = index;
+				stack[top++] = last;
+			}
+		}
+		int kept = 0;
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				xy[2 * kept] = xy[2 * i];
+				xy[2 * kept + 1] = xy[2 * i + 1];
+				kept++;
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return distance between point p and the segment from a to b
+	 */
+	private static double distance(float px, float py, float ax, float ay, float bx, float by) {
+		double dx = bx - ax, dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSquared : 0;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(ax + t * dx - px, ay + t * dy - py);
+	}
+}
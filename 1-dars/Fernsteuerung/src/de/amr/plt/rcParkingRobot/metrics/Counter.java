@@ -0,0 +1,35 @@
+package de.amr.plt.rcParkingRobot.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic event counter, e.g. frames or bytes. Updates are lock-free.
+ * @author PLT
+ *
+ */
+public class Counter {
+
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Counts one event.
+	 */
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Counts several events.
+	 * @param n number of events
+	 */
+	public void add(long n) {
+		count.addAndGet(n);
+	}
+
+	/**
+	 * @return number of events counted so far
+	 */
+	public long get() {
+		return count.get();
+	}
+}
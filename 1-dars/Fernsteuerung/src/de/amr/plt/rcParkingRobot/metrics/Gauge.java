@@ -0,0 +1,26 @@
+package de.amr.plt.rcParkingRobot.metrics;
+
+/**
+ * Current value of something, e.g. a queue depth. Either {@link #set(long) set} by its owner, or computed on read by
+ * overriding {@link #get() get}.
+ * @author PLT
+ *
+ */
+public class Gauge {
+
+	private volatile long value;
+
+	/**
+	 * @param value new current value
+	 */
+	public void set(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return current value
+	 */
+	public long get() {
+		return value;
+	}
+}
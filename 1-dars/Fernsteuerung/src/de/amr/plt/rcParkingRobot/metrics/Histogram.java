@@ -0,0 +1,191 @@
+package de.amr.plt.rcParkingRobot.metrics;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values with log-linear buckets in the style of HdrHistogram. Values below
+ * 2^{@code precisionBits} are counted exactly, larger values with a relative error below 2^-({@code precisionBits}-1),
+ * so memory stays fixed no matter how many values are recorded. Recording is lock-free and may be done from any
+ * number of threads.
+ * @author PLT
+ *
+ */
+public class Histogram {
+
+	private final int precisionBits;
+	private final int halfBucket;
+	private final long highestTrackableValue;
+	private final AtomicLongArray counts;
+
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalSum = new AtomicLong();
+	private final AtomicLong minValue = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxValue = new AtomicLong(0);
+
+	/**
+	 * Creates a histogram with a relative error below 1.6%.
+	 * @param highestTrackableValue largest value to distinguish, larger values are counted as this value
+	 */
+	public Histogram(long highestTrackableValue) {
+		this(highestTrackableValue, 7);
+	}
+
+	/**
+	 * Creates a new histogram.
+	 * @param highestTrackableValue largest value to distinguish, larger values are counted as this value
+	 * @param precisionBits number of bits kept for each value, between 2 and 16
+	 */
+	public Histogram(long highestTrackableValue, int precisionBits) {
+		if (precisionBits < 2 || precisionBits > 16) {
+			throw new IllegalArgumentException("Expected 2 to 16 precision bits, got "+precisionBits+".");
+		}
+		if (highestTrackableValue < 1) {
+			throw new IllegalArgumentException("Expected positive highest trackable value, got "+highestTrackableValue+".");
+		}
+		this.precisionBits = precisionBits;
+		this.halfBucket = 1 << (precisionBits - 1);
+		this.highestTrackableValue = highestTrackableValue;
+		this.counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+	}
+
+	/**
+	 * Records a value. Negative values are counted as zero.
+	 * @param value value to record
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > highestTrackableValue) {
+			value = highestTrackableValue;
+		}
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(value);
+
+		long min = minValue.get();
+		while (value < min && !minValue.compareAndSet(min, value)) {
+			min = minValue.get();
+		}
+		long max = maxValue.get();
+		while (value > max && !maxValue.compareAndSet(max, value)) {
+			max = maxValue.get();
+		}
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return smallest recorded value, or 0 if empty
+	 */
+	public long getMin() {
+		long min = minValue.get();
+		return min == Long.MAX_VALUE ? 0 : min;
+	}
+
+	/**
+	 * @return largest recorded value, or 0 if empty
+	 */
+	public long getMax() {
+		return maxValue.get();
+	}
+
+	/**
+	 * @return mean of recorded values, or 0 if empty
+	 */
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) totalSum.get() / count;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of recorded values lie, within the precision of the
+	 * histogram.
+	 * @param percentile percentage between 0 and 100
+	 * @return value at the percentile, or 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Removes all recorded values. Values recorded concurrently may be lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		minValue.set(Long.MAX_VALUE);
+		maxValue.set(0);
+	}
+
+	/**
+	 * Writes count, mean and the usual percentiles in one line.
+	 * @param out writer to print to
+	 * @param name label of the line
+	 * @param unit divisor applied to all values, e.g. 1000 to print ns as us
+	 */
+	public void print(PrintWriter out, String name, double unit) {
+		out.print(name);
+		out.print(" count=");
+		out.print(getCount());
+		out.print(" mean=");
+		out.print(format(getMean() / unit));
+		out.print(" p50=");
+		out.print(format(getValueAtPercentile(50) / unit));
+		out.print(" p90=");
+		out.print(format(getValueAtPercentile(90) / unit));
+		out.print(" p99=");
+		out.print(format(getValueAtPercentile(99) / unit));
+		out.print(" p99.9=");
+		out.print(format(getValueAtPercentile(99.9) / unit));
+		out.print(" max=");
+		out.println(format(getMax() / unit));
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 100) / 100.0);
+	}
+
+	private int indexOf(long value) {
+		int bits = 64 - Long.numberOfLeadingZeros(value);
+		if (bits <= precisionBits) {
+			return (int) value;
+		}
+		int shift = bits - precisionBits;
+		int sub = (int) (value >>> shift);
+		return (shift + 1) * halfBucket + (sub - halfBucket);
+	}
+
+	private long highestValueAt(int index) {
+		if (index < 2 * halfBucket) {
+			return index;
+		}
+		int shift = index / halfBucket - 1;
+		long sub = index % halfBucket + halfBucket;
+		return ((sub + 1) << shift) - 1;
+	}
+}
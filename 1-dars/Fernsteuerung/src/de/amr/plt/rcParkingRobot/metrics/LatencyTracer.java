@@ -0,0 +1,245 @@
+package de.amr.plt.rcParkingRobot.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Follows frames from the Bluetooth socket to the screen and records how long each stage takes. Every frame gets
+ * timestamps for the {@link Stage stages} it passes; the time since the previous stage goes into the stage's
+ * {@link Histogram Histogram}, the time from socket read to render into the end-to-end histogram.
+ * <p>
+ * Packet timestamps are handed from the read thread to the consumer of the read queue through two counters that advance
+ * in queue order, frame timestamps travel with the frame's id in {@code Message.arg1}. The stamps are plain array
+ * writes; the queue and the message queue they travel through publish them to the next thread.
+ * @author PLT
+ *
+ */
+public class LatencyTracer {
+
+	/**
+	 * Stages a frame passes on its way to the screen, in order.
+	 */
+	public enum Stage {
+		/**
+		 * packet read from the Bluetooth socket by {@code NXTCommAndroid.ReadThread}
+		 */
+		SOCKET_READ,
+		/**
+		 * packet taken from the read queue by {@code NXTCommAndroid.read()}
+		 */
+		DEQUEUE,
+		/**
+		 * frame decoded by {@code BTCommunicationThread}
+		 */
+		DECODE,
+		/**
+		 * frame handled on the main thread by its {@code Handler}
+		 */
+		PUBLISH,
+		/**
+		 * position shown by the UI
+		 */
+		RENDER
+	}
+
+	/**
+	 * Id of frames that are not traced.
+	 */
+	public static final int NO_FRAME = -1;
+
+	private static final Stage[] STAGES = Stage.values();
+	// one hour in ns, longer stages are counted as one hour
+	private static final long MAX_LATENCY = 3600L * 1000 * 1000 * 1000;
+	private static final int PACKET_RING = 1024;
+	private static final int FRAME_RING = 256;
+	// slot layout: frame id followed by one timestamp per stage
+	private static final int SLOT = STAGES.length + 1;
+
+	private static final LatencyTracer DEFAULT = new LatencyTracer();
+
+	private volatile boolean enabled = true;
+
+	private final Histogram[] stageLatency = new Histogram[STAGES.length];
+	private final Histogram endToEnd = new Histogram(MAX_LATENCY);
+
+	// packet read times, written by the read thread, read by the queue consumer
+	private final long[] packetReadTimes = new long[PACKET_RING];
+	private int packetsRead;
+	private int packetsTaken;
+	private long lastPacketRead;
+	private long lastPacketTaken;
+
+	private final long[] frames = new long[FRAME_RING * SLOT];
+	private int nextFrame;
+
+	/**
+	 * Creates a new tracer. The communication stack reports to the {@link #getDefault() default} instance.
+	 */
+	public LatencyTracer() {
+		for (int i = 0; i < STAGES.length; i++) {
+			stageLatency[i] = new Histogram(MAX_LATENCY);
+		}
+	}
+
+	/**
+	 * @return the tracer the communication stack reports to
+	 */
+	public static LatencyTracer getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param enabled whether timestamps are taken at all
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return whether timestamps are taken
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Forgets packets in flight, to be called when the read queue is replaced.
+	 */
+	public void resetPackets() {
+		packetsRead = 0;
+		packetsTaken = 0;
+	}
+
+	/**
+	 * Called by the read thread after a packet has been read from the socket, before it is queued.
+	 */
+	public void packetRead() {
+		if (enabled) {
+			packetReadTimes[packetsRead++ & (PACKET_RING - 1)] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Called by the consumer after a packet has been taken from the read queue.
+	 */
+	public void packetTaken() {
+		if (enabled) {
+			long now = System.nanoTime();
+			long read = packetReadTimes[packetsTaken++ & (PACKET_RING - 1)];
+			lastPacketRead = read;
+			lastPacketTaken = now;
+			if (read != 0) {
+				stageLatency[Stage.DEQUEUE.ordinal()].record(now - read);
+			}
+		}
+	}
+
+	/**
+	 * Called by the decoder once a frame's message code has been read. The frame inherits the timestamps of the packet
+	 * last taken from the read queue.
+	 * @return id of the new frame, to be passed to {@link #mark(int, Stage) mark}, or {@link #NO_FRAME NO_FRAME}
+	 */
+	public int beginFrame() {
+		if (!enabled) {
+			return NO_FRAME;
+		}
+		int id = nextFrame++ & Integer.MAX_VALUE;
+		int base = (id & (FRAME_RING - 1)) * SLOT;
+		frames[base] = id;
+		for (int i = 1; i < SLOT; i++) {
+			frames[base + i] = 0;
+		}
+		frames[base + 1 + Stage.SOCKET_READ.ordinal()] = lastPacketRead;
+		frames[base + 1 + Stage.DEQUEUE.ordinal()] = lastPacketTaken;
+		return id;
+	}
+
+	/**
+	 * Stamps a frame with the time it reached a stage. Each stage is recorded at most once per frame, so repeated renders
+	 * of the same position count only the first.
+	 * @param frame frame id from {@link #beginFrame() beginFrame}
+	 * @param stage stage reached
+	 */
+	public void mark(int frame, Stage stage) {
+		if (!enabled || frame < 0) {
+			return;
+		}
+		long now = System.nanoTime();
+		int base = (frame & (FRAME_RING - 1)) * SLOT;
+		if (frames[base] != frame || frames[base + 1 + stage.ordinal()] != 0) {
+			// slot reused by a newer frame, or stage already recorded
+			return;
+		}
+		frames[base + 1 + stage.ordinal()] = now;
+
+		for (int i = stage.ordinal() - 1; i >= 0; i--) {
+			long previous = frames[base + 1 + i];
+			if (previous != 0) {
+				stageLatency[stage.ordinal()].record(now - previous);
+				break;
+			}
+		}
+		if (stage == Stage.RENDER) {
+			long read = frames[base + 1 + Stage.SOCKET_READ.ordinal()];
+			if (read != 0) {
+				endToEnd.record(now - read);
+			}
+		}
+	}
+
+	/**
+	 * Returns the latencies of a stage, measured from the previous stage the frame passed, in ns.
+	 * @param stage the stage
+	 * @return histogram of the stage
+	 */
+	public Histogram getStageLatency(Stage stage) {
+		return stageLatency[stage.ordinal()];
+	}
+
+	/**
+	 * @return histogram of the time from socket read to render in ns
+	 */
+	public Histogram getEndToEndLatency() {
+		return endToEnd;
+	}
+
+	/**
+	 * Clears all histograms.
+	 */
+	public void reset() {
+		for (Histogram h : stageLatency) {
+			h.reset();
+		}
+		endToEnd.reset();
+	}
+
+	/**
+	 * Writes the percentiles of all stages in us.
+	 * @param writer writer to print to
+	 */
+	public void dump(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		for (int i = 1; i < STAGES.length; i++) {
+			stageLatency[i].print(out, STAGES[i - 1] + "->" + STAGES[i] + " [us]", 1000.0);
+		}
+		endToEnd.print(out, "END_TO_END [us]", 1000.0);
+		out.flush();
+	}
+
+	/**
+	 * Writes the percentiles of all stages in us to a file, replacing its content.
+	 * @param file file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void dump(File file) throws IOException {
+		FileWriter writer = new FileWriter(file);
+		try {
+			dump(writer);
+		} finally {
+			writer.close();
+		}
+	}
+}
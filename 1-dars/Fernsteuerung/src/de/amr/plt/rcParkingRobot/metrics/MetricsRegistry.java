@@ -0,0 +1,175 @@
+package de.amr.plt.rcParkingRobot.metrics;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.util.Log;
+
+/**
+ * Named {@link Counter counters}, {@link Gauge gauges} and {@link Histogram histograms} of the communication stack.
+ * Metrics are looked up once, typically into a field, and updated lock-free on the hot path; reading them is left to
+ * {@link #snapshot() snapshot}, {@link #dump(Writer) dump} or a {@link #startPeriodicDump(long) periodic dump} to the
+ * log.
+ * @author PLT
+ *
+ */
+public class MetricsRegistry {
+
+	private static final String TAG_METRICS = "Metrics";
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private Timer dumpTimer;
+
+	/**
+	 * @return the registry the communication stack reports to
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Returns the counter with the given name, creating it if necessary.
+	 * @param name metric name
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			Counter created = new Counter();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	/**
+	 * Returns the settable gauge with the given name, creating it if necessary.
+	 * @param name metric name
+	 * @return the gauge
+	 */
+	public Gauge gauge(String name) {
+		Gauge gauge = gauges.get(name);
+		if (gauge == null) {
+			Gauge created = new Gauge();
+			gauge = gauges.putIfAbsent(name, created);
+			if (gauge == null) {
+				gauge = created;
+			}
+		}
+		return gauge;
+	}
+
+	/**
+	 * Registers a gauge under the given name, replacing any gauge registered before, e.g. one computing the depth of a
+	 * queue that has since been replaced.
+	 * @param name metric name
+	 * @param gauge the gauge
+	 */
+	public void register(String name, Gauge gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/**
+	 * Removes a gauge registered with {@link #register(String, Gauge) register}, unless another gauge has replaced it
+	 * meanwhile, so that the registry does not keep the objects the gauge refers to.
+	 * @param name metric name
+	 * @param gauge the gauge
+	 */
+	public void unregister(String name, Gauge gauge) {
+		gauges.remove(name, gauge);
+	}
+
+	/**
+	 * Returns the histogram with the given name, creating it if necessary.
+	 * @param name metric name
+	 * @param highestTrackableValue largest value to distinguish if the histogram is created
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name, long highestTrackableValue) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram created = new Histogram(highestTrackableValue);
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Reads all metrics. Histograms contribute their count, median, 99th percentile and maximum as
+	 * {@code name.count}, {@code name.p50}, {@code name.p99} and {@code name.max}.
+	 * @return metric values sorted by name
+	 */
+	public SortedMap<String, Long> snapshot() {
+		SortedMap<String, Long> values = new TreeMap<String, Long>();
+		for (Map.Entry<String, Counter> e : counters.entrySet()) {
+			values.put(e.getKey(), e.getValue().get());
+		}
+		for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+			values.put(e.getKey(), e.getValue().get());
+		}
+		for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			Histogram h = e.getValue();
+			values.put(e.getKey() + ".count", h.getCount());
+			values.put(e.getKey() + ".p50", h.getValueAtPercentile(50));
+			values.put(e.getKey() + ".p99", h.getValueAtPercentile(99));
+			values.put(e.getKey() + ".max", h.getMax());
+		}
+		return values;
+	}
+
+	/**
+	 * Writes a {@link #snapshot() snapshot}, one metric per line.
+	 * @param writer writer to print to
+	 */
+	public void dump(Writer writer) {
+		PrintWriter out = new PrintWriter(writer);
+		for (Map.Entry<String, Long> e : snapshot().entrySet()) {
+			out.print(e.getKey());
+			out.print('=');
+			out.println(e.getValue());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes a {@link #snapshot() snapshot} to the log in a single line at the given period, until
+	 * {@link #stopPeriodicDump() stopped}.
+	 * @param periodMillis dump period in ms
+	 */
+	public synchronized void startPeriodicDump(long periodMillis) {
+		stopPeriodicDump();
+		dumpTimer = new Timer("metricsDump", true);
+		dumpTimer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				Log.i(TAG_METRICS, snapshot().toString());
+			}
+		}, periodMillis, periodMillis);
+	}
+
+	/**
+	 * Stops the periodic dump, if any.
+	 */
+	public synchronized void stopPeriodicDump() {
+		if (dumpTimer != null) {
+			dumpTimer.cancel();
+			dumpTimer = null;
+		}
+	}
+}
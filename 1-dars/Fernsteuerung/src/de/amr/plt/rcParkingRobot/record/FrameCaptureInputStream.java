@@ -0,0 +1,83 @@
+package de.amr.plt.rcParkingRobot.record;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a copy of the bytes of the frame being read, so the decoder can hand the raw frame to a
+ * {@link SessionRecorder SessionRecorder} once it has been decoded. {@code DataInputStream} does not read ahead, so the
+ * bytes between two calls of {@link #endFrame(SessionRecorder) endFrame} are exactly one frame.
+ * @author PLT
+ *
+ */
+public class FrameCaptureInputStream extends FilterInputStream {
+
+	private byte[] frame = new byte[64];
+	private int length = 0;
+	private long frameStart = 0;
+
+	/**
+	 * @param in stream carrying data sent by the robot
+	 */
+	public FrameCaptureInputStream(InputStream in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0) {
+			ensureCapacity(1);
+			frame[length++] = (byte) b;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = in.read(b, off, len);
+		if (n > 0) {
+			ensureCapacity(n);
+			System.arraycopy(b, off, frame, length, n);
+			length += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && read() >= 0) {
+			skipped++;
+		}
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Ends the current frame and passes it to the recorder.
+	 * @param recorder recorder receiving the frame, or null to discard it
+	 */
+	public void endFrame(SessionRecorder recorder) {
+		if (recorder != null && length > 0) {
+			recorder.record(SessionRecorder.INBOUND, frameStart, frame, 0, length);
+		}
+		length = 0;
+	}
+
+	private void ensureCapacity(int n) {
+		if (length == 0) {
+			frameStart = System.nanoTime();
+		}
+		if (length + n > frame.length) {
+			byte[] larger = new byte[Math.max(frame.length * 2, length + n)];
+			System.arraycopy(frame, 0, larger, 0, length);
+			frame = larger;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package de.amr.plt.rcParkingRobot.record;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Append-only recorder of the raw frames exchanged with the robot. Callers copy a frame into a pooled record and return
+ * immediately; a writer thread appends the records to a file through a buffered {@link FileChannel FileChannel}. When
+ * the writer falls behind and the pool is exhausted, frames are dropped and counted rather than blocking the caller.
+ * <p>
+ * File layout, big-endian: the header holds the 8 byte {@link #MAGIC magic}, the wall clock time in ms and the
+ * {@code System.nanoTime()} at the start of recording. Each record follows as payload length (int), direction (byte),
+ * {@code System.nanoTime()} of the frame (long) and the payload bytes. {@link SessionReplay SessionReplay} reads it back.
+ * @author PLT
+ *
+ */
+public class SessionRecorder {
+
+	/**
+	 * Marks a recording file, followed by the format version.
+	 */
+	public static final byte[] MAGIC = {'H', 'M', 'I', 'R', 'E', 'C', '0', '1'};
+	/**
+	 * Size of the file header in bytes.
+	 */
+	public static final int HEADER_SIZE = MAGIC.length + 8 + 8;
+	/**
+	 * Size of the header in front of each record payload in bytes.
+	 */
+	public static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+	/**
+	 * Direction of frames sent by the robot.
+	 */
+	public static final byte INBOUND = 0;
+	/**
+	 * Direction of frames sent to the robot.
+	 */
+	public static final byte OUTBOUND = 1;
+
+	private static final String TAG_RECORDER = "SessionRecorder";
+	private static final int POOL_SIZE = 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// longest time records stay in the write buffer
+	private static final long FLUSH_MILLIS = 500;
+
+	/**
+	 * Pooled frame copy handed from the producer to the writer thread.
+	 */
+	private static final class Record {
+		byte direction;
+		long nanos;
+		byte[] data = new byte[64];
+		int length;
+	}
+
+	// queued after the last record, ends the writer thread
+	private static final Record CLOSE = new Record();
+
+	private final ArrayBlockingQueue<Record> free = new ArrayBlockingQueue<Record>(POOL_SIZE);
+	// room for all pooled records and CLOSE
+	private final ArrayBlockingQueue<Record> pending = new ArrayBlockingQueue<Record>(POOL_SIZE + 1);
+	private final FileOutputStream file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Thread writerThread;
+	private volatile boolean open = true;
+	private boolean closed = false;
+
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Creates the recording file, replacing an existing one, and starts the writer thread.
+	 * @param target file to write
+	 * @throws IOException if the file cannot be created
+	 */
+	public SessionRecorder(File target) throws IOException {
+		for (int i = 0; i < POOL_SIZE; i++) {
+			free.add(new Record());
+		}
+		file = new FileOutputStream(target);
+		channel = file.getChannel();
+
+		buffer.put(MAGIC);
+		buffer.putLong(System.currentTimeMillis());
+		buffer.putLong(System.nanoTime());
+
+		writerThread = new Thread("recorderThread") {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * Records a frame. Never blocks; the frame is dropped if the writer thread cannot keep up.
+	 * @param direction {@link #INBOUND INBOUND} or {@link #OUTBOUND OUTBOUND}
+	 * @param nanos {@code System.nanoTime()} of the frame
+	 * @param data array holding the frame
+	 * @param offset start of the frame in {@code data}
+	 * @param length length of the frame
+	 */
+	public void record(byte direction, long nanos, byte[] data, int offset, int length) {
+		if (!open) {
+			return;
+		}
+		Record r = free.poll();
+		if (r == null) {
+			dropped.incrementAndGet();
+			return;
+		}
+		if (r.data.length < length) {
+			r.data = new byte[length];
+		}
+		System.arraycopy(data, offset, r.data, 0, length);
+		r.length = length;
+		r.direction = direction;
+		r.nanos = nanos;
+		pending.offer(r);
+	}
+
+	/**
+	 * @return number of frames handed to the writer thread so far
+	 */
+	public long getRecordedFrames() {
+		return recorded.get();
+	}
+
+	/**
+	 * @return number of frames dropped because the writer thread fell behind
+	 */
+	public long getDroppedFrames() {
+		return dropped.get();
+	}
+
+	/**
+	 * Writes all pending frames and closes the file, waiting up to two seconds for the writer thread. The writer thread
+	 * is not interrupted, that would close the channel in the middle of a write.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		open = false;
+		pending.offer(CLOSE);
+		try {
+			writerThread.join(2000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drain() {
+		try {
+			while (true) {
+				Record r;
+				try {
+					r = pending.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					// close() does not interrupt, keep writing until CLOSE
+					continue;
+				}
+				if (r == CLOSE) {
+					break;
+				}
+				if (r == null) {
+					flush();
+					continue;
+				}
+				if (buffer.remaining() < RECORD_HEADER_SIZE + r.length) {
+					flush();
+				}
+				if (buffer.remaining() < RECORD_HEADER_SIZE + r.length) {
+					// larger than the whole buffer, write it on its own
+					ByteBuffer large = ByteBuffer.allocate(RECORD_HEADER_SIZE + r.length);
+					put(large, r);
+					large.flip();
+					while (large.hasRemaining()) {
+						channel.write(large);
+					}
+				} else {
+					put(buffer, r);
+				}
+				recorded.incrementAndGet();
+				free.offer(r);
+			}
+			flush();
+		} catch (IOException e) {
+			open = false;
+			Log.e(TAG_RECORDER, "Recording stopped: "+e.getMessage());
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				Log.e(TAG_RECORDER, "Closing failed: "+e.getMessage());
+			}
+		}
+	}
+
+	private static void put(ByteBuffer target, Record r) {
+		target.putInt(r.length);
+		target.put(r.direction);
+		target.putLong(r.nanos);
+		target.put(r.data, 0, r.length);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,223 @@
+package de.amr.plt.rcParkingRobot.record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import de.amr.plt.rcParkingRobot.AndroidHmiPLT;
+
+/**
+ * Plays back a file written by {@link SessionRecorder SessionRecorder}. The file is memory-mapped, and the recorded
+ * inbound frames are served as an {@link InputStream InputStream}, so they can be fed through the real decoder of an
+ * {@link AndroidHmiPLT AndroidHmiPLT} either with their original timing or as fast as possible.
+ * @author PLT
+ *
+ */
+public class SessionReplay {
+
+	/**
+	 * Speed for replaying without any delay between frames.
+	 */
+	public static final double AS_FAST_AS_POSSIBLE = 0;
+
+	private final FileInputStream file;
+	private final MappedByteBuffer data;
+	private final long startTimeMillis;
+	private int inboundFrames = 0;
+	private int outboundFrames = 0;
+
+	/**
+	 * Opens and checks a recording.
+	 * @param recording file written by {@code SessionRecorder}
+	 * @throws IOException if the file cannot be read or is not a complete recording
+	 */
+	public SessionReplay(File recording) throws IOException {
+		file = new FileInputStream(recording);
+		try {
+			FileChannel channel = file.getChannel();
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (data.remaining() < SessionRecorder.HEADER_SIZE) {
+				throw new IOException("Not a session recording: "+recording);
+			}
+			for (int i = 0; i < SessionRecorder.MAGIC.length; i++) {
+				if (data.get(i) != SessionRecorder.MAGIC[i]) {
+					throw new IOException("Not a session recording: "+recording);
+				}
+			}
+			startTimeMillis = data.getLong(SessionRecorder.MAGIC.length);
+
+			// count frames, a record cut off by a crash ends the recording
+			int pos = SessionRecorder.HEADER_SIZE;
+			while (pos + SessionRecorder.RECORD_HEADER_SIZE <= data.limit()) {
+				int length = data.getInt(pos);
+				if (length < 0 || pos + SessionRecorder.RECORD_HEADER_SIZE + length > data.limit()) {
+					break;
+				}
+				if (data.get(pos + 4) == SessionRecorder.INBOUND) {
+					inboundFrames++;
+				} else {
+					outboundFrames++;
+				}
+				pos += SessionRecorder.RECORD_HEADER_SIZE + length;
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return wall clock time in ms when the recording started
+	 */
+	public long getStartTimeMillis() {
+		return startTimeMillis;
+	}
+
+	/**
+	 * @return number of recorded frames sent by the robot
+	 */
+	public int getInboundFrames() {
+		return inboundFrames;
+	}
+
+	/**
+	 * @return number of recorded frames sent to the robot
+	 */
+	public int getOutboundFrames() {
+		return outboundFrames;
+	}
+
+	/**
+	 * Returns a stream of the recorded inbound frames. Each call returns an independent stream starting at the beginning.
+	 * @param speed 1 for the original timing, 10 for ten times faster etc., or {@link #AS_FAST_AS_POSSIBLE
+	 * AS_FAST_AS_POSSIBLE}
+	 * @return stream of inbound bytes
+	 */
+	public InputStream openInboundStream(double speed) {
+		return new ReplayInputStream(data.duplicate(), speed);
+	}
+
+	/**
+	 * Connects an HMI module to the recording. Commands the module sends are discarded.
+	 * @param hmi module that decodes the recorded frames
+	 * @param speed 1 for the original timing, or {@link #AS_FAST_AS_POSSIBLE AS_FAST_AS_POSSIBLE}
+	 */
+	public void replay(AndroidHmiPLT hmi, double speed) {
+		hmi.connect(openInboundStream(speed), new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+			}
+		});
+	}
+
+	/**
+	 * Closes the recording file.
+	 * @throws IOException if closing fails
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Serves the payloads of inbound records, waiting for their recorded time if paced.
+	 */
+	private class ReplayInputStream extends InputStream {
+
+		private final ByteBuffer buf;
+		private final double speed;
+		private int remaining = 0;
+		private long replayStart = -1;
+		private long firstNanos;
+
+		ReplayInputStream(ByteBuffer buf, double speed) {
+			this.buf = buf;
+			this.speed = speed;
+			buf.position(SessionRecorder.HEADER_SIZE);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!nextFrame()) {
+				return -1;
+			}
+			remaining--;
+			return buf.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextFrame()) {
+				return -1;
+			}
+			int n = Math.min(len, remaining);
+			buf.get(b, off, n);
+			remaining -= n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return remaining;
+		}
+
+		/**
+		 * Moves to the next inbound frame once the current one has been read.
+		 * @return false at the end of the recording
+		 */
+		private boolean nextFrame() throws IOException {
+			while (remaining == 0) {
+				if (buf.remaining() < SessionRecorder.RECORD_HEADER_SIZE) {
+					return false;
+				}
+				int length = buf.getInt();
+				byte direction = buf.get();
+				long nanos = buf.getLong();
+				if (length < 0 || length > buf.remaining()) {
+					return false;
+				}
+				if (direction != SessionRecorder.INBOUND) {
+					buf.position(buf.position() + length);
+					continue;
+				}
+				pace(nanos);
+				remaining = length;
+			}
+			return true;
+		}
+
+		private void pace(long nanos) throws IOException {
+			if (speed <= 0) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (replayStart < 0) {
+				replayStart = now;
+				firstNanos = nanos;
+			}
+			long due = replayStart + (long) ((nanos - firstNanos) / speed);
+			long wait = due - now;
+			if (wait > 0) {
+				try {
+					Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Replay interrupted");
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package de.amr.plt.rcParkingRobot.sim;
+
+/**
+ * Straight line driven at constant speed, e.g. along a parking lane.
+ * @author PLT
+ *
+ */
+public class LinearTrajectory implements Trajectory {
+
+	private final float startX;
+	private final float startY;
+	private final float angle;
+	private final float speed;
+
+	/**
+	 * Creates a new straight trajectory.
+	 * @param startX X coordinate of the start point in m
+	 * @param startY Y coordinate of the start point in m
+	 * @param angle heading in rad
+	 * @param speed speed in m/s
+	 */
+	public LinearTrajectory(float startX, float startY, float angle, float speed) {
+		this.startX = startX;
+		this.startY = startY;
+		this.angle = angle;
+		this.speed = speed;
+	}
+
+	public void sample(double t, float[] pose) {
+		double s = speed * t;
+		pose[X] = (float) (startX + s * Math.cos(angle));
+		pose[Y] = (float) (startY + s * Math.sin(angle));
+		pose[ANGLE] = angle;
+	}
+
+}
@@ -0,0 +1,536 @@
+package de.amr.plt.rcParkingRobot.sim;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import parkingRobot.INxtHmi.Mode;
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import parkingRobot.hsamr0.HmiPLT.Command;
+import de.amr.plt.rcParkingRobot.HmiProtocol;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot.ParkingSlotStatus;
+
+/**
+ * Headless stand-in for the NXT robot. The simulator plays the robot side of the HmiPLT protocol: it sends
+ * {@code OUT_POSITION}, {@code OUT_PARKSLOT} and {@code OUT_STATUS} frames along a {@link Trajectory Trajectory} and
+ * accepts {@code IN_SET_MODE} and {@code IN_SELECTED_PARKING_SLOT} commands, as well as rate requests of a
+ * {@code RateController}. It uses no Android classes, so it runs on any JVM, either attached to a pair of streams or as a TCP server via {@link #main(String[]) main}.
+ * <p>
+ * Rates, jitter and packet loss are taken from a {@link SimulatorConfig SimulatorConfig}; runs with the same seed are
+ * reproducible.
+ * @author PLT
+ *
+ */
+public class NxtSimulator {
+
+	// simulated seconds the robot stays in PARKING before it becomes INACTIVE again
+	private static final double PARKING_DURATION = 5.0;
+	// lateral offset in m of detected parking slots, measured to the right of the robot
+	private static final float SLOT_OFFSET = 0.3f;
+
+	private static final Command[] COMMANDS = Command.values();
+	private static final Mode[] MODES = Mode.values();
+
+	private final SimulatorConfig config;
+	private final Random random;
+
+	/**
+	 * One run from {@link NxtSimulator#start(InputStream, OutputStream) start} to its end. Each run has its own flag and
+	 * threads, so a thread of an ended run finishing late cannot stop the next one.
+	 */
+	private static final class Session {
+		volatile boolean running = true;
+		Thread emitterThread;
+		Thread commandThread;
+
+		void stop() {
+			running = false;
+			emitterThread.interrupt();
+			commandThread.interrupt();
+		}
+	}
+
+	// the current run, null before the first start
+	private Session session;
+
+	// state shared with the command thread
+	private volatile CurrentStatus status = CurrentStatus.INACTIVE;
+	private volatile boolean statusChanged = true;
+	private volatile Mode mode = Mode.PAUSE;
+	private volatile int selectedParkingSlot = -1;
+	private volatile double positionRate;
+
+	// parking slots detected so far, only touched by the emitter thread
+	private final List<float[]> slotBoundaries = new ArrayList<float[]>();
+	private final List<ParkingSlotStatus> slotStatus = new ArrayList<ParkingSlotStatus>();
+
+	private final AtomicLong framesSent = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong commandsReceived = new AtomicLong();
+
+	/**
+	 * Creates a new simulator.
+	 * @param config settings of the run
+	 */
+	public NxtSimulator(SimulatorConfig config) {
+		this.config = config;
+		this.random = new Random(config.getSeed());
+	}
+
+	/**
+	 * Starts the simulation on the given streams and returns immediately.
+	 * @param fromHmi stream carrying commands sent by the HMI client
+	 * @param toHmi stream receiving telemetry for the HMI client
+	 */
+	public synchronized void start(InputStream fromHmi, OutputStream toHmi) {
+		if (session != null && session.running) {
+			throw new IllegalStateException("Simulator is already running.");
+		}
+		final Session s = new Session();
+		status = CurrentStatus.INACTIVE;
+		positionRate = config.getPositionRate();
+		statusChanged = true;
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(toHmi));
+		final DataInputStream in = new DataInputStream(fromHmi);
+
+		s.emitterThread = new Thread("simEmitterThread") {
+			@Override
+			public void run() {
+				emit(s, out);
+			}
+		};
+		s.commandThread = new Thread("simCommandThread") {
+			@Override
+			public void run() {
+				receive(s, in);
+			}
+		};
+		s.emitterThread.setDaemon(true);
+		s.commandThread.setDaemon(true);
+		session = s;
+		s.emitterThread.start();
+		s.commandThread.start();
+	}
+
+	/**
+	 * Stops the simulation. The streams passed to {@link #start(InputStream, OutputStream) start} are not closed.
+	 */
+	public void stop() {
+		Session s;
+		synchronized (this) {
+			s = session;
+		}
+		if (s != null) {
+			s.stop();
+		}
+	}
+
+	/**
+	 * Waits until the simulation has ended, either by {@link #stop() stop}, a {@code DISCONNECT} command or a closed stream.
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	public void join() throws InterruptedException {
+		Session s;
+		synchronized (this) {
+			s = session;
+		}
+		if (s != null) {
+			s.emitterThread.join();
+		}
+	}
+
+	/**
+	 * Accepts HMI clients on the given TCP port and serves them one after the other until the thread is interrupted.
+	 * @param port TCP port to listen on
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public void listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port);
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Socket client = server.accept();
+				client.setTcpNoDelay(true);
+				try {
+					start(client.getInputStream(), client.getOutputStream());
+					join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					stop();
+					client.close();
+					// the command thread leaves its blocking read once the socket is closed
+					joinCommandThread();
+				}
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	private void joinCommandThread() {
+		Session s;
+		synchronized (this) {
+			s = session;
+		}
+		if (s == null) {
+			return;
+		}
+		try {
+			s.commandThread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return number of frames written to the HMI client so far
+	 */
+	public long getFramesSent() {
+		return framesSent.get();
+	}
+
+	/**
+	 * @return number of frames dropped to simulate packet loss
+	 */
+	public long getFramesDropped() {
+		return framesDropped.get();
+	}
+
+	/**
+	 * @return number of commands received from the HMI client
+	 */
+	public long getCommandsReceived() {
+		return commandsReceived.get();
+	}
+
+	/**
+	 * @return status the simulated robot is in
+	 */
+	public CurrentStatus getCurrentStatus() {
+		return status;
+	}
+
+	/**
+	 * @return latest mode requested by the HMI client
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return latest parking slot ID selected by the HMI client, or -1
+	 */
+	public int getSelectedParkingSlot() {
+		return selectedParkingSlot;
+	}
+
+	/*
+	 * Emitter
+	 */
+
+	private void emit(Session s, DataOutputStream out) {
+		Trajectory trajectory = config.getTrajectory();
+		double scale = config.getTimeScale();
+		long positionPeriod = period(positionRate, scale);
+		long slotPeriod = period(config.getParkingSlotRate(), scale);
+		long statusPeriod = period(config.getStatusRate(), scale);
+
+		float[] pose = new float[3];
+		float[] lastPose = null;
+		double simTime = 0;
+		double parkingSince = 0;
+		float travelled = 0;
+		int nextResend = 0;
+
+		long last = System.nanoTime();
+		long nextPosition = last;
+		long nextSlot = last + slotPeriod;
+		long nextStatus = last + statusPeriod;
+
+		try {
+			while (s.running) {
+				long now = System.nanoTime();
+				positionPeriod = period(positionRate, scale);
+				CurrentStatus current = status;
+				if (current == CurrentStatus.DRIVING || current == CurrentStatus.PARKING) {
+					simTime += (now - last) * scale / 1e9;
+				}
+				last = now;
+
+				if (current == CurrentStatus.PARKING && simTime - parkingSince >= PARKING_DURATION) {
+					setStatus(CurrentStatus.INACTIVE);
+				} else if (current != CurrentStatus.PARKING) {
+					parkingSince = simTime;
+				}
+
+				if (statusChanged) {
+					statusChanged = false;
+					sendStatus(out, status);
+					nextStatus = now + statusPeriod;
+					if (status == CurrentStatus.EXIT) {
+						break;
+					}
+				}
+
+				if (now >= nextPosition) {
+					trajectory.sample(simTime, pose);
+					if (lastPose == null) {
+						lastPose = new float[3];
+					} else {
+						travelled += (float) Math.hypot(pose[Trajectory.X] - lastPose[Trajectory.X], pose[Trajectory.Y] - lastPose[Trajectory.Y]);
+					}
+					System.arraycopy(pose, 0, lastPose, 0, 3);
+
+					if (config.getSlotSpacing() > 0 && travelled >= config.getSlotSpacing()) {
+						travelled = 0;
+						sendParkingSlot(out, detectParkingSlot(pose));
+					}
+					sendPosition(out, pose);
+					nextPosition += positionPeriod;
+					if (nextPosition < now) {
+						// fell behind, e.g. because of jitter, do not burst to catch up
+						nextPosition = now + positionPeriod;
+					}
+				}
+
+				if (slotPeriod > 0 && now >= nextSlot) {
+					if (!slotBoundaries.isEmpty()) {
+						nextResend = nextResend % slotBoundaries.size();
+						rescan(nextResend);
+						sendParkingSlot(out, nextResend++);
+					}
+					nextSlot = now + slotPeriod;
+				}
+
+				if (statusPeriod > 0 && now >= nextStatus) {
+					sendStatus(out, status);
+					nextStatus = now + statusPeriod;
+				}
+
+				long wake = nextPosition;
+				if (slotPeriod > 0) {
+					wake = Math.min(wake, nextSlot);
+				}
+				if (statusPeriod > 0) {
+					wake = Math.min(wake, nextStatus);
+				}
+				sleepNanos(wake - System.nanoTime());
+			}
+		} catch (IOException e) {
+			// HMI client went away
+		} catch (InterruptedException e) {
+			// stopped
+		} finally {
+			s.running = false;
+		}
+	}
+
+	private static long period(double rate, double scale) {
+		if (rate <= 0) {
+			return 0;
+		}
+		return Math.max(1L, (long) (1e9 / (rate * scale)));
+	}
+
+	private static void sleepNanos(long nanos) throws InterruptedException {
+		if (nanos > 0) {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} else if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	private int detectParkingSlot(float[] pose) {
+		double angle = pose[Trajectory.ANGLE];
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
+		// back boundary is passed first, front boundary lies further along the heading
+		float xb = pose[Trajectory.X] + SLOT_OFFSET * sin;
+		float yb = pose[Trajectory.Y] - SLOT_OFFSET * cos;
+		float xf = xb + config.getSlotLength() * cos;
+		float yf = yb + config.getSlotLength() * sin;
+
+		slotBoundaries.add(new float[]{xb, yb, xf, yf});
+		slotStatus.add(random.nextDouble() < config.getGoodSlotProbability() ? ParkingSlotStatus.GOOD : ParkingSlotStatus.RESCAN);
+		return slotBoundaries.size() - 1;
+	}
+
+	private void rescan(int index) {
+		if (slotStatus.get(index) == ParkingSlotStatus.RESCAN) {
+			slotStatus.set(index, random.nextDouble() < config.getGoodSlotProbability() ? ParkingSlotStatus.GOOD : ParkingSlotStatus.BAD);
+		}
+	}
+
+	private void sendPosition(DataOutputStream out, float[] pose) throws IOException, InterruptedException {
+		if (drop()) {
+			return;
+		}
+		out.writeInt(Command.OUT_POSITION.ordinal());
+		out.writeFloat(pose[Trajectory.X]);
+		out.writeFloat(pose[Trajectory.Y]);
+		out.writeFloat(pose[Trajectory.ANGLE]);
+		// distance sensor values in clockwise directions (front, right, back, left) in mm
+		out.writeDouble(distance(600));
+		out.writeDouble(distance(SLOT_OFFSET * 1000));
+		out.writeDouble(distance(600));
+		out.writeDouble(distance(900));
+		flush(out);
+	}
+
+	private void sendParkingSlot(DataOutputStream out, int index) throws IOException, InterruptedException {
+		if (drop()) {
+			return;
+		}
+		float[] boundaries = slotBoundaries.get(index);
+		out.writeInt(Command.OUT_PARKSLOT.ordinal());
+		out.writeInt(slotStatus.get(index).ordinal());
+		// parking slot IDs start at 1
+		out.writeInt(index + 1);
+		out.writeFloat(boundaries[0]);
+		out.writeFloat(boundaries[1]);
+		out.writeFloat(boundaries[2]);
+		out.writeFloat(boundaries[3]);
+		flush(out);
+	}
+
+	private void sendStatus(DataOutputStream out, CurrentStatus current) throws IOException, InterruptedException {
+		if (drop()) {
+			return;
+		}
+		out.writeInt(Command.OUT_STATUS.ordinal());
+		out.writeInt(current.ordinal());
+		flush(out);
+	}
+
+	private double distance(double mean) {
+		return Math.max(0, mean + 20 * random.nextGaussian());
+	}
+
+	private boolean drop() {
+		if (config.getPacketLoss() > 0 && random.nextDouble() < config.getPacketLoss()) {
+			framesDropped.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private void flush(DataOutputStream out) throws IOException, InterruptedException {
+		if (config.getJitterMillis() > 0) {
+			Thread.sleep((long) (random.nextDouble() * config.getJitterMillis()));
+		}
+		out.flush();
+		framesSent.incrementAndGet();
+	}
+
+	private void setStatus(CurrentStatus newStatus) {
+		if (status != newStatus) {
+			status = newStatus;
+			statusChanged = true;
+		}
+	}
+
+	/*
+	 * Command receiver
+	 */
+
+	private void receive(Session s, DataInputStream in) {
+		try {
+			while (s.running) {
+				int code = in.readInt();
+				if (code == HmiProtocol.IN_SET_POSITION_RATE) {
+					// never faster than the configured rate, like firmware with a fixed maximum
+					positionRate = Math.min(Math.max(1, in.readInt()), config.getPositionRate());
+					commandsReceived.incrementAndGet();
+					continue;
+				}
+				if (code < 0 || code >= COMMANDS.length) {
+					continue;
+				}
+				Command command = COMMANDS[code];
+				if (command == Command.IN_SET_MODE) {
+					int imode = in.readInt();
+					if (imode >= 0 && imode < MODES.length) {
+						applyMode(MODES[imode]);
+					}
+					commandsReceived.incrementAndGet();
+				} else if (command == Command.IN_SELECTED_PARKING_SLOT) {
+					selectedParkingSlot = in.readInt();
+					commandsReceived.incrementAndGet();
+				}
+			}
+		} catch (EOFException e) {
+			// HMI client closed the stream
+		} catch (IOException e) {
+			// HMI client went away
+		} finally {
+			// ends this run only, a new one may have started meanwhile
+			s.stop();
+		}
+	}
+
+	private void applyMode(Mode newMode) {
+		mode = newMode;
+		switch (newMode) {
+		case SCOUT:
+			setStatus(CurrentStatus.DRIVING);
+			break;
+		case PARK_NOW:
+		case PARK_THIS:
+			setStatus(CurrentStatus.PARKING);
+			break;
+		case PAUSE:
+			setStatus(CurrentStatus.INACTIVE);
+			break;
+		case DISCONNECT:
+			setStatus(CurrentStatus.EXIT);
+			break;
+		}
+	}
+
+	/**
+	 * Runs the simulator as a TCP server. Options: {@code --port n}, {@code --scale x}, {@code --rate hz},
+	 * {@code --jitter ms}, {@code --loss p}, {@code --seed n} and {@code --course rectangle|linear}.
+	 * @param args command line options
+	 * @throws IOException if the server socket cannot be opened
+	 */
+	public static void main(String[] args) throws IOException {
+		SimulatorConfig config = new SimulatorConfig();
+		int port = 5555;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i];
+			String value = args[i + 1];
+			if (option.equals("--port")) {
+				port = Integer.parseInt(value);
+			} else if (option.equals("--scale")) {
+				config.setTimeScale(Double.parseDouble(value));
+			} else if (option.equals("--rate")) {
+				config.setPositionRate(Double.parseDouble(value));
+			} else if (option.equals("--jitter")) {
+				config.setJitterMillis(Long.parseLong(value));
+			} else if (option.equals("--loss")) {
+				config.setPacketLoss(Double.parseDouble(value));
+			} else if (option.equals("--seed")) {
+				config.setSeed(Long.parseLong(value));
+			} else if (option.equals("--course") && value.equals("rectangle")) {
+				config.setTrajectory(new RectangleTrajectory(1.8f, 1.2f, 0.1f));
+			} else if (option.equals("--course") && value.equals("linear")) {
+				config.setTrajectory(new LinearTrajectory(0, 0, 0, 0.1f));
+			} else {
+				throw new IllegalArgumentException("Unknown option "+option+" "+value);
+			}
+		}
+		System.out.println("NXT simulator listening on port "+port);
+		new NxtSimulator(config).listen(port);
+	}
+}
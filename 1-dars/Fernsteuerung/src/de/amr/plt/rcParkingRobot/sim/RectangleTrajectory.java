@@ -0,0 +1,56 @@
+package de.amr.plt.rcParkingRobot.sim;
+
+/**
+ * Closed rectangular course driven counter-clockwise at constant speed, starting in the origin heading along the positive
+ * X axis. This resembles the parcours the robot scouts for parking slots.
+ * @author PLT
+ *
+ */
+public class RectangleTrajectory implements Trajectory {
+
+	private final float width;
+	private final float height;
+	private final float speed;
+
+	/**
+	 * Creates a new rectangular course.
+	 * @param width extent along the X axis in m
+	 * @param height extent along the Y axis in m
+	 * @param speed speed in m/s
+	 */
+	public RectangleTrajectory(float width, float height, float speed) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Expected positive course size, got "+width+"x"+height+".");
+		}
+		this.width = width;
+		this.height = height;
+		this.speed = speed;
+	}
+
+	public void sample(double t, float[] pose) {
+		double perimeter = 2.0 * (width + height);
+		double s = (speed * t) % perimeter;
+		if (s < 0) {
+			s += perimeter;
+		}
+
+		if (s < width) {
+			pose[X] = (float) s;
+			pose[Y] = 0;
+			pose[ANGLE] = 0;
+		} else if (s < width + height) {
+			pose[X] = width;
+			pose[Y] = (float) (s - width);
+			pose[ANGLE] = (float) (Math.PI / 2);
+		} else if (s < 2 * width + height) {
+			pose[X] = (float) (width - (s - width - height));
+			pose[Y] = height;
+			pose[ANGLE] = (float) Math.PI;
+		} else {
+			pose[X] = 0;
+			pose[Y] = (float) (height - (s - 2 * width - height));
+			pose[ANGLE] = (float) (3 * Math.PI / 2);
+		}
+	}
+
+}
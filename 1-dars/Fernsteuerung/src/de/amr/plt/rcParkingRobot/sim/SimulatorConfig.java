@@ -0,0 +1,166 @@
+package de.amr.plt.rcParkingRobot.sim;
+
+/**
+ * Settings of a {@link NxtSimulator NxtSimulator} run. Rates are given in real robot terms and multiplied by the
+ * {@link #setTimeScale(double) time scale}, so a time scale of 50 replays a normal run at 50 times its speed.
+ * @author PLT
+ *
+ */
+public class SimulatorConfig {
+
+	private double positionRate = 20;
+	private double parkingSlotRate = 0;
+	private double statusRate = 2;
+	private double timeScale = 1;
+	private long jitterMillis = 0;
+	private double packetLoss = 0;
+	private long seed = 1;
+	private Trajectory trajectory = new RectangleTrajectory(1.8f, 1.2f, 0.1f);
+	private float slotSpacing = 0.6f;
+	private float slotLength = 0.45f;
+	private double goodSlotProbability = 0.6;
+
+	// Set methods
+
+	/**
+	 * @param hz number of {@code OUT_POSITION} frames per second
+	 */
+	public void setPositionRate(double hz) {
+		this.positionRate = hz;
+	}
+	/**
+	 * @param hz number of {@code OUT_PARKSLOT} frames per second re-sending known slots, zero sends new slots only
+	 */
+	public void setParkingSlotRate(double hz) {
+		this.parkingSlotRate = hz;
+	}
+	/**
+	 * @param hz number of {@code OUT_STATUS} frames per second, zero sends status changes only
+	 */
+	public void setStatusRate(double hz) {
+		this.statusRate = hz;
+	}
+	/**
+	 * @param timeScale factor applied to all rates and to the simulated clock, e.g. 10 to 100 for load tests
+	 */
+	public void setTimeScale(double timeScale) {
+		if (timeScale <= 0) {
+			throw new IllegalArgumentException("Expected positive time scale, got "+timeScale+".");
+		}
+		this.timeScale = timeScale;
+	}
+	/**
+	 * @param jitterMillis upper bound of the random delay added to each frame in ms of real time
+	 */
+	public void setJitterMillis(long jitterMillis) {
+		this.jitterMillis = jitterMillis;
+	}
+	/**
+	 * @param packetLoss probability between 0 and 1 that a frame is dropped instead of sent
+	 */
+	public void setPacketLoss(double packetLoss) {
+		if (packetLoss < 0 || packetLoss > 1) {
+			throw new IllegalArgumentException("Expected packet loss between 0 and 1, got "+packetLoss+".");
+		}
+		this.packetLoss = packetLoss;
+	}
+	/**
+	 * @param seed seed of the random generator, equal seeds reproduce equal runs
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+	/**
+	 * @param trajectory course driven by the simulated robot
+	 */
+	public void setTrajectory(Trajectory trajectory) {
+		this.trajectory = trajectory;
+	}
+	/**
+	 * @param slotSpacing distance in m the robot drives between two detected parking slots, zero disables detection
+	 */
+	public void setSlotSpacing(float slotSpacing) {
+		this.slotSpacing = slotSpacing;
+	}
+	/**
+	 * @param slotLength length of detected parking slots in m
+	 */
+	public void setSlotLength(float slotLength) {
+		this.slotLength = slotLength;
+	}
+	/**
+	 * @param goodSlotProbability probability between 0 and 1 that a detected parking slot is GOOD
+	 */
+	public void setGoodSlotProbability(double goodSlotProbability) {
+		this.goodSlotProbability = goodSlotProbability;
+	}
+
+	// Get methods
+
+	/**
+	 * @return number of {@code OUT_POSITION} frames per second
+	 */
+	public double getPositionRate() {
+		return positionRate;
+	}
+	/**
+	 * @return number of {@code OUT_PARKSLOT} frames per second
+	 */
+	public double getParkingSlotRate() {
+		return parkingSlotRate;
+	}
+	/**
+	 * @return number of {@code OUT_STATUS} frames per second
+	 */
+	public double getStatusRate() {
+		return statusRate;
+	}
+	/**
+	 * @return factor applied to all rates and to the simulated clock
+	 */
+	public double getTimeScale() {
+		return timeScale;
+	}
+	/**
+	 * @return upper bound of the random delay added to each frame in ms
+	 */
+	public long getJitterMillis() {
+		return jitterMillis;
+	}
+	/**
+	 * @return probability that a frame is dropped
+	 */
+	public double getPacketLoss() {
+		return packetLoss;
+	}
+	/**
+	 * @return seed of the random generator
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	/**
+	 * @return course driven by the simulated robot
+	 */
+	public Trajectory getTrajectory() {
+		return trajectory;
+	}
+	/**
+	 * @return distance in m between two detected parking slots
+	 */
+	public float getSlotSpacing() {
+		return slotSpacing;
+	}
+	/**
+	 * @return length of detected parking slots in m
+	 */
+	public float getSlotLength() {
+		return slotLength;
+	}
+	/**
+	 * @return probability that a detected parking slot is GOOD
+	 */
+	public double getGoodSlotProbability() {
+		return goodSlotProbability;
+	}
+}
@@ -0,0 +1,31 @@
+package de.amr.plt.rcParkingRobot.sim;
+
+/**
+ * Course driven by the simulated robot. A trajectory maps simulated time to a robot pose, using the same units the NXT
+ * sends: X and Y in m, heading angle in rad where zero is the positive X axis.
+ * @author PLT
+ *
+ */
+public interface Trajectory {
+
+	/**
+	 * Index of the X coordinate in a pose array.
+	 */
+	public static final int X = 0;
+	/**
+	 * Index of the Y coordinate in a pose array.
+	 */
+	public static final int Y = 1;
+	/**
+	 * Index of the heading angle in a pose array.
+	 */
+	public static final int ANGLE = 2;
+
+	/**
+	 * Computes the robot pose at the given simulated time.
+	 * @param t simulated time in s since the start of the run
+	 * @param pose array of at least three elements receiving (x, y, angle)
+	 */
+	public void sample(double t, float[] pose);
+
+}
@@ -1,7 +1,8 @@
 package de.amr.plt.rcTestapp;
 
-import java.util.Set;
+import java.util.List;
 
+import lejos.pc.comm.NXTDiscovery;
 import de.amr.plt.rcTestapp.R;
 
 import android.os.Bundle;
@@ -36,6 +37,8 @@ public class BluetoothActivity extends Activity {
 	// Member fields
 	BluetoothAdapter mBtAdapter = null;
 	private ArrayAdapter<String> mPairedDevicesArrayAdapter;
+	//devices known from earlier pickers and connections, read again in the background
+	private final NXTDiscovery discovery = NXTDiscovery.getDefault();
 	
 	// The intent
 	private Intent enableBtIntent = null;
@@ -46,6 +49,8 @@ public class BluetoothActivity extends Activity {
 	private final int REQUEST_ENABLE_BT	= 1;
 	//result code
 	private final int RESULT_BT_NOT_ENABLED = 3;
+	//whether the user has been told about the paired devices since the last resume
+	private boolean pairedDevicesReported = false;
 	
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -69,8 +74,9 @@ public class BluetoothActivity extends Activity {
         //Register for broadcasts when discovery has finished
         filter = new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED);
         this.registerReceiver(mReceiver, filter);
-        //add paired devices to the ArrayAdapter
-        addPairedDevices();
+        
+        //the list is updated when the adapter has been read, the cached devices are shown by onResume
+        discovery.addListener(mDiscoveryListener);
     }
 	
 	public void onStart(){ 
@@ -80,11 +86,18 @@ public class BluetoothActivity extends Activity {
 	}
 	
 	public void onResume(){
-		//necessary if bluetooth-enabling-dialog appears   
+		//show the cached devices, also after the bluetooth-enabling-dialog; onResume follows every onCreate
 		addPairedDevices();
 		super.onResume();
 	}
 	
+	@Override
+	protected void onDestroy() {
+		discovery.removeListener(mDiscoveryListener);
+		unregisterReceiver(mReceiver);
+		super.onDestroy();
+	}
+	
 	private void ensureBluetoothIsEnabled(){
 		//if Bluetooth is not enabled, enable it now
 		if (!mBtAdapter.isEnabled()) {    		
@@ -94,30 +107,64 @@ public class BluetoothActivity extends Activity {
 	}
 	
 	private void addPairedDevices(){
-		// ensure devices wont be added twice
-		mPairedDevicesArrayAdapter.clear();
-		Set<BluetoothDevice> pairedDevices = mBtAdapter.getBondedDevices();
 		//bluetooth has to be enabled
 		if(mBtAdapter.isEnabled()){
-			//there are no paired devices ...
-			if(pairedDevices.size() == 0){
-	    		//inform user to pair devices manually
-	    		Toast.makeText(this, "No paired devices detected. Please pair devices!", Toast.LENGTH_SHORT).show();
-	    		returnToPriviousActivityWithoutDevice();
-	    	} 
-			//there are paired devices ...
-			else{
-				//inform user
-	    		Toast.makeText(this, "Paired devices detected.", Toast.LENGTH_SHORT).show();
-	    		findViewById(R.id.paired_devices).setVisibility(View.VISIBLE);    		
-	    	    // Loop through paired devices
-	    	    for (BluetoothDevice device : pairedDevices) {
-	    	        // Add the name and address to an array adapter to show in a ListView	    	    	
-	    	        mPairedDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
-	    	    }
-	    	}
+			pairedDevicesReported = false;
+			//asynchronous, the listener updates the list once the adapter has been read
+			discovery.refreshIfStale();
+			updateDevices();
 		}
 	}
+	
+	/**
+	 * Shows the cached paired devices and tells the user about them once the list is filled, or returns if there are
+	 * none. Waits for the next update while the cache is empty and the adapter has not been read yet.
+	 */
+	private void updateDevices(){
+		if(showDevices()){
+			//inform user to pair devices manually
+			Toast.makeText(this, "No paired devices detected. Please pair devices!", Toast.LENGTH_SHORT).show();
+			returnToPriviousActivityWithoutDevice();
+		}
+		//there are paired devices ...
+		else if(mPairedDevicesArrayAdapter.getCount() > 0){
+			//inform user, once per resume
+			if(!pairedDevicesReported){
+				pairedDevicesReported = true;
+				Toast.makeText(this, "Paired devices detected.", Toast.LENGTH_SHORT).show();
+			}
+			findViewById(R.id.paired_devices).setVisibility(View.VISIBLE);
+		}
+	}
+	
+	/**
+	 * Fills the list with the cached paired devices.
+	 * @return true if the paired devices have been read and there are none
+	 */
+	private boolean showDevices(){
+		// ensure devices wont be added twice
+		mPairedDevicesArrayAdapter.clear();
+		List<BluetoothDevice> pairedDevices = discovery.getDevices(true, false);
+		for (BluetoothDevice device : pairedDevices) {
+			// Add the name and address to an array adapter to show in a ListView
+			mPairedDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
+		}
+		return pairedDevices.isEmpty() && discovery.isBondedRefreshed();
+	}
+	
+	//updates the list when the cached devices change, called off the main thread
+	private final NXTDiscovery.Listener mDiscoveryListener = new NXTDiscovery.Listener() {
+		public void devicesChanged() {
+			runOnUiThread(new Runnable() {
+				public void run() {
+					if (isFinishing()) {
+						return;
+					}
+					updateDevices();
+				}
+			});
+		}
+	};
     
     public void onActivityResult(int requestCode, int resultCode, Intent data){
     	if(!mBtAdapter.isEnabled()){
@@ -169,13 +216,9 @@ public class BluetoothActivity extends Activity {
     }
 
 	 public void discoverDevices(){
-    	// If we're already discovering, stop it
-        if (mBtAdapter.isDiscovering()) {
-            mBtAdapter.cancelDiscovery();
-        }
-        
         Toast.makeText(this, "Listining for paired devices.", Toast.LENGTH_LONG).show();
-    	mBtAdapter.startDiscovery();   
+        //restarts a running discovery, off the main thread
+    	discovery.startDiscovery();
     }
 		
 	//The BroadcastReceiver that listens for discovered devices 
@@ -188,10 +231,8 @@ public class BluetoothActivity extends Activity {
             if (BluetoothDevice.ACTION_FOUND.equals(action)) {
                 // Get the BluetoothDevice object from the Intent
                 BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                // If it's paired, add it to the list
-                if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
-                    mPairedDevicesArrayAdapter.add(device.getName() + "\n" + device.getAddress());
-                }
+                // the cache tells the listener if it is new, paired devices are added to the list then
+                discovery.deviceFound(device);
             }
             
         }
@@ -200,10 +241,7 @@ public class BluetoothActivity extends Activity {
 	@Override
 	protected void onPause() {
 		super.onPause();
-		if (enableBtIntent != null) {
-		    unregisterReceiver(mReceiver);
-		    enableBtIntent = null;
-		}
-		// unregisterReceiver(mReceiver);
+		// the receiver stays registered until onDestroy, it was registered in onCreate
+		enableBtIntent = null;
 	}
 }
@@ -9,9 +9,13 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.Menu;
 import android.view.View;
@@ -21,9 +25,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
 import de.amr.plt.rcParkingRobot.AndroidHmiPLT;
+import de.amr.plt.rcParkingRobot.ConnectionListener;
+import de.amr.plt.rcParkingRobot.ConnectionState;
+import de.amr.plt.rcParkingRobot.ConnectionTransition;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
 
 /**
  * The activity visualizes NXT data such as bluetooth connection, current status, x-,y-coordinate, angle and distance values. 
+ * The connection is kept by the {@link PositionService PositionService}, the activity only binds to it, so a rotated or 
+ * restarted activity shows the running session again.
  * @author PLT
  */
 
@@ -33,12 +43,33 @@ public class MainActivity extends Activity {
 	BluetoothAdapter mBtAdapter = null;
 	//representing the bluetooth hardware device
 	BluetoothDevice btDevice = null;
-	//instance handels bluetooth communication to NXT
-	
+	//service owning the bluetooth communication to NXT, null until bound
+	PositionService positionService = null;
+	//module of the session shown, owned by the service
 	AndroidHmiPLT hmiModule = null;	
+	//updates the displayed data, null while not displaying
+	Timer displayTimer = null;
 	//request code 
 	final int REQUEST_SETUP_BT_CONNECTION = 1;		
 	
+	//shows the session of the service once bound
+	private final ServiceConnection serviceConnection = new ServiceConnection() {
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			positionService = ((PositionService.LocalBinder) binder).getService();
+			AndroidHmiPLT hmi = positionService.getHmiModule();
+			if (hmi != null) {
+				//running session, e.g. after rotating the screen
+				attach(hmi);
+				if (hmi.isConnected()) {
+					onConnected();
+				}
+			}
+		}
+		
+		public void onServiceDisconnected(ComponentName name) {
+			positionService = null;
+		}
+	};
 					
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -84,6 +115,8 @@ public class MainActivity extends Activity {
         	}
         });
         
+        //the service is created if there is no session, a session keeps it running after unbinding
+        bindService(new Intent(this, PositionService.class), serviceConnection, Context.BIND_AUTO_CREATE);
     }
 
 	@Override
@@ -98,6 +131,10 @@ public class MainActivity extends Activity {
     	if(mBtAdapter != null){
     		//release resources  
     		mBtAdapter.cancelDiscovery();
+    		//the session goes on in the service
+    		detach();
+    		unbindService(serviceConnection);
+    		positionService = null;
     	}
     	
 	}
@@ -110,7 +147,7 @@ public class MainActivity extends Activity {
 	public void onBackPressed() {
 		super.onBackPressed();
 		
-	    if (hmiModule != null && hmiModule.connected) {
+	    if (hmiModule != null && hmiModule.isConnected()) {
 	    	//creating new AlertDialog
 	    	AlertDialog.Builder builder = new AlertDialog.Builder(this);
 			builder.setMessage("Are you sure you want to terminate the connection?")
@@ -144,29 +181,89 @@ public class MainActivity extends Activity {
 			break;
 		//user chose device
 		case Activity.RESULT_OK:
-			//connect to chosen NXT
-			establishBluetoothConnection(data);							
-			//display received data from NXT
-			if(hmiModule.connected){			
-				//After establishing the connection make sure the start mode of the NXT is set to PAUSE
-//				hmiModule.setMode(Mode.PAUSE);
-				
-				//enable toggle button
-				final ToggleButton toggleMode = (ToggleButton) findViewById(R.id.toggleMode);
-				toggleMode.setEnabled(true);
-				
-				//disable connect button
-				final Button connectButton = (Button) findViewById(R.id.buttonSetupBluetooth);
-				connectButton.setEnabled(false);
-				
-				displayDataNXT();
-				break;
-			} else{
-				Toast.makeText(this, "Bluetooth connection failed!", Toast.LENGTH_SHORT).show();
-				Toast.makeText(this, "Is the selected NXT really present & switched on?", Toast.LENGTH_LONG).show();
-				break;
+			//connect to chosen NXT, the connection listener goes on once connected
+			establishBluetoothConnection(data);
+			break;
+		}
+	}
+	
+	//follows the connection state instead of polling it
+	private final ConnectionListener connectionListener = new ConnectionListener() {
+		public void onConnectionChanged(ConnectionTransition transition) {
+			if (hmiModule == null) {
+				return;
+			}
+			if (transition.getFrom() == ConnectionState.CONNECTING && transition.getTo() == ConnectionState.CONNECTED) {
+				onConnected();
+			} else if (transition.getFrom() == ConnectionState.CONNECTING && transition.getTo() == ConnectionState.DISCONNECTED) {
+				//the service has ended the session
+				detach();
+				Toast.makeText(MainActivity.this, "Bluetooth connection failed!", Toast.LENGTH_SHORT).show();
+				Toast.makeText(MainActivity.this, "Is the selected NXT really present & switched on?", Toast.LENGTH_LONG).show();
+			} else if (transition.getTo() == ConnectionState.DISCONNECTED) {
+				if (transition.getFrom() == ConnectionState.CLOSING) {
+					//ended by the service, e.g. as the robot exited
+					Toast.makeText(MainActivity.this, "Bluetooth connection was terminated!", Toast.LENGTH_LONG).show();
+				} else {
+					//lost and not reconnected
+					Toast.makeText(MainActivity.this, "Bluetooth connection lost!", Toast.LENGTH_SHORT).show();
+				}
+				detach();
+				restartActivity();
 			}
 		}
+	};
+	
+	/**
+	 * Shows the given module of the service and follows its connection state
+	 * @param hmi module of the session
+	 */
+	private void attach(AndroidHmiPLT hmi){
+		hmiModule = hmi;
+		hmiModule.addConnectionListener(connectionListener);
+	}
+	
+	/**
+	 * Stops showing the module, the session itself is left to the service
+	 */
+	private void detach(){
+		if(displayTimer != null){
+			displayTimer.cancel();
+			displayTimer = null;
+		}
+		if(hmiModule != null){
+			hmiModule.removeConnectionListener(connectionListener);
+			hmiModule.removeTelemetryListener((TrajectoryView) findViewById(R.id.trajectoryView));
+			hmiModule = null;
+		}
+	}
+	
+	/**
+	 * display received data from NXT once connected
+	 */
+	private void onConnected(){
+		//After establishing the connection make sure the start mode of the NXT is set to PAUSE
+//		hmiModule.setMode(Mode.PAUSE);
+		
+		//enable toggle button
+		final ToggleButton toggleMode = (ToggleButton) findViewById(R.id.toggleMode);
+		toggleMode.setEnabled(true);
+		
+		//disable connect button
+		final Button connectButton = (Button) findViewById(R.id.buttonSetupBluetooth);
+		connectButton.setEnabled(false);
+		
+		//the service maps the distance sensor readings
+		final OccupancyGridView gridView = (OccupancyGridView) findViewById(R.id.occupancyGridView);
+		gridView.setGrid(hmiModule.getOccupancyGrid());
+		
+		//draw the driven path and the parking slots
+		final TrajectoryView trajectoryView = (TrajectoryView) findViewById(R.id.trajectoryView);
+		trajectoryView.clear();
+		hmiModule.addTelemetryListener(trajectoryView);
+		
+		//the service ends the session as soon as the robot exits, the connection listener restarts the activity then
+		displayDataNXT();
 	}
 	
 	/**
@@ -182,17 +279,12 @@ public class MainActivity extends Activity {
 		String btDeviceAddress = btDevice.getAddress();		
 		String btDeviceName = btDevice.getName();
 		
-		//instantiate client modul
-		hmiModule = new AndroidHmiPLT(btDeviceName, btDeviceAddress);
-		
-		//connect to the specified device
-		hmiModule.connect();
-		
-		//wait till connection really is established and 
-		int i = 0;
-		while (!hmiModule.isConnected()&& i<100000000/2) {
-			i++;
+		if(positionService == null){
+			Toast.makeText(this, "Service not ready, please try again!", Toast.LENGTH_SHORT).show();
+			return;
 		}
+		//connect to the specified device in the service, returns at once
+		attach(positionService.connect(btDeviceName, btDeviceAddress));
 	}
 	
 	/**
@@ -200,50 +292,56 @@ public class MainActivity extends Activity {
      */
 	private void displayDataNXT(){
 		
-		new Timer().schedule(new TimerTask() {
+		if(displayTimer != null){
+			displayTimer.cancel();
+		}
+		displayTimer = new Timer();
+		displayTimer.schedule(new TimerTask() {
 			
 			@Override
             public void run() {
 				
                 runOnUiThread(new Runnable() {
                     public void run() {
-                    	if(hmiModule != null){
+                    	PositionService.Snapshot snapshot = positionService == null ? null : positionService.getSnapshot();
+                    	if(hmiModule != null && snapshot != null){
+                    		//position extrapolated between updates from the robot
+                    		Position position = snapshot.getPosition();
                     		//display x value
                         	final TextView fld_xPos = (TextView) findViewById(R.id.textViewValueX);
-                    		fld_xPos.setText(String.valueOf(hmiModule.getPosition().getX()+" cm"));
+                    		fld_xPos.setText(String.valueOf(position.getX()+" cm"));
                     		//display y value
                     		final TextView fld_yPos = (TextView) findViewById(R.id.textViewValueY);
-                    		fld_yPos.setText(String.valueOf(hmiModule.getPosition().getY()+" cm"));
+                    		fld_yPos.setText(String.valueOf(position.getY()+" cm"));
                     		//display angle value
                     		final TextView fld_angle = (TextView) findViewById(R.id.TextViewValueAngle); 
-                    		fld_angle.setText(String.valueOf(hmiModule.getPosition().getAngle()+"°"));
+                    		fld_angle.setText(String.valueOf(position.getAngle()+"°"));
                     		//display status of NXT
                     		final TextView fld_status = (TextView) findViewById(R.id.textViewValueStatus);
-                    		fld_status.setText(String.valueOf(hmiModule.getCurrentStatus()));
+                    		fld_status.setText(String.valueOf(snapshot.getStatus()));
                     		//display distance front
                     		final TextView fld_distance_front = (TextView) findViewById(R.id.textViewValueDistanceFront);
-                    		fld_distance_front.setText(String.valueOf(hmiModule.getPosition().getDistanceFront())+" mm");
+                    		fld_distance_front.setText(String.valueOf(position.getDistanceFront())+" mm");
                     		//display distance back
                     		final TextView fld_distance_back = (TextView) findViewById(R.id.textViewValueDistanceBack);
-                    		fld_distance_back.setText(String.valueOf(hmiModule.getPosition().getDistanceBack())+" mm");
+                    		fld_distance_back.setText(String.valueOf(position.getDistanceBack())+" mm");
                     		//display distance right	
                     		final TextView fld_distance_front_side = (TextView) findViewById(R.id.textViewValueDistanceFrontSide);
-                    		fld_distance_front_side.setText(String.valueOf(hmiModule.getPosition().getDistanceFrontSide())+" mm");
+                    		fld_distance_front_side.setText(String.valueOf(position.getDistanceFrontSide())+" mm");
                     		//display distance left
                     		final TextView fld_distance_back_side = (TextView) findViewById(R.id.textViewValueDistanceBackSide);
-                    		fld_distance_back_side.setText(String.valueOf(hmiModule.getPosition().getDistanceBackSide())+" mm");
+                    		fld_distance_back_side.setText(String.valueOf(position.getDistanceBackSide())+" mm");
+                    		hmiModule.positionRendered();
                     		//display bluetooth connection status
                     		final TextView fld_bluetooth = (TextView) findViewById(R.id.textViewValueBluetooth);
                     		//display connection status
-                    		if(hmiModule.isConnected()){
+                    		ConnectionState state = snapshot.getConnectionState();
+                    		if(state == ConnectionState.CONNECTED){
                     			fld_bluetooth.setText("connected");
-                    		} else {
+                    		} else if(state == ConnectionState.DISCONNECTED){
                     			fld_bluetooth.setText("not connected");
-                    		}
-                    		//restart activity when disconnecting
-                    		if(hmiModule.getCurrentStatus()==CurrentStatus.EXIT){
-                    			terminateBluetoothConnection();
-                    			restartActivity();
+                    		} else {
+                    			fld_bluetooth.setText(state.toString().toLowerCase());
                     		}
                     	}
                     }
@@ -258,13 +356,11 @@ public class MainActivity extends Activity {
 	 */
 	private void terminateBluetoothConnection(){
 		Toast.makeText(this, "Bluetooth connection was terminated!", Toast.LENGTH_LONG).show();
-		hmiModule.setMode(Mode.DISCONNECT);
-		hmiModule.disconnect();
-		
-		while(hmiModule.isConnected()){
-			//wait until disconnected
+		detach();
+		//the service tells the NXT, disconnects and stops running in the foreground
+		if(positionService != null){
+			positionService.disconnect();
 		}
-		hmiModule = null;
 	}
 	
 	/**
@@ -0,0 +1,91 @@
+package de.amr.plt.rcTestapp;
+
+import java.util.Arrays;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+import de.amr.plt.rcParkingRobot.map.OccupancyGrid;
+
+/**
+ * The view shows an {@link OccupancyGrid OccupancyGrid}: free cells white, occupied cells black, unknown cells gray.
+ * The grid is kept in a bitmap of one pixel per cell, of which only the cells changed since the last frame are
+ * repainted, and the bitmap is scaled to the view.
+ * @author PLT
+ */
+public class OccupancyGridView extends View {
+
+	//refresh period in ms while a grid is shown
+	private static final long REFRESH_MILLIS = 100;
+
+	//colors by log-odds + 128, from free (white) over unknown (gray) to occupied (black)
+	private static final int[] PALETTE = new int[256];
+	static {
+		for (int i = 0; i < PALETTE.length; i++) {
+			double p = 1 - 1 / (1 + Math.exp((i - 128) / 16.0));
+			int level = (int) Math.round(255 * (1 - p));
+			PALETTE[i] = Color.rgb(level, level, level);
+		}
+	}
+
+	private OccupancyGrid grid;
+	private Bitmap bitmap;
+	private int[] pixels;
+	private final int[] dirty = new int[4];
+	private final Rect source = new Rect();
+	private final Rect target = new Rect();
+
+	public OccupancyGridView(Context context) {
+		super(context);
+	}
+
+	public OccupancyGridView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+	}
+
+	/**
+	 * Shows the given grid.
+	 * @param grid grid to show, null to show nothing
+	 */
+	public void setGrid(OccupancyGrid grid) {
+		this.grid = grid;
+		if (bitmap != null) {
+			bitmap.recycle();
+			bitmap = null;
+		}
+		if (grid != null) {
+			bitmap = Bitmap.createBitmap(grid.getWidth(), grid.getHeight(), Bitmap.Config.ARGB_8888);
+			pixels = new int[grid.getWidth() * grid.getHeight()];
+			Arrays.fill(pixels, PALETTE[128]);
+			bitmap.setPixels(pixels, 0, grid.getWidth(), 0, 0, grid.getWidth(), grid.getHeight());
+		}
+		invalidate();
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (grid == null) {
+			return;
+		}
+		int width = grid.getWidth();
+		//copy only the changed cells into the bitmap
+		if (grid.renderDirty(pixels, PALETTE, dirty)) {
+			bitmap.setPixels(pixels, dirty[1] * width + dirty[0], width, dirty[0], dirty[1],
+					dirty[2] - dirty[0], dirty[3] - dirty[1]);
+		}
+		//scale to the view, keeping the aspect ratio
+		float scale = Math.min((float) getWidth() / width, (float) getHeight() / grid.getHeight());
+		int w = (int) (width * scale), h = (int) (grid.getHeight() * scale);
+		int left = (getWidth() - w) / 2, top = (getHeight() - h) / 2;
+		source.set(0, 0, width, grid.getHeight());
+		target.set(left, top, left + w, top + h);
+		canvas.drawBitmap(bitmap, source, target, null);
+
+		postInvalidateDelayed(REFRESH_MILLIS);
+	}
+}
@@ -0,0 +1,331 @@
+package de.amr.plt.rcTestapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+
+import parkingRobot.INxtHmi.Mode;
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.IBinder;
+import android.util.Log;
+import de.amr.plt.rcParkingRobot.AndroidHmiPLT;
+import de.amr.plt.rcParkingRobot.ConnectionListener;
+import de.amr.plt.rcParkingRobot.ConnectionState;
+import de.amr.plt.rcParkingRobot.ConnectionTransition;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.StatusListener;
+import de.amr.plt.rcParkingRobot.StatusTransition;
+import de.amr.plt.rcParkingRobot.gateway.CommandIngress;
+import de.amr.plt.rcParkingRobot.gateway.TelemetryGateway;
+
+/**
+ * Owns the connection to the NXT, so that it outlives the activities showing it. Activities bind to the service, start
+ * a session with {@link #connect(String, String) connect()} and read {@link Snapshot snapshots} of the current values;
+ * rotating the screen or restarting an activity only rebinds. While connected the service runs in the foreground, so
+ * Android does not stop it while no activity is visible. The session ends with {@link #disconnect() disconnect()} or
+ * when the robot exits.
+ * @author PLT
+ */
+public class PositionService extends Service {
+
+	/**
+	 * Binder returned to activities in the same process.
+	 */
+	public class LocalBinder extends Binder {
+		public PositionService getService() {
+			return PositionService.this;
+		}
+	}
+
+	/**
+	 * Values shown by the activities, read together. This class is read-only.
+	 */
+	public static class Snapshot {
+		private final Position position;
+		private final CurrentStatus status;
+		private final ConnectionState connectionState;
+		private final int parkingSlots;
+
+		Snapshot(Position position, CurrentStatus status, ConnectionState connectionState, int parkingSlots) {
+			this.position = position;
+			this.status = status;
+			this.connectionState = connectionState;
+			this.parkingSlots = parkingSlots;
+		}
+
+		/**
+		 * @return position extrapolated to the time of the snapshot
+		 */
+		public Position getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return latest status of the robot
+		 */
+		public CurrentStatus getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return state of the connection
+		 */
+		public ConnectionState getConnectionState() {
+			return connectionState;
+		}
+
+		/**
+		 * @return number of parking slots found so far
+		 */
+		public int getParkingSlots() {
+			return parkingSlots;
+		}
+	}
+
+	private static final String TAG_SERVICE = "PositionService";
+	private static final int NOTIFICATION_ID = 1;
+	/**
+	 * Name of the file in the files directory the latest values are published into, see
+	 * {@link AndroidHmiPLT#startExport(File)}.
+	 */
+	public static final String SNAPSHOT_FILE = "telemetry.snapshot";
+	/**
+	 * TCP port dashboards connect to for the live telemetry, see {@link TelemetryGateway TelemetryGateway}.
+	 */
+	public static final int GATEWAY_PORT = 5000;
+	/**
+	 * Boolean extra of an intent starting the service, turns the {@link TelemetryGateway TelemetryGateway} on or off
+	 * for the sessions started from then on. Off by default, e.g. turned on by
+	 * {@code adb shell am startservice -n de.amr.plt.rcTestapp/.PositionService --ez de.amr.plt.rcTestapp.GATEWAY true}.
+	 */
+	public static final String EXTRA_GATEWAY = "de.amr.plt.rcTestapp.GATEWAY";
+	/**
+	 * String extra of an intent starting the service, the address the {@link TelemetryGateway TelemetryGateway}
+	 * listens on, e.g. {@code 0.0.0.0} to serve dashboards on the local network. The loopback address by default,
+	 * reached through {@code adb forward tcp:5000 tcp:5000}.
+	 */
+	public static final String EXTRA_GATEWAY_ADDRESS = "de.amr.plt.rcTestapp.GATEWAY_ADDRESS";
+	/**
+	 * TCP port on the loopback address test rigs send commands to, e.g. through {@code adb forward tcp:5001 tcp:5001},
+	 * see {@link CommandIngress CommandIngress}.
+	 */
+	public static final int INGRESS_PORT = 5001;
+	/**
+	 * Boolean extra of an intent starting the service, turns the {@link CommandIngress CommandIngress} on or off for the
+	 * sessions started from then on. Off by default, e.g. turned on by
+	 * {@code adb shell am startservice -n de.amr.plt.rcTestapp/.PositionService --ez de.amr.plt.rcTestapp.INGRESS true}.
+	 */
+	public static final String EXTRA_INGRESS = "de.amr.plt.rcTestapp.INGRESS";
+
+	private final IBinder binder = new LocalBinder();
+	//the session, null if none
+	private AndroidHmiPLT hmiModule = null;
+	//streams the telemetry of the session to dashboards, null if none
+	private TelemetryGateway gateway = null;
+	//whether sessions start a gateway and the address it listens on, null for the loopback address
+	private boolean gatewayEnabled = false;
+	private String gatewayAddress = null;
+	//takes commands of test rigs for the session, null if none
+	private CommandIngress ingress = null;
+	//whether sessions start an ingress
+	private boolean ingressEnabled = false;
+
+	//starts mapping once connected, updates the notification and ends the session once disconnected
+	private final ConnectionListener connectionListener = new ConnectionListener() {
+		public void onConnectionChanged(ConnectionTransition transition) {
+			if (hmiModule == null) {
+				return;
+			}
+			if (transition.getFrom() == ConnectionState.CONNECTING && transition.getTo() == ConnectionState.CONNECTED) {
+				//map the distance sensor readings for the whole session
+				hmiModule.startMapping();
+			}
+			if (transition.getTo() == ConnectionState.DISCONNECTED) {
+				//failed or lost and not reconnected, nothing to keep running for
+				endSession();
+			} else {
+				showNotification(transition.getTo());
+			}
+		}
+	};
+
+	//ends the session as soon as the robot exits
+	private final StatusListener exitListener = new StatusListener() {
+		public void onTransition(StatusTransition transition) {
+			if (transition.getTo() == CurrentStatus.EXIT) {
+				disconnect();
+			}
+		}
+	};
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return binder;
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		//only intents carrying the extras change the settings, connect() starts the service without
+		if (intent != null) {
+			if (intent.hasExtra(EXTRA_GATEWAY)) {
+				gatewayEnabled = intent.getBooleanExtra(EXTRA_GATEWAY, false);
+			}
+			if (intent.hasExtra(EXTRA_GATEWAY_ADDRESS)) {
+				gatewayAddress = intent.getStringExtra(EXTRA_GATEWAY_ADDRESS);
+			}
+			if (intent.hasExtra(EXTRA_INGRESS)) {
+				ingressEnabled = intent.getBooleanExtra(EXTRA_INGRESS, false);
+			}
+		}
+		//the session is not restored if Android kills the process
+		return START_NOT_STICKY;
+	}
+
+	@Override
+	public void onDestroy() {
+		disconnect();
+		super.onDestroy();
+	}
+
+	/**
+	 * Starts a session with the given NXT unless there is one. Returns at once, listen to the connection state of the
+	 * returned module to see whether connecting succeeds. Must be called on the main thread.
+	 * @param name name of the NXT
+	 * @param address Bluetooth address of the NXT
+	 * @return the module of the session
+	 */
+	public AndroidHmiPLT connect(String name, String address) {
+		if (hmiModule != null) {
+			return hmiModule;
+		}
+		hmiModule = new AndroidHmiPLT(name, address);
+		//open a lost connection again before giving up
+		hmiModule.setReconnect(true);
+		hmiModule.addConnectionListener(connectionListener);
+		hmiModule.getStatusTracker().addStatusListener(exitListener);
+		//keeps the service alive when the activities unbind
+		startService(new Intent(this, PositionService.class));
+		showNotification(ConnectionState.CONNECTING);
+		hmiModule.connect();
+		//log communication metrics every 10 s
+		hmiModule.getMetrics().startPeriodicDump(10000);
+		//publish the latest values to the logger and planner processes
+		try {
+			hmiModule.startExport(new File(getFilesDir(), SNAPSHOT_FILE));
+		} catch (IOException e) {
+			Log.e(TAG_SERVICE, "Snapshot export failed: "+e.getMessage());
+		}
+		//stream to dashboards if asked to
+		if (gatewayEnabled) {
+			try {
+				gateway = new TelemetryGateway(GATEWAY_PORT, InetAddress.getByName(gatewayAddress), 256);
+				gateway.start();
+				hmiModule.addTelemetryListener(gateway);
+			} catch (IOException e) {
+				Log.e(TAG_SERVICE, "Telemetry gateway failed: "+e.getMessage());
+				gateway = null;
+			}
+		}
+		//let test rigs on this device or behind adb drive the robot if asked to
+		if (ingressEnabled) {
+			try {
+				ingress = new CommandIngress(hmiModule, INGRESS_PORT, InetAddress.getByName(null), 16);
+				ingress.start();
+			} catch (IOException e) {
+				Log.e(TAG_SERVICE, "Command ingress failed: "+e.getMessage());
+				ingress = null;
+			}
+		}
+		return hmiModule;
+	}
+
+	/**
+	 * @return the module of the current session, null if none
+	 */
+	public AndroidHmiPLT getHmiModule() {
+		return hmiModule;
+	}
+
+	/**
+	 * @return the current values, null if there is no session
+	 */
+	public Snapshot getSnapshot() {
+		AndroidHmiPLT hmi = hmiModule;
+		if (hmi == null) {
+			return null;
+		}
+		return new Snapshot(hmi.getEstimatedPosition(), hmi.getCurrentStatus(), hmi.getConnectionState(),
+				hmi.getNoOfParkingSlots());
+	}
+
+	/**
+	 * Ends the session, telling the robot to disconnect if it is still connected. Must be called on the main thread,
+	 * returns at once.
+	 */
+	public void disconnect() {
+		if (hmiModule == null) {
+			return;
+		}
+		if (hmiModule.isConnected()) {
+			hmiModule.setMode(Mode.DISCONNECT);
+		}
+		endSession();
+	}
+
+	private void endSession() {
+		final AndroidHmiPLT hmi = hmiModule;
+		if (hmi == null) {
+			return;
+		}
+		hmiModule = null;
+		//returns at once, the threads of the connection end on the module's disconnect thread
+		hmi.disconnect();
+		hmi.removeConnectionListener(connectionListener);
+		hmi.getStatusTracker().removeStatusListener(exitListener);
+		hmi.getMetrics().stopPeriodicDump();
+		final CommandIngress oldIngress = ingress;
+		ingress = null;
+		final TelemetryGateway oldGateway = gateway;
+		gateway = null;
+		if (oldGateway != null) {
+			hmi.removeTelemetryListener(oldGateway);
+		}
+		//stopping waits for threads and the dump writes a file, neither on the main thread
+		Thread thread = new Thread("endSessionThread") {
+			@Override
+			public void run() {
+				if (oldIngress != null) {
+					oldIngress.stop();
+				}
+				hmi.stopExport();
+				if (oldGateway != null) {
+					oldGateway.stop();
+				}
+				hmi.stopMapping();
+				//keep the latency statistics of this session
+				try {
+					hmi.getLatencyTracer().dump(new File(getFilesDir(), "latency.txt"));
+				} catch (IOException e) {
+					Log.e(TAG_SERVICE, "Latency dump failed: "+e.getMessage());
+				}
+			}
+		};
+		thread.start();
+		stopForeground(true);
+		stopSelf();
+	}
+
+	@SuppressWarnings("deprecation")
+	private void showNotification(ConnectionState state) {
+		String text = "NXT "+state.toString().toLowerCase();
+		Notification notification = new Notification(R.drawable.ic_launcher, text, System.currentTimeMillis());
+		PendingIntent intent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+		notification.setLatestEventInfo(this, getString(R.string.app_name), text, intent);
+		startForeground(NOTIFICATION_ID, notification);
+	}
+}
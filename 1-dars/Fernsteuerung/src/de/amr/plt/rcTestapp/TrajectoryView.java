@@ -0,0 +1,223 @@
+package de.amr.plt.rcTestapp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import parkingRobot.hsamr0.GuidanceAT.CurrentStatus;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.ParkingSlot;
+import de.amr.plt.rcParkingRobot.IAndroidHmi.Position;
+import de.amr.plt.rcParkingRobot.ParkingSlotGeometry;
+import de.amr.plt.rcParkingRobot.TelemetryListener;
+import de.amr.plt.rcParkingRobot.map.PathSimplifier;
+
+/**
+ * The view draws the path driven by the robot together with the parking slots found so far. The path is simplified
+ * while driving by a {@link PathSimplifier PathSimplifier}; its settled part is drawn once into an off-screen bitmap,
+ * segment by segment as it grows, and only the open end of the path, the slots and the robot are drawn on every
+ * frame. The bitmap is redrawn from scratch only when the path leaves the shown area or is simplified again, both of
+ * which are bounded by the number of kept points.
+ * @author PLT
+ */
+public class TrajectoryView extends View implements TelemetryListener {
+
+	//largest deviation of the drawn path from the driven one in m
+	private static final float TOLERANCE = 0.005f;
+	//points kept before the path is simplified again
+	private static final int MAX_POINTS = 2000;
+	//size of the area shown before the robot moves, in m
+	private static final float INITIAL_SIZE = 2;
+
+	private final PathSimplifier path = new PathSimplifier(TOLERANCE, MAX_POINTS);
+	private final Map<Integer, ParkingSlot> slots = new LinkedHashMap<Integer, ParkingSlot>();
+	private float robotX, robotY;
+	private boolean hasPosition = false;
+
+	//shown area in m
+	private float minX, minY, maxX, maxY;
+	//pixels per m and offsets, from the area and the view size
+	private float scale, offsetX, offsetY;
+
+	//settled part of the path, drawn up to drawnPoints
+	private Bitmap bitmap;
+	private final Canvas bitmapCanvas = new Canvas();
+	private int drawnPoints = 0;
+	private boolean redraw = true;
+
+	private final Paint pathPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint slotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint robotPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	public TrajectoryView(Context context) {
+		super(context);
+		init();
+	}
+
+	public TrajectoryView(Context context, AttributeSet attrs) {
+		super(context, attrs);
+		init();
+	}
+
+	private void init() {
+		pathPaint.setColor(Color.BLUE);
+		pathPaint.setStrokeWidth(3);
+		slotPaint.setStrokeWidth(8);
+		robotPaint.setColor(Color.RED);
+	}
+
+	/**
+	 * Forgets the path and the parking slots.
+	 */
+	public void clear() {
+		path.clear();
+		slots.clear();
+		hasPosition = false;
+		redraw = true;
+		invalidate();
+	}
+
+	public void onPosition(Position position) {
+		//Position returns cm
+		robotX = position.getX() / 100;
+		robotY = position.getY() / 100;
+		if (!hasPosition) {
+			hasPosition = true;
+			minX = robotX - INITIAL_SIZE / 2;
+			maxX = robotX + INITIAL_SIZE / 2;
+			minY = robotY - INITIAL_SIZE / 2;
+			maxY = robotY + INITIAL_SIZE / 2;
+			redraw = true;
+		}
+		include(robotX, robotY);
+		if (path.add(robotX, robotY)) {
+			redraw = true;
+		}
+		invalidate();
+	}
+
+	public void onParkingSlot(ParkingSlot slot) {
+		ParkingSlot previous = slots.put(slot.getID(), slot);
+		if (slot.isSameAs(previous)) {
+			//nothing to draw differently
+			return;
+		}
+		ParkingSlotGeometry geometry = slot.getGeometry();
+		if (hasPosition && geometry != null) {
+			include(geometry.getBackX(), geometry.getBackY());
+			include(geometry.getFrontX(), geometry.getFrontY());
+		}
+		invalidate();
+	}
+
+	public void onStatus(CurrentStatus status) {
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+		if (bitmap != null) {
+			bitmap.recycle();
+			bitmap = null;
+		}
+		redraw = true;
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas) {
+		super.onDraw(canvas);
+		if (!hasPosition || getWidth() == 0 || getHeight() == 0) {
+			return;
+		}
+		if (bitmap == null) {
+			bitmap = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+			bitmapCanvas.setBitmap(bitmap);
+		}
+		if (redraw) {
+			updateTransform();
+			bitmap.eraseColor(Color.TRANSPARENT);
+			drawnPoints = 0;
+			redraw = false;
+		}
+		//append the segments settled since the last frame
+		int points = path.getPointCount();
+		for (int i = Math.max(drawnPoints, 1); i < points; i++) {
+			bitmapCanvas.drawLine(screenX(path.getX(i - 1)), screenY(path.getY(i - 1)),
+					screenX(path.getX(i)), screenY(path.getY(i)), pathPaint);
+		}
+		drawnPoints = points;
+		canvas.drawBitmap(bitmap, 0, 0, null);
+
+		//open end of the path up to the robot
+		float x = path.getX(points - 1), y = path.getY(points - 1);
+		for (int i = 0; i < path.getOpenCount(); i++) {
+			canvas.drawLine(screenX(x), screenY(y), screenX(path.getOpenX(i)), screenY(path.getOpenY(i)), pathPaint);
+			x = path.getOpenX(i);
+			y = path.getOpenY(i);
+		}
+		canvas.drawLine(screenX(x), screenY(y), screenX(robotX), screenY(robotY), pathPaint);
+
+		for (ParkingSlot slot : slots.values()) {
+			ParkingSlotGeometry geometry = slot.getGeometry();
+			if (geometry == null) {
+				continue;
+			}
+			switch (slot.getParkingSlotStatus()) {
+			case GOOD:
+				slotPaint.setColor(Color.GREEN);
+				break;
+			case BAD:
+				slotPaint.setColor(Color.RED);
+				break;
+			default:
+				slotPaint.setColor(Color.YELLOW);
+				break;
+			}
+			canvas.drawLine(screenX(geometry.getBackX()), screenY(geometry.getBackY()),
+					screenX(geometry.getFrontX()), screenY(geometry.getFrontY()), slotPaint);
+		}
+
+		canvas.drawCircle(screenX(robotX), screenY(robotY), 8, robotPaint);
+	}
+
+	/**
+	 * Grows the shown area by half its size if the point lies outside, which redraws the bitmap.
+	 */
+	private void include(float x, float y) {
+		if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+			return;
+		}
+		float growX = (maxX - minX) / 2, growY = (maxY - minY) / 2;
+		if (x < minX) {
+			minX = x - growX;
+		} else if (x > maxX) {
+			maxX = x + growX;
+		}
+		if (y < minY) {
+			minY = y - growY;
+		} else if (y > maxY) {
+			maxY = y + growY;
+		}
+		redraw = true;
+	}
+
+	private void updateTransform() {
+		scale = Math.min(getWidth() / (maxX - minX), getHeight() / (maxY - minY));
+		offsetX = (getWidth() - (maxX - minX) * scale) / 2;
+		offsetY = (getHeight() - (maxY - minY) * scale) / 2;
+	}
+
+	private float screenX(float x) {
+		return offsetX + (x - minX) * scale;
+	}
+
+	private float screenY(float y) {
+		//screen Y grows downwards
+		return getHeight() - offsetY - (y - minY) * scale;
+	}
+}
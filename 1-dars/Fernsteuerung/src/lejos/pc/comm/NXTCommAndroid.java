@@ -2,28 +2,54 @@ package lejos.pc.comm;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.Enumeration;
-import java.util.Set;
 import java.util.UUID;
-import java.util.Vector;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.util.Log;
-
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Gauge;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.LatencyTracer;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Android implementation of {@link NXTComm NXTComm} over a Bluetooth RFCOMM socket.
+ * <p>
+ * Threads and ownership: the connect thread owns the socket until it is connected, then hands it to a read and a write
+ * thread started together with a fresh pair of queues. The read thread is the only producer of the read queue, the
+ * write thread the only consumer of the write queue. Threads, socket and queues of a connection are swapped under
+ * {@code ioLock} and published through volatile fields, so {@link #read()} and {@link #write(byte[])} never lock. If
+ * {@link #open(NXTInfo, int)} is interrupted or fails while connecting, it closes the socket of the connect thread and
+ * stops the read and write threads already started; a connect succeeding after that closes its socket itself.
+ * {@link #close()} first lets the write thread send the SAFETY and CONTROL packets still queued, waiting up to half a
+ * second, so that a stop written right before closing reaches the robot; from then on {@link #write(byte[])} fails.
+ * It then closes the socket, which unblocks the read thread, interrupts the write thread and joins both, and wakes a
+ * pending {@link #read()} with an empty packet, the end of stream for {@link NXTCommInputStream}. The read thread ends
+ * the same way when the robot closes the connection.
+ * <p>
+ * The write queue is split into {@link WriteLanes lanes}: a {@link #setPacketClassifier(PacketClassifier) classifier}
+ * sorts each packet into SAFETY, CONTROL or BULK, and the write thread always sends the most urgent packet next, so a
+ * stop command does not wait behind other traffic.
+ */
 public class NXTCommAndroid implements NXTComm {
 
 	private class ConnectThread extends Thread {
-		private BluetoothSocket mmSocket;
+		private final BluetoothSocket mmSocket;
 		private final BluetoothDevice mmDevice;
-		private SynchronousQueue<Boolean> connectQueue;
+		private final boolean lcp;
+		private final BlockingQueue<Boolean> connectQueue;
 
-		public ConnectThread(BluetoothDevice device, SynchronousQueue<Boolean> connectQueue) {
+		public ConnectThread(BluetoothDevice device, boolean lcp, BlockingQueue<Boolean> connectQueue) {
+			super("NCA ConnectThread");
+			setDaemon(true);
 			mmDevice = device;
+			this.lcp = lcp;
 			BluetoothSocket tmp = null;
 			this.connectQueue = connectQueue;
 			try {
@@ -35,45 +61,34 @@ public class NXTCommAndroid implements NXTComm {
 		}
 
 		public void cancel() {
-			try {
-				mmSocket.close();
-			} catch (IOException e) {
-				Log.e(TAG, "close() of connect socket failed", e);
-			} finally {
-				mmSocket = null; 
-			}
+			closeSocket(mmSocket);
 		}
 
 		private void relayConnectionSuccess() {
-			try {// notify calling thread that connection succeeded
-				connectQueue.put(new Boolean(true));
-			} catch (InterruptedException e) {
-
-			}
+			connects.increment();
 			Log.d(TAG, "Connection success -- is connected to " + mmDevice.getName());
-			yield(); // allow main NXTCommAndroid thread to read connected
-			
+			relay(Boolean.TRUE);
 		}
 
 		private void relyConnectionFailure(IOException e) {
-			try {
-				// notify calling thread that connection failed
-				connectQueue.put(new Boolean(false));
-				Log.e(TAG, "Connection failure -- unable to connect to socket ", e);
-			} catch (InterruptedException e1) {
-
-			}
+			connectFailures.increment();
+			Log.e(TAG, "Connection failure -- unable to connect to socket ", e);
+			cancel();
+			relay(Boolean.FALSE);
+		}
 
-			if (mmSocket != null) {
-				cancel();
-			}
+		// notify calling thread about the connection status, never blocks, open() may have given up waiting
+		private void relay(Boolean status) {
+			connectQueue.offer(status);
 		}
 
 		@Override
 		public void run() {
-
-			setName("NCA ConnectThread");
 			Log.i(TAG, "BEGIN mConnectThread");
+			if (mmSocket == null) {
+				relyConnectionFailure(new IOException("no socket"));
+				return;
+			}
 			// Make a connection to the BluetoothSocket
 			// This is a blocking call and will only return on a
 			// successful connection or an exception
@@ -84,225 +99,281 @@ public class NXTCommAndroid implements NXTComm {
 				return;
 			}
 
+			synchronized (ioLock) {
+				if (mConnectThread != this) {
+					// open() gave up meanwhile, nobody would use or close the connection
+					Log.w(TAG, "Connected after open() gave up, closing");
+					cancel();
+					return;
+				}
+				mConnectThread = null;
+				// the queues exist before open() returns, so the caller can write at once
+				startIOThreads(mmSocket, mmDevice, lcp);
+			}
 			relayConnectionSuccess();
-			startIOThreads(mmSocket, mmDevice);
 		}
 
 	}
 
 	private class ReadThread extends Thread {
-		public InputStream is;
-		boolean running = true;
-		LinkedBlockingQueue<byte[]> mReadQueue;
-
-		public ReadThread(BluetoothSocket socket, LinkedBlockingQueue<byte[]> mReadQueue) {
-			try {
-				is = socket.getInputStream();
-				//Log.d(TAG, "socket is connected to: " + socket.getRemoteDevice().getName());
-				this.mReadQueue = mReadQueue;
-			} catch (IOException e) {
-				Log.e(TAG, "ReadThread is error ", e);
-			}
+		private final InputStream is;
+		private final boolean lcp;
+		private volatile boolean running = true;
+		private final ReadQueue mReadQueue;
+
+		public ReadThread(InputStream is, boolean lcp, ReadQueue mReadQueue) {
+			super("NCA read thread");
+			this.is = is;
+			this.lcp = lcp;
+			this.mReadQueue = mReadQueue;
 		}
 
+		/**
+		 * Stops reading. The thread leaves a blocking read only when the socket is closed.
+		 */
 		public void cancel() {
 			running = false;
-			mReadQueue.clear();
 		}
 
-		private byte[] read() {
-			int lsb = -1;
-			try {
-				lsb = is.read();
-			} catch (Exception e) {
-				Log.e(TAG, "read err lsb", e);
-			}
-
-			if (lsb < 0) {
-				return null;
-			}
-			int msb = 0;
-
+		private byte[] readLCP() {
 			try {
-				msb = is.read();
-
-			} catch (IOException e1) {
-				Log.e(TAG, "ReadThread read error msb", e1);
-			}
-
-			if (msb < 0) {
-				return null;
-			}
-			int len = lsb | (msb << 8);
-			byte[] bb = new byte[len];
-			for (int i = 0; i < len; i++) {
-
-				try {
-					bb[i] = (byte) is.read();
-				} catch (IOException e) {
-					Log.e(TAG, "ReadThread read error data", e);
+				int length = is.read(); // First byte specifies length of packet.
+				if (length < 0) {
+					return null;
 				}
+				return NXTFraming.readLCP(is, length);
+			} catch (IOException e) {
+				if (running) {
+					Log.e(TAG, "readLCP error:", e);
+				}
+				return null;
 			}
-
-			return bb;
 		}
 
-		private byte[] readLCP() {
-
-			byte[] reply = null;
-			int length = -1;
-
+		private byte[] readPacket() {
 			try {
-				do {
-					Thread.yield();
-					length = is.read(); // First byte specifies length of
-					// packet.
-				} while (running && length < 0);
-
-				int lengthMSB = is.read(); // Most Significant Byte value
-				length = (0xFF & length) | ((0xFF & lengthMSB) << 8);
-				reply = new byte[length];
-				is.read(reply);
+				return NXTFraming.read(is);
 			} catch (IOException e) {
-				Log.e(TAG, "readLCP error:", e);
+				if (running) {
+					Log.e(TAG, "ReadThread read error", e);
+				}
+				return null;
 			}
-
-			return (reply == null) ? new byte[0] : reply;
 		}
 
 		@Override
 		public void run() {
-			setName("NCA read thread");
-			byte[] tmp_data;
 			while (running) {
-				Thread.yield();
-				tmp_data = null;
-
-				if (nxtInfo.connectionState == NXTConnectionState.LCP_CONNECTED) {
-					tmp_data = readLCP();
-				} else {
-					tmp_data = read();
-				}
-
-				if (tmp_data != null) {
-					try {
-						mReadQueue.put(tmp_data);
-					} catch (InterruptedException e) {
-						Log.e(TAG, "ReadThread queue error ", e);
-					}
+				byte[] tmp_data = lcp ? readLCP() : readPacket();
+				if (tmp_data == null) {
+					// end of stream or socket closed
+					break;
 				}
+				packetsIn.increment();
+				bytesIn.add(tmp_data.length + 2);
+				packetSizes.record(tmp_data.length);
+				LatencyTracer.getDefault().packetRead();
+				mReadQueue.offer(tmp_data);
 			}
+			running = false;
+			// wake the consumer, it sees the end of stream after the packets still queued
+			mReadQueue.close();
 		}
 
 	}
 
 	private class WriteThread extends Thread {
-		public OutputStream os;
-		private boolean running = true;
-		LinkedBlockingQueue<byte[]> mWriteQueueT;
-
-		public WriteThread(BluetoothSocket socket, LinkedBlockingQueue<byte[]> mWriteQueue) {
-			try {
-				os = socket.getOutputStream();
-				this.mWriteQueueT = mWriteQueue;
-			} catch (IOException e) {
-				Log.e(TAG, "WriteThread OutputStream error ", e);
-			}
+		private final OutputStream os;
+		private volatile boolean running = true;
+		private final WriteLanes mWriteQueueT;
+		// header and payload of the packet being written, grown to the largest packet
+		private byte[] buffer = new byte[64];
+
+		public WriteThread(OutputStream os, WriteLanes mWriteQueue) {
+			super("NCA - write thread");
+			this.os = os;
+			this.mWriteQueueT = mWriteQueue;
 		}
 
+		/**
+		 * Stops writing at once, packets still queued are dropped.
+		 */
 		public void cancel() {
 			running = false;
-			mReadQueue.clear();
+			interrupt();
+			mWriteQueueT.clear();
 		}
 
 		@Override
 		public void run() {
-			setName("NCA - write thread");
 			while (running) {
+				byte[] data;
 				try {
-					byte[] data;
 					data = mWriteQueueT.take();
-					write(data);
 				} catch (InterruptedException e) {
-					Log.e(TAG, "WriteThread write error ", e);
+					// cancelled
+					break;
+				}
+				if (data == null) {
+					// closed and drained
+					break;
+				}
+				if (!write(data)) {
+					break;
 				}
 			}
-
+			running = false;
 		}
 
-		void write(byte[] data) {
-			byte[] lsb_msb = new byte[2];
-			lsb_msb[0] = (byte) data.length;
-			lsb_msb[1] = (byte) ((data.length >> 8) & 0xff);
+		boolean write(byte[] data) {
+			if (buffer.length < data.length + 2) {
+				buffer = new byte[data.length + 2];
+			}
 			try {
-				os.write(concat(lsb_msb, data));
+				os.write(buffer, 0, NXTFraming.frame(data, buffer));
 				os.flush();
+				packetsOut.increment();
+				bytesOut.add(data.length + 2);
+				return true;
 			} catch (IOException e) {
-				Log.e(TAG, "WriteThread write error ", e);
+				if (running) {
+					Log.e(TAG, "WriteThread write error ", e);
+				}
+				return false;
 			}
 		}
 	}
 
-	private static Vector<BluetoothDevice> devices;
+	// how long close() waits for each thread to end
+	private static final long JOIN_MILLIS = 1000;
+	// how long close() waits for the queued SAFETY and CONTROL packets to be written
+	private static final long DRAIN_MILLIS = 500;
+
 	private BluetoothAdapter mBtAdapter;
 
-	private NXTInfo nxtInfo;
-	private static Vector<NXTInfo> nxtInfos;
+	private volatile NXTInfo nxtInfo;
 
 	private final String TAG = "NXTCommAndroid >>>>";
-	protected String mConnectedDeviceName;
+	protected volatile String mConnectedDeviceName;
 
+	// guards the threads, the socket and the swapping of the queues
+	private final Object ioLock = new Object();
 	private ConnectThread mConnectThread;
 	private ReadThread mReadThread;
 	private WriteThread mWriteThread;
+	private BluetoothSocket mSocket;
 
 	private static final UUID SERIAL_PORT_SERVICE_CLASS_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 
-	private LinkedBlockingQueue<byte[]> mReadQueue;
-	private LinkedBlockingQueue<byte[]> mWriteQueue;
-
-	private SynchronousQueue<Boolean> connectQueue;
+	private volatile ReadQueue mReadQueue;
+	private volatile WriteLanes mWriteQueue;
+	// sorts written packets into lanes, null for all BULK
+	private volatile PacketClassifier classifier;
+
+	// metrics, bytes include the two byte packet header
+	private final MetricsRegistry metrics = MetricsRegistry.getDefault();
+	private final Counter bytesIn = metrics.counter("nxt.bytes.in");
+	private final Counter bytesOut = metrics.counter("nxt.bytes.out");
+	private final Counter packetsIn = metrics.counter("nxt.packets.in");
+	private final Counter packetsOut = metrics.counter("nxt.packets.out");
+	private final Counter connects = metrics.counter("nxt.connects");
+	private final Counter connectFailures = metrics.counter("nxt.connect.failures");
+	private final Histogram packetSizes = metrics.histogram("nxt.packet.size", 0xffff);
 
 	public int available() throws IOException {
 		return 0;
 	}
 
 	private void cancelConnectThread() {
-		if (mConnectThread != null) {
-			mConnectThread.cancel();
+		ConnectThread thread;
+		synchronized (ioLock) {
+			thread = mConnectThread;
 			mConnectThread = null;
 		}
+		if (thread != null) {
+			thread.cancel();
+			join(thread);
+		}
 	}
 
+	/**
+	 * Stops the read and write threads of the current connection and waits for them to end, after the write thread had
+	 * a chance to send the urgent packets still queued. Must be called holding {@code ioLock}.
+	 */
 	private void cancelIOThreads() {
+		ReadThread reader = mReadThread;
+		WriteThread writer = mWriteThread;
+		ReadQueue readQueue = mReadQueue;
+		WriteLanes writeQueue = mWriteQueue;
+		mReadThread = null;
+		mWriteThread = null;
+		// later writes fail instead of going into a queue nobody takes from
+		mWriteQueue = null;
+		if (writeQueue != null) {
+			writeQueue.close();
+		}
+		if (writer != null && writer != Thread.currentThread()) {
+			try {
+				writer.join(DRAIN_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (reader != null) {
+			reader.cancel();
+		}
+		if (writer != null) {
+			writer.cancel();
+		}
+		// unblocks the read thread
+		closeSocket(mSocket);
+		mSocket = null;
+		join(reader);
+		join(writer);
+		if (readQueue != null) {
+			// wake a consumer still waiting on the old queue
+			readQueue.close();
+		}
+	}
 
-		if (mReadThread != null) {
-			mReadThread.cancel();
-			mReadThread = null;
+	private void join(Thread thread) {
+		if (thread == null || thread == Thread.currentThread()) {
+			return;
+		}
+		try {
+			thread.join(JOIN_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		if (mWriteThread != null) {
-			mWriteThread.cancel();
-			mWriteThread = null;
+		if (thread.isAlive()) {
+			Log.e(TAG, thread.getName() + " did not end");
+		}
+	}
+
+	private void closeSocket(BluetoothSocket socket) {
+		if (socket == null) {
+			return;
+		}
+		try {
+			socket.close();
+		} catch (IOException e) {
+			Log.e(TAG, "close() of socket failed", e);
 		}
 	}
 
 	public void close() throws IOException {
 		Log.d(TAG, "closing threads and socket");
-		cancelIOThreads();
 		cancelConnectThread();
+		synchronized (ioLock) {
+			cancelIOThreads();
+		}
+		NXTInfo nxt = nxtInfo;
+		if (nxt != null) {
+			nxt.connectionState = NXTConnectionState.DISCONNECTED;
+		}
 		mConnectedDeviceName = "";
 	}
 
-	private byte[] concat(byte[] data1, byte[] data2) {
-		int l1 = data1.length;
-		int l2 = data2.length;
-
-		byte[] data = new byte[l1 + l2];
-		System.arraycopy(data1, 0, data, 0, l1);
-		System.arraycopy(data2, 0, data, l1, l2);
-		return data;
-	}
-
 	public InputStream getInputStream() {
 		return new NXTCommInputStream(this);
 	}
@@ -318,94 +389,97 @@ public class NXTCommAndroid implements NXTComm {
 	public boolean open(NXTInfo nxt, int mode) throws NXTCommException {
 		if (mode == RAW)
 			throw new NXTCommException("RAW mode not implemented");
-		BluetoothDevice nxtDevice = null;
-		connectQueue = new SynchronousQueue<Boolean>();
+		// one status per connect thread, relayed without waiting for open() to take it
+		BlockingQueue<Boolean> connectQueue = new ArrayBlockingQueue<Boolean>(1);
 		if (mBtAdapter == null) {
 			mBtAdapter = BluetoothAdapter.getDefaultAdapter();
 		}
 
-		nxtDevice = mBtAdapter.getRemoteDevice(nxt.deviceAddress);
+		BluetoothDevice nxtDevice = mBtAdapter.getRemoteDevice(nxt.deviceAddress);
 
+		ConnectThread thread = null;
 		try {
+			// a connection still open or being opened is replaced
+			close();
+			thread = new ConnectThread(nxtDevice, mode == LCP, connectQueue);
+			synchronized (ioLock) {
+				mConnectThread = thread;
+			}
+			thread.start();
 
-			mConnectThread = new ConnectThread(nxtDevice, connectQueue);
-			mConnectThread.start();
-
-			Boolean socketEstablished = connectQueue.take();//blocking call to wait for connection status 
-			Thread.yield();
-
-			boolean socketConnected = socketEstablished.booleanValue();
+			boolean socketConnected = connectQueue.take().booleanValue();//blocking call to wait for connection status 
 			if (socketConnected) {
 				nxt.connectionState = (mode == LCP ? NXTConnectionState.LCP_CONNECTED : NXTConnectionState.PACKET_STREAM_CONNECTED);
+				mConnectedDeviceName = nxt.name;
 			} else {
 				nxt.connectionState = NXTConnectionState.DISCONNECTED;
 			}
 			nxtInfo = nxt;
 
 			return socketConnected;
+		} catch (InterruptedException e) {
+			abandonConnect(thread);
+			nxt.connectionState = NXTConnectionState.DISCONNECTED;
+			Thread.currentThread().interrupt();
+			throw new NXTCommException("open of " + nxt.name + " interrupted");
 		} catch (Exception e) {
 			Log.e(TAG, "ERROR in open: ", e);
+			abandonConnect(thread);
 			nxt.connectionState = NXTConnectionState.DISCONNECTED;
 			throw new NXTCommException("ERROR in open: " + nxt.name + " failed: " + e.getMessage());
 		}
 	}
 
+	/**
+	 * Gives up a connect whose status open() no longer waits for: closes its socket, which ends a connect in progress,
+	 * and stops the read and write threads if it had already started them. A connect succeeding later closes its
+	 * socket itself.
+	 * @param thread the connect thread, null if not created
+	 */
+	private void abandonConnect(ConnectThread thread) {
+		if (thread == null) {
+			return;
+		}
+		synchronized (ioLock) {
+			if (mConnectThread == thread) {
+				mConnectThread = null;
+			} else if (mSocket != null && mSocket == thread.mmSocket) {
+				cancelIOThreads();
+			}
+		}
+		thread.cancel();
+	}
+
 	/**
 	 * Will block until data is available
 	 * 
-	 * @return read data
+	 * @return read data, an empty packet at the end of stream
 	 */
 	public byte[] read() throws IOException {
-		//Log.d(TAG, "read called");
-		byte b[] = null;
-
-		while (b == null) {
-			b = mReadQueue.poll();
-			Thread.yield();
+		ReadQueue queue = mReadQueue;
+		if (queue == null) {
+			return ReadQueue.EOF;
+		}
+		byte[] b;
+		try {
+			b = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("read interrupted");
+		}
+		if (b == ReadQueue.EOF) {
+			return b;
 		}
+		LatencyTracer.getDefault().packetTaken();
 		return b;
 	}
 
+	/**
+	 * Returns the bonded NXT bricks, from the cache of {@link NXTDiscovery#getDefault() NXTDiscovery}. The adapter is
+	 * only asked again once the cached devices are older than its time to live.
+	 */
 	public NXTInfo[] search(String name, int protocol) throws NXTCommException {
-		//Log.d(TAG, "search");
-		nxtInfos = new Vector<NXTInfo>();
-		devices = new Vector<BluetoothDevice>();
-		mBtAdapter = BluetoothAdapter.getDefaultAdapter();
-		// Get a set of currently paired devices
-		Set<BluetoothDevice> pairedDevices = mBtAdapter.getBondedDevices();
-
-		for (BluetoothDevice device : pairedDevices) {
-			//Log.d(TAG, "paired devices :" + device.getName() + "\n" + device.getAddress());
-
-			if (device.getBluetoothClass().getMajorDeviceClass() == 2048) {
-				devices.add(device);
-			}
-		}
-
-		for (Enumeration<BluetoothDevice> enum_d = devices.elements(); enum_d.hasMoreElements();) {
-			BluetoothDevice d = enum_d.nextElement();
-			Log.d(TAG, "creating nxtInfo");
-			nxtInfo = new NXTInfo();
-
-			nxtInfo.name = d.getName();
-			if (nxtInfo.name == null || nxtInfo.name.length() == 0)
-				nxtInfo.name = "Unknown";
-			nxtInfo.deviceAddress = d.getAddress();
-			nxtInfo.protocol = NXTCommFactory.BLUETOOTH;
-
-			if (name == null || name.equals(nxtInfo.name)) {
-
-				//Log.d(TAG, "adding " + d.getName());
-				nxtInfos.addElement(nxtInfo);
-			}
-		}
-
-		NXTInfo[] nxts = new NXTInfo[nxtInfos.size()];
-		for (int i = 0; i < nxts.length; i++) {
-			nxts[i] = nxtInfos.elementAt(i);
-
-		}
-		return nxts;
+		return NXTDiscovery.getDefault().search(name);
 	}
 
 	/**
@@ -430,18 +504,55 @@ public class NXTCommAndroid implements NXTComm {
 		return b;
 	}
 
-	public synchronized void startIOThreads(BluetoothSocket socket, BluetoothDevice device) {
-
-		cancelIOThreads();
-
-		mReadQueue = new LinkedBlockingQueue<byte[]>();
-		mWriteQueue = new LinkedBlockingQueue<byte[]>();
-
-		mWriteThread = new WriteThread(socket, mWriteQueue);
-		mReadThread = new ReadThread(socket, mReadQueue);
-
-		mWriteThread.start();
-		mReadThread.start();
+	/**
+	 * Hands a connected socket to new read and write threads, after stopping those of a previous connection.
+	 * @param socket connected socket, owned by the new threads from now on
+	 * @param device device the socket is connected to
+	 * @param lcp true to read LCP replies, false for packet streams
+	 */
+	void startIOThreads(BluetoothSocket socket, BluetoothDevice device, boolean lcp) {
+		InputStream is;
+		OutputStream os;
+		try {
+			is = socket.getInputStream();
+			os = socket.getOutputStream();
+		} catch (IOException e) {
+			Log.e(TAG, "socket streams error ", e);
+			closeSocket(socket);
+			return;
+		}
+		synchronized (ioLock) {
+			cancelIOThreads();
+
+			ReadQueue readQueue = new ReadQueue();
+			WriteLanes writeQueue = new WriteLanes();
+			LatencyTracer.getDefault().resetPackets();
+			metrics.register("nxt.readQueue.depth", new Gauge() {
+				@Override
+				public long get() {
+					ReadQueue queue = mReadQueue;
+					return queue == null ? 0 : queue.size();
+				}
+			});
+			metrics.register("nxt.writeQueue.depth", new Gauge() {
+				@Override
+				public long get() {
+					WriteLanes queue = mWriteQueue;
+					return queue == null ? 0 : queue.size();
+				}
+			});
+
+			mSocket = socket;
+			mWriteThread = new WriteThread(os, writeQueue);
+			mReadThread = new ReadThread(is, lcp, readQueue);
+			mWriteThread.setDaemon(true);
+			mReadThread.setDaemon(true);
+			mReadQueue = readQueue;
+			mWriteQueue = writeQueue;
+
+			mWriteThread.start();
+			mReadThread.start();
+		}
 	}
 
 	public String stripColons(String s) {
@@ -459,30 +570,38 @@ public class NXTCommAndroid implements NXTComm {
 	}
 
 	/**
-	 * Put data into write queue to be written by write thread
+	 * Put data into the write lane chosen by the classifier, to be written by write thread
 	 * 
-	 * Will block if no space in queue. Queue size is 2147483647, so this is not
-	 * likely.
+	 * Never blocks, the lanes are unbounded.
 	 * 
 	 * @param data
 	 *            Data to send.
 	 */
 	public void write(byte[] data) throws IOException {
-
-		try {
-			if (data != null) {
-				mWriteQueue.put(data);
+		WriteLanes queue = mWriteQueue;
+		if (queue == null) {
+			throw new IOException("not connected");
+		}
+		if (data != null) {
+			PacketClassifier c = classifier;
+			int lane = c == null ? PacketClassifier.BULK : c.classify(data);
+			boolean superseded = lane == PacketClassifier.CONTROL && c.isSuperseded(data);
+			if (!queue.offer(lane, superseded, data)) {
+				throw new IOException("not connected");
 			}
-			Thread.yield();
-		} catch (InterruptedException e) {
-			Log.e(TAG, "write error ", e);
-			e.printStackTrace();
 		}
+	}
 
+	/**
+	 * Sets how written packets are sorted into write lanes, applies to the packets written from now on.
+	 * @param classifier the classifier, null to send all packets in one lane in the order written
+	 */
+	public void setPacketClassifier(PacketClassifier classifier) {
+		this.classifier = classifier;
 	}
 
-	public NXTInfo[] search(String arg0) throws NXTCommException {
-		return null;
+	public NXTInfo[] search(String name) throws NXTCommException {
+		return search(name, NXTCommFactory.BLUETOOTH);
 	}
 
 }
@@ -0,0 +1,288 @@
+package lejos.pc.comm;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Cache of the Bluetooth devices known to the phone, shared by {@link NXTCommAndroid#search(String, int) search} and
+ * the device pickers. Bonded devices are read from the adapter at most once per {@link #setTimeToLiveMillis(long) time
+ * to live}, devices reported by an inquiry are added one by one through {@link #deviceFound(BluetoothDevice)}. Reading
+ * the bonded devices and starting an inquiry both run on the thread "nxtDiscovery", so a picker can show the cached
+ * devices at once and is told by its {@link Listener Listener} when they change.
+ * <p>
+ * Devices only seen by an inquiry and not bonded are forgotten when they have not been seen for the time to live.
+ * @author PLT
+ *
+ */
+public class NXTDiscovery {
+
+	/**
+	 * Told when the cached devices have changed. Called on the discovery thread or on the thread delivering the
+	 * broadcast, not necessarily the main thread.
+	 */
+	public interface Listener {
+		void devicesChanged();
+	}
+
+	private static class Entry {
+		final BluetoothDevice device;
+		String name = "Unknown";
+		final boolean nxt;
+		boolean bonded;
+		long seenMillis;
+
+		Entry(BluetoothDevice device, boolean bonded, long seenMillis) {
+			this.device = device;
+			BluetoothClass bluetoothClass = device.getBluetoothClass();
+			this.nxt = bluetoothClass != null && bluetoothClass.getMajorDeviceClass() == MAJOR_CLASS_TOY;
+			this.bonded = bonded;
+			seen(device, seenMillis);
+		}
+
+		/**
+		 * Updates when the device was last seen and its name, which may have been unknown or changed since.
+		 * @return true if the name changed
+		 */
+		boolean seen(BluetoothDevice device, long millis) {
+			seenMillis = millis;
+			String n = device.getName();
+			if (n == null || n.length() == 0 || n.equals(name)) {
+				return false;
+			}
+			name = n;
+			return true;
+		}
+	}
+
+	private static final String TAG = "NXTDiscovery";
+	// major device class the NXT reports, BluetoothClass.Device.Major.TOY
+	private static final int MAJOR_CLASS_TOY = 0x800;
+	private static final NXTDiscovery DEFAULT = new NXTDiscovery();
+
+	// by address, in the order found
+	private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "nxtDiscovery");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final Runnable refreshTask = new Runnable() {
+		public void run() {
+			refreshBondedDevices();
+		}
+	};
+	private long timeToLiveMillis = 30 * 1000;
+	private long bondedRefreshedMillis = 0;
+	private boolean bondedRefreshed = false;
+
+	/**
+	 * @return cache shared by the connection and the device pickers
+	 */
+	public static NXTDiscovery getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param millis time in ms the bonded devices are not read again and devices found by an inquiry are kept, default
+	 * 30000
+	 */
+	public synchronized void setTimeToLiveMillis(long millis) {
+		this.timeToLiveMillis = millis;
+	}
+
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the NXT bricks in the cache, reading the bonded devices first if they are older than the time to live.
+	 * Blocks while reading, so call it off the main thread.
+	 * @param name name of the brick, null for all
+	 * @return new info objects, never null
+	 */
+	public NXTInfo[] search(String name) {
+		if (isStale()) {
+			refreshBondedDevices();
+		}
+		List<NXTInfo> infos = new ArrayList<NXTInfo>();
+		synchronized (this) {
+			expire(SystemClock.elapsedRealtime());
+			for (Entry e : entries.values()) {
+				if (e.nxt && (name == null || name.equals(e.name))) {
+					infos.add(new NXTInfo(NXTCommFactory.BLUETOOTH, e.name, e.device.getAddress()));
+				}
+			}
+		}
+		return infos.toArray(new NXTInfo[infos.size()]);
+	}
+
+	/**
+	 * Returns the cached devices without waiting for the adapter.
+	 * @param bondedOnly true for bonded devices only
+	 * @param nxtOnly true for NXT bricks only
+	 * @return cached devices in the order found
+	 */
+	public synchronized List<BluetoothDevice> getDevices(boolean bondedOnly, boolean nxtOnly) {
+		expire(SystemClock.elapsedRealtime());
+		List<BluetoothDevice> devices = new ArrayList<BluetoothDevice>(entries.size());
+		for (Entry e : entries.values()) {
+			if ((!bondedOnly || e.bonded) && (!nxtOnly || e.nxt)) {
+				devices.add(e.device);
+			}
+		}
+		return devices;
+	}
+
+	/**
+	 * @return whether the bonded devices have been read at least once
+	 */
+	public synchronized boolean isBondedRefreshed() {
+		return bondedRefreshed;
+	}
+
+	/**
+	 * Reads the bonded devices again on the discovery thread if they are older than the time to live.
+	 */
+	public void refreshIfStale() {
+		if (isStale()) {
+			executor.execute(refreshTask);
+		}
+	}
+
+	/**
+	 * Reads the bonded devices again on the discovery thread.
+	 */
+	public void refresh() {
+		executor.execute(refreshTask);
+	}
+
+	/**
+	 * Starts an inquiry on the discovery thread, cancelling one still running. Found devices have to be passed to
+	 * {@link #deviceFound(BluetoothDevice)} by a receiver of {@link BluetoothDevice#ACTION_FOUND}.
+	 */
+	public void startDiscovery() {
+		executor.execute(new Runnable() {
+			public void run() {
+				BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+				if (adapter == null || !adapter.isEnabled()) {
+					return;
+				}
+				if (adapter.isDiscovering()) {
+					adapter.cancelDiscovery();
+				}
+				adapter.startDiscovery();
+			}
+		});
+	}
+
+	/**
+	 * Adds a device reported by an inquiry or updates when it was last seen and its name.
+	 * @param device the device from {@link BluetoothDevice#EXTRA_DEVICE}
+	 */
+	public void deviceFound(BluetoothDevice device) {
+		if (device == null) {
+			return;
+		}
+		boolean changed;
+		synchronized (this) {
+			long now = SystemClock.elapsedRealtime();
+			Entry e = entries.get(device.getAddress());
+			changed = e == null;
+			if (changed) {
+				entries.put(device.getAddress(), new Entry(device, device.getBondState() == BluetoothDevice.BOND_BONDED, now));
+			} else {
+				changed = e.seen(device, now);
+			}
+		}
+		if (changed) {
+			notifyListeners();
+		}
+	}
+
+	/**
+	 * Forgets all devices, e.g. after pairing, so the next search reads the adapter again.
+	 */
+	public synchronized void invalidate() {
+		entries.clear();
+		bondedRefreshed = false;
+	}
+
+	private synchronized boolean isStale() {
+		return !bondedRefreshed || SystemClock.elapsedRealtime() - bondedRefreshedMillis > timeToLiveMillis;
+	}
+
+	private void refreshBondedDevices() {
+		BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+		if (adapter == null || !adapter.isEnabled()) {
+			return;
+		}
+		Set<BluetoothDevice> bonded = adapter.getBondedDevices();
+		boolean changed = false;
+		synchronized (this) {
+			long now = SystemClock.elapsedRealtime();
+			for (Entry e : entries.values()) {
+				if (e.bonded && (bonded == null || !bonded.contains(e.device))) {
+					// unpaired meanwhile, kept until it expires like any device found by an inquiry
+					e.bonded = false;
+					changed = true;
+				}
+			}
+			if (bonded != null) {
+				for (BluetoothDevice device : bonded) {
+					Entry e = entries.get(device.getAddress());
+					if (e == null) {
+						entries.put(device.getAddress(), new Entry(device, true, now));
+						changed = true;
+					} else {
+						changed |= !e.bonded;
+						e.bonded = true;
+						changed |= e.seen(device, now);
+					}
+				}
+			}
+			bondedRefreshedMillis = now;
+			changed |= !bondedRefreshed;
+			bondedRefreshed = true;
+			Log.d(TAG, entries.size()+" devices cached");
+		}
+		if (changed) {
+			notifyListeners();
+		}
+	}
+
+	private void expire(long now) {
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			Entry e = i.next();
+			if (!e.bonded && now - e.seenMillis > timeToLiveMillis) {
+				i.remove();
+			}
+		}
+	}
+
+	private void notifyListeners() {
+		for (Listener listener : listeners) {
+			listener.devicesChanged();
+		}
+	}
+}
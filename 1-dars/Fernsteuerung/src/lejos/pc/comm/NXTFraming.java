@@ -0,0 +1,88 @@
+package lejos.pc.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Packet framing used by {@link NXTCommAndroid NXTCommAndroid}. Every packet is preceded by a two byte header holding
+ * its length, least significant byte first. Uses no Android classes and leaves logging to the caller, so it can be
+ * measured on a plain JVM.
+ */
+final class NXTFraming {
+
+	private NXTFraming() {
+	}
+
+	/**
+	 * Reads one packet in PACKET mode.
+	 * @param is stream to read from
+	 * @return the packet payload, or null at end of stream
+	 * @throws IOException if reading fails
+	 */
+	static byte[] read(InputStream is) throws IOException {
+		int lsb = is.read();
+		if (lsb < 0) {
+			return null;
+		}
+		int msb = is.read();
+		if (msb < 0) {
+			return null;
+		}
+		int len = lsb | (msb << 8);
+		byte[] bb = new byte[len];
+		for (int n = 0; n < len;) {
+			int count = is.read(bb, n, len - n);
+			if (count < 0) {
+				return null;
+			}
+			n += count;
+		}
+		return bb;
+	}
+
+	/**
+	 * Reads the remainder of one packet in LCP mode, after its first header byte has been read.
+	 * @param is stream to read from
+	 * @param length first header byte, the least significant byte of the packet length
+	 * @return the packet payload
+	 * @throws IOException if reading fails
+	 */
+	static byte[] readLCP(InputStream is, int length) throws IOException {
+		int lengthMSB = is.read(); // Most Significant Byte value
+		length = (0xFF & length) | ((0xFF & lengthMSB) << 8);
+		byte[] reply = new byte[length];
+		for (int n = 0; n < length;) {
+			int count = is.read(reply, n, length - n);
+			if (count < 0) {
+				throw new EOFException();
+			}
+			n += count;
+		}
+		return reply;
+	}
+
+	/**
+	 * Prepends the length header to a packet.
+	 * @param data packet payload
+	 * @return header and payload as written to the socket
+	 */
+	static byte[] frame(byte[] data) {
+		byte[] framed = new byte[data.length + 2];
+		frame(data, framed);
+		return framed;
+	}
+
+	/**
+	 * Writes the length header and the packet into a buffer, so a writer can reuse one buffer for all packets.
+	 * @param data packet payload
+	 * @param buffer receives header and payload, at least two bytes longer than the payload
+	 * @return number of bytes to write from the buffer
+	 */
+	static int frame(byte[] data, byte[] buffer) {
+		buffer[0] = (byte) data.length;
+		buffer[1] = (byte) ((data.length >> 8) & 0xff);
+		System.arraycopy(data, 0, buffer, 2, data.length);
+		return data.length + 2;
+	}
+}
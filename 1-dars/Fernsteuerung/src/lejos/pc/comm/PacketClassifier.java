@@ -0,0 +1,42 @@
+package lejos.pc.comm;
+
+/**
+ * Sorts the packets written through {@link NXTCommAndroid NXTCommAndroid} into write lanes. The write thread always
+ * sends the oldest packet of the most urgent lane that is not empty, packets of one lane keep their order.
+ * @author PLT
+ *
+ */
+public interface PacketClassifier {
+
+	/**
+	 * Lane of packets that stop the robot. A packet queued in this lane drops the CONTROL packets queued before it that
+	 * are {@link #isSuperseded(byte[]) superseded} by a stop.
+	 */
+	int SAFETY = 0;
+	/**
+	 * Lane of other commands changing what the robot does.
+	 */
+	int CONTROL = 1;
+	/**
+	 * Lane of everything else, the lane of all packets without a classifier.
+	 */
+	int BULK = 2;
+	/**
+	 * Number of lanes.
+	 */
+	int LANES = 3;
+
+	/**
+	 * Called by the thread writing the packet, must not block.
+	 * @param packet payload of the packet, without the length header
+	 * @return {@link #SAFETY}, {@link #CONTROL} or {@link #BULK}
+	 */
+	int classify(byte[] packet);
+
+	/**
+	 * Called by the thread writing the packet, must not block.
+	 * @param packet payload of a CONTROL packet, without the length header
+	 * @return true if a SAFETY packet queued after it overrides the packet, so it is dropped while still queued
+	 */
+	boolean isSuperseded(byte[] packet);
+}
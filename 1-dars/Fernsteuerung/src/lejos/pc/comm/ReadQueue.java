@@ -0,0 +1,68 @@
+package lejos.pc.comm;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packets handed from the read thread of {@link NXTCommAndroid NXTCommAndroid} to the consumer of
+ * {@link NXTCommAndroid#read() read()}. Once {@link #close() closed} the queue returns the packets still queued and then
+ * the empty packet {@link #EOF} to every further take. Uses no Android classes.
+ */
+final class ReadQueue {
+
+	/**
+	 * End of stream for {@link NXTCommInputStream NXTCommInputStream}.
+	 */
+	static final byte[] EOF = new byte[0];
+
+	private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+
+	/**
+	 * Queues a packet, never blocks.
+	 * @param packet packet payload
+	 */
+	void offer(byte[] packet) {
+		queue.offer(packet);
+	}
+
+	/**
+	 * Marks the end of stream after the packets queued so far and wakes a waiting consumer.
+	 */
+	void close() {
+		queue.offer(EOF);
+	}
+
+	/**
+	 * Waits for the next packet.
+	 * @return the packet, {@link #EOF} once closed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	byte[] take() throws InterruptedException {
+		return keepEof(queue.take());
+	}
+
+	/**
+	 * Waits a limited time for the next packet.
+	 * @param millis longest wait
+	 * @return the packet, {@link #EOF} once closed, null if none arrived in time
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	byte[] poll(long millis) throws InterruptedException {
+		return keepEof(queue.poll(millis, TimeUnit.MILLISECONDS));
+	}
+
+	private byte[] keepEof(byte[] packet) {
+		if (packet == EOF) {
+			// keep the end of stream for further consumers
+			queue.offer(EOF);
+		}
+		return packet;
+	}
+
+	/**
+	 * @return number of packets waiting
+	 */
+	int size() {
+		return queue.size();
+	}
+}
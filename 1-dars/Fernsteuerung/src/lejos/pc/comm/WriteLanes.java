@@ -0,0 +1,136 @@
+package lejos.pc.comm;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+import de.amr.plt.rcParkingRobot.metrics.Counter;
+import de.amr.plt.rcParkingRobot.metrics.Histogram;
+import de.amr.plt.rcParkingRobot.metrics.MetricsRegistry;
+
+/**
+ * Write queue of one connection, split into the lanes of {@link PacketClassifier PacketClassifier}. Producers never
+ * block, the write thread {@link #take() takes} the oldest packet of the most urgent lane. The time each packet waited
+ * at the head of the line, from queueing to being taken, is recorded in µs into {@code nxt.write.wait.safety},
+ * {@code nxt.write.wait.control} and {@code nxt.write.wait.bulk}; superseded CONTROL packets dropped by a SAFETY packet
+ * are counted in {@code nxt.write.superseded}.
+ * @author PLT
+ *
+ */
+class WriteLanes {
+
+	// longest wait distinguished, 10 s in µs
+	private static final long MAX_WAIT_MICROS = 10L * 1000 * 1000;
+	private static final String[] NAMES = {"safety", "control", "bulk"};
+
+	/**
+	 * A queued packet, when it was queued and whether a later SAFETY packet drops it.
+	 */
+	private static final class Pending {
+		final byte[] data;
+		final long nanos;
+		final boolean supersedable;
+
+		Pending(byte[] data, long nanos, boolean supersedable) {
+			this.data = data;
+			this.nanos = nanos;
+			this.supersedable = supersedable;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Pending>[] lanes = new ArrayDeque[PacketClassifier.LANES];
+	private final Histogram[] waits = new Histogram[PacketClassifier.LANES];
+	private final Counter superseded = MetricsRegistry.getDefault().counter("nxt.write.superseded");
+	private int size = 0;
+	private boolean closed = false;
+
+	WriteLanes() {
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<Pending>();
+			waits[i] = MetricsRegistry.getDefault().histogram("nxt.write.wait."+NAMES[i], MAX_WAIT_MICROS);
+		}
+	}
+
+	/**
+	 * Queues a packet, never blocks.
+	 * @param lane lane of the packet, out of range counts as BULK
+	 * @param supersedable true if the packet is dropped by a SAFETY packet queued after it, only used in the CONTROL lane
+	 * @param data payload of the packet
+	 * @return false if the queue has been {@link #close() closed}, the packet is dropped then
+	 */
+	synchronized boolean offer(int lane, boolean supersedable, byte[] data) {
+		if (closed) {
+			return false;
+		}
+		if (lane < 0 || lane >= lanes.length) {
+			lane = PacketClassifier.BULK;
+		}
+		if (lane == PacketClassifier.SAFETY) {
+			// a stop overrides the mode changes queued before it, other commands like slot selections are kept
+			int dropped = 0;
+			for (Iterator<Pending> i = lanes[PacketClassifier.CONTROL].iterator(); i.hasNext();) {
+				if (i.next().supersedable) {
+					i.remove();
+					dropped++;
+				}
+			}
+			size -= dropped;
+			superseded.add(dropped);
+		}
+		lanes[lane].add(new Pending(data, System.nanoTime(), supersedable && lane == PacketClassifier.CONTROL));
+		size++;
+		notify();
+		return true;
+	}
+
+	/**
+	 * Waits for a packet and takes the oldest of the most urgent lane.
+	 * @return payload of the packet, null once {@link #close() closed} and drained
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	synchronized byte[] take() throws InterruptedException {
+		while (size == 0) {
+			if (closed) {
+				return null;
+			}
+			wait();
+		}
+		for (int i = 0; i < lanes.length; i++) {
+			Pending p = lanes[i].poll();
+			if (p != null) {
+				size--;
+				waits[i].record((System.nanoTime() - p.nanos) / 1000);
+				return p.data;
+			}
+		}
+		throw new IllegalStateException("size "+size+" but all lanes empty");
+	}
+
+	/**
+	 * Ends the queue: the BULK packets are dropped, the SAFETY and CONTROL packets are still {@link #take() taken}, so a
+	 * stop queued right before closing reaches the robot. Later offers are refused.
+	 */
+	synchronized void close() {
+		closed = true;
+		size -= lanes[PacketClassifier.BULK].size();
+		lanes[PacketClassifier.BULK].clear();
+		notifyAll();
+	}
+
+	/**
+	 * Drops all queued packets.
+	 */
+	synchronized void clear() {
+		for (ArrayDeque<Pending> lane : lanes) {
+			lane.clear();
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return number of queued packets in all lanes
+	 */
+	synchronized int size() {
+		return size;
+	}
+}